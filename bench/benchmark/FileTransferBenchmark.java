@@ -0,0 +1,170 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fileManagement.ChannelOutputStream;
+import fileManagement.FileManager;
+
+/**
+ * Measures how fast FileManager can send files of different sizes over a socket: "stream" copies the file through the sockets
+ * OutputStream, "transfer" uses FileChannel.transferTo through a ChannelOutputStream and "mapped" sends it from a mapping of the
+ * file through a ChannelOutputStream. The files are sent to a local socket that reads and throws away everything it gets, a send
+ * is not done until everything has been read by the other side. The score is the time of one send, the largest sizes can be
+ * skipped with eg. "-p size=1024,16384,262144,4194304"
+ * @author Mattis
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileTransferBenchmark {
+	// The file size to measure in bytes, from 1 KB to 1 GB
+	@Param({"1024", "16384", "262144", "4194304", "67108864", "1073741824"})
+	public long size;
+
+	// How the file is sent: stream, transfer or mapped
+	@Param({"stream", "transfer", "mapped"})
+	public String mode;
+
+	// Tells the benchmark that the other side has read everything
+	private final Semaphore sinkDone = new Semaphore(0);
+
+	// The local socket the files are sent to
+	private ServerSocketChannel sink;
+
+	// The file that is sent
+	private File file;
+
+
+	/************************** methods **************************/
+
+	/**
+	 * Creates the file, opens the local socket and starts the thread that reads what is sent
+	 * @throws IOException if the file could not be created or the local socket could not be opened
+	 */
+	@Setup
+	public void setUp() throws IOException{
+		if(!mode.equals("stream") && !mode.equals("transfer") && !mode.equals("mapped")){
+			throw new IllegalArgumentException("Unknown mode: " + mode);
+		}
+		// every file is sent from its mapping in the mapped mode and none in the others
+		FileManager.getInstance().setMappedFileThreshold(mode.equals("mapped") ? 1 : 0);
+		file = createFile(size);
+
+		sink = ServerSocketChannel.open();
+		sink.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		Thread sinkThread = new Thread(new Sink(), "benchmark-sink");
+		sinkThread.setDaemon(true);
+		sinkThread.start();
+	}
+
+	/**
+	 * Closes the local socket, which stops the thread that reads from it, and deletes the file
+	 * @throws IOException if the local socket could not be closed
+	 */
+	@TearDown
+	public void tearDown() throws IOException{
+		sink.close();
+		file.delete();
+	}
+
+	/**
+	 * Sends the file once over a new connection and waits until the other side has read all of it
+	 * @throws IOException if the file could not be sent
+	 */
+	@Benchmark
+	public void send() throws IOException{
+		SocketChannel channel = SocketChannel.open(sink.socket().getLocalSocketAddress());
+		try {
+			if(mode.equals("stream")){
+				FileManager.getInstance().copyFileToStream(channel.socket().getOutputStream(), file.getPath());
+			} else{
+				FileManager.getInstance().copyFileToStream(new ChannelOutputStream(channel), file.getPath());
+			}
+			channel.socket().shutdownOutput();
+			sinkDone.acquireUninterruptibly();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Creates a temporary file filled with random bytes
+	 * @param size the size of the file in bytes
+	 * @return the file
+	 * @throws IOException if the file could not be written
+	 */
+	private static File createFile(long size) throws IOException{
+		File file = File.createTempFile("pytteweb-transfer", ".bin");
+		file.deleteOnExit();
+		byte[] block = new byte[1 << 20];
+		new Random(size).nextBytes(block);
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			for(long written = 0; written < size; written += block.length){
+				out.write(block, 0, (int) Math.min(block.length, size - written));
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+
+
+	/**
+	 * Reads and throws away everything that is sent to the local socket, one connection at a time, until the socket is closed
+	 * @author Mattis
+	 *
+	 */
+	private class Sink implements Runnable{
+
+		@Override
+		public void run() {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(256 << 10);
+			while(sink.isOpen()){
+				try {
+					SocketChannel channel = sink.accept();
+					while(channel.read(buffer) != -1){
+						buffer.clear();
+					}
+					channel.close();
+				} catch (IOException e) {
+					if(!sink.isOpen()){
+						return; // the benchmark is done
+					}
+					e.printStackTrace();
+				}
+				sinkDone.release();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,249 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.Request;
+import server.RequestProcessor;
+import server.RequestReader;
+import fileManagement.FileManager;
+
+/**
+ * Benchmarks the paths every request goes through: parsing the request, creating the response headers, sending the file and
+ * reading the request from the connection. Run from the project folder so that the shipped pages are found, eg.
+ * "gradle jmh -Pjmh='HotPathBenchmarks -rf json -rff hotpaths.json'" to also write the results as JSON
+ * @author Mattis
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class HotPathBenchmarks {
+	// The requests are read as bytes and every byte is one character
+	private static final Charset requestCharset = Charset.forName("ISO-8859-1");
+	
+	// The headers that are added to the requests, in this order
+	private static final String[] headerLines = {
+		"Host: localhost:8080", "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:60.0) Gecko/20100101 Firefox/60.0",
+		"Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8", "Accept-Language: en-US,en;q=0.5",
+		"Accept-Encoding: gzip, deflate", "Connection: keep-alive", "Cache-Control: max-age=0", "Upgrade-Insecure-Requests: 1",
+	};
+	
+	
+	/************************** methods **************************/
+	
+	/**
+	 * Parsing requests made with HTTP/0.9, 1.0 and 1.1, the 1.1 requests with a different number of headers
+	 */
+	@Benchmark
+	public boolean parse(Parsing state){
+		return new Request(state.bytes, 0, state.bytes.length).wantsKeepAlive();
+	}
+	
+	/**
+	 * Creating the response headers, measured through HEAD requests which only sends the headers
+	 */
+	@Benchmark
+	public long head(Heading state) throws IOException{
+		DiscardingOutputStream out = new DiscardingOutputStream();
+		state.processor.processAndSendRequest(out, state.request, true);
+		return out.written;
+	}
+	
+	/**
+	 * Sending files of different sizes to a stream that throws everything away, the smaller ones are served from the file
+	 * cache and the larger ones from the disk
+	 */
+	@Benchmark
+	public long copyFileToStream(FileSending state) throws IOException{
+		DiscardingOutputStream out = new DiscardingOutputStream();
+		FileManager.getInstance().copyFileToStream(out, state.file.getPath());
+		return out.written;
+	}
+	
+	/**
+	 * Reading requests from a stream that is already in memory with a new reader every time, as a new connection would. One
+	 * request per stream and three pipelined ones per stream
+	 */
+	@Benchmark
+	public long read(Reading state) throws IOException{
+		ByteArrayInputStream in = new ByteArrayInputStream(state.bytes);
+		RequestReader reader = new RequestReader();
+		long result = 0;
+		for(int i = 0; i < state.pipelined; i++){
+			result += reader.readRequest(in, null, 10000).getRequestLength();
+		}
+		return result;
+	}
+	
+	/**
+	 * Creates a request with a number of headers, the headers are repeated if more are asked for than there are
+	 * @param method the method, eg. GET
+	 * @param headers the number of headers
+	 * @return the request
+	 */
+	private static String createRequest(String method, int headers){
+		StringBuilder request = new StringBuilder(method).append(" /index.html HTTP/1.1\r\n");
+		for(int i = 0; i < headers; i++){
+			request.append(headerLines[i % headerLines.length]).append("\r\n");
+		}
+		return request.append("\r\n").toString();
+	}
+	
+	/**
+	 * Creates a temporary file filled with random bytes
+	 * @param size the size of the file in bytes
+	 * @return the file
+	 * @throws IOException if the file could not be written
+	 */
+	private static File createFile(int size) throws IOException{
+		File file = File.createTempFile("pytteweb-hotpath", ".bin");
+		file.deleteOnExit();
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+	
+	
+	
+	/**
+	 * The request that is parsed: "http09", "http10" or "http11-" followed by the number of headers
+	 * @author Mattis
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class Parsing{
+		@Param({"http09", "http10", "http11-0", "http11-4", "http11-16", "http11-32"})
+		public String request;
+		
+		// the request as it is recieved
+		private byte[] bytes;
+		
+		@Setup
+		public void setUp(){
+			String requestString;
+			if(request.equals("http09")){
+				requestString = "GET /index.html\r\n\r\n";
+			} else if(request.equals("http10")){
+				requestString = "GET /index.html HTTP/1.0\r\n\r\n";
+			} else{
+				requestString = createRequest("GET", Integer.parseInt(request.substring(request.indexOf('-') + 1)));
+			}
+			bytes = requestString.getBytes(requestCharset);
+		}
+	}
+	
+	/**
+	 * The HEAD request that is answered and the processor that answers it
+	 * @author Mattis
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class Heading{
+		@Param({"index.html", "truck.gif"})
+		public String resource;
+		
+		private RequestProcessor processor;
+		private Request request;
+		
+		@Setup
+		public void setUp(){
+			processor = new RequestProcessor(null);
+			request = new Request("HEAD /" + resource + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		}
+	}
+	
+	/**
+	 * The file that is sent, created before the benchmark and deleted after it
+	 * @author Mattis
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class FileSending{
+		@Param({"1024", "65536", "1048576", "16777216"})
+		public int size;
+		
+		private File file;
+		
+		@Setup
+		public void setUp() throws IOException{
+			file = createFile(size);
+		}
+		
+		@TearDown
+		public void tearDown(){
+			file.delete();
+		}
+	}
+	
+	/**
+	 * The requests that are read, a request with 8 headers repeated as many times as it is pipelined
+	 * @author Mattis
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class Reading{
+		@Param({"1", "3"})
+		public int pipelined;
+		
+		private byte[] bytes;
+		
+		@Setup
+		public void setUp(){
+			String request = createRequest("GET", 8);
+			StringBuilder requests = new StringBuilder();
+			for(int i = 0; i < pipelined; i++){
+				requests.append(request);
+			}
+			bytes = requests.toString().getBytes(requestCharset);
+		}
+	}
+	
+	/**
+	 * Throws away everything that is written to it, but counts the bytes
+	 * @author Mattis
+	 *
+	 */
+	private static class DiscardingOutputStream extends OutputStream{
+		// the number of bytes that has been written
+		private long written = 0;
+		
+		@Override
+		public void write(int b) {
+			written++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			written += len;
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package benchmark;
+
+import server.RequestCommands;
+import server.TCPWebServer;
+
+/**
+ * The regex and split based parsing that Request used before it parsed the bytes directly, kept as it was so that the two can
+ * be compared, both for speed and for giving the same result
+ * @author Mattis
+ *
+ */
+public class LegacyRequestParser {
+	// The command used for this request, eg. GET, HEAD etc.
+	private RequestCommands requestCommand;
+	
+	// The path to the resource that has been requested
+	private String resource;
+	
+	// Holds the information about whether or not the request is in a valid format
+	private boolean validRequest = true;
+	
+	// Holds the information about whether or not the request was made with a HTTP-version after 0.9(that is either 1.0 or 1.1)
+	private boolean lateVersionHTTP = false;
+	
+	// Holds the information about whether or not the request was made with HTTP/1.1
+	private boolean versionHTTP11 = false;
+	
+	// The number of headers that was found
+	private int headerCount = 0;
+	
+	//////////////////////// Constructors /////////////////////////
+	public LegacyRequestParser(String requestString) {
+		super();
+		parseRequestString(requestString);
+	}
+	
+	
+	///////////////////////// Methods /////////////////////////////////////
+	
+	/**
+	 * Used to parse the request string
+	 * @param requestString
+	 */
+	private void parseRequestString(String requestString){
+		String regexResourcePath = "((\\w+)([\\.-]*)/?)+";
+		
+		String regexHTTPVersion = "(HTTP/1.)(1|0)";
+		
+		if(requestString.endsWith("\r\n\r\n")){
+			String[] requestTokens = requestString.split("\\s+");
+			
+			if(requestTokens.length >= 3){
+				if(!requestTokens[2].matches(regexHTTPVersion)){
+					validRequest = false;
+				} else{
+					lateVersionHTTP = true;
+					versionHTTP11 = requestTokens[2].endsWith("1");
+					
+					if(requestTokens[0].equals("GET")){
+						this.handleGETandHEAD1x1Requests(requestTokens, RequestCommands.GET10, regexResourcePath);
+					} else if(requestTokens[0].equals("HEAD")){
+						this.handleGETandHEAD1x1Requests(requestTokens, RequestCommands.HEAD10, regexResourcePath);
+					} else if(requestTokens[0].equals("QUIT")){
+						this.requestCommand = RequestCommands.QUIT;
+					} else{
+						validRequest = false;
+					}
+				}
+				
+			} else if(requestTokens.length >= 2){
+				if(requestTokens[0].equals("GET")){
+					this.requestCommand = RequestCommands.GET09;
+					if(requestTokens[1].equals("/")){
+						this.resource = TCPWebServer.indexFile;
+					}else{
+						String requestToken = requestTokens[1].replaceFirst("/", "");
+						if(!requestToken.matches(regexResourcePath)){
+							validRequest = false;
+						}else{
+							this.resource = requestToken;
+						}
+					}
+				} else if(requestTokens[0].equals("QUIT")){
+					this.requestCommand = RequestCommands.QUIT;
+				} else{
+					validRequest = false;
+				}
+			} else if(requestTokens.length > 0){
+				if(requestTokens[0].equals("QUIT")){
+					this.requestCommand = RequestCommands.QUIT;
+				} else{
+					validRequest = false;
+				}
+			} else{
+				validRequest = false;
+			}
+			
+		} else{
+			validRequest = false;
+		}
+	}
+	
+	/**
+	 * Handles the GET and HEAD request for HTTP/1.0 and 1.1
+	 */
+	private void handleGETandHEAD1x1Requests(String[] requestTokens, RequestCommands typeOfRequest, String regexResourcePath){
+		this.requestCommand = typeOfRequest;
+		
+		if(requestTokens[1].equals("/")){
+			this.resource = "index.html";
+		}else{
+			String requestToken = requestTokens[1].replaceFirst("/", "");
+			if(!requestToken.matches(regexResourcePath)){
+				validRequest = false;
+			}else{
+				this.resource = requestToken;
+				for(int i = 3; i < requestTokens.length; i++){
+					String tempString = "";
+					if(requestTokens[i++].matches("(\\w+)(\\:)$")){
+						tempString += requestTokens[i-1];
+						while(i < requestTokens.length && !requestTokens[i].matches("(\\w+)(\\:)$")){
+							tempString += requestTokens[i++];
+						}
+						i -= 2;
+					}
+					headerCount++;
+				}
+			}
+		}
+	}
+	
+	
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	public RequestCommands getRequestCommand() {
+		return requestCommand;
+	}
+	
+	public String getResource() {
+		return resource;
+	}
+	
+	public boolean isValidRequest() {
+		return validRequest;
+	}
+	
+	public boolean usesNewerHTTP(){
+		return lateVersionHTTP;
+	}
+	
+	public boolean usesHTTP11(){
+		return versionHTTP11;
+	}
+	
+	public int getHeaderCount() {
+		return headerCount;
+	}
+	
+}
@@ -0,0 +1,462 @@
+package benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.LatencyHistogram;
+import server.NioWebServer;
+import server.ServerConfiguration;
+import server.ServerEngine;
+import server.TCPWebServer;
+import server.WebServer;
+
+/**
+ * Puts load on a server with a number of connections that sends requests as fast as they are answered, or at a fixed rate,
+ * and reports the throughput and the latency percentiles of every kind of request. By default a server is started in the same
+ * process from this folder so that the shipped pages are served, eg.
+ * "benchmark.LoadGenerator connections=64 duration=30 keepalive=false engine=nio workers=32"
+ * @author Mattis
+ *
+ */
+public class LoadGenerator {
+	// The requests are sent as bytes and every byte is one character
+	private static final Charset requestCharset = Charset.forName("ISO-8859-1");
+	
+	// The kinds of requests that can be sent, and the file that is asked for when the not found kind is sent
+	private static final String[] kinds = {"get", "head", "notfound", "get09"};
+	private static final int GET = 0, HEAD = 1, NOT_FOUND = 2, GET09 = 3;
+	private static final String missingFile = "nothere.html";
+	
+	// Sends this mix of requests and files if nothing else is given
+	private static final String defaultMix = "get:70,head:10,notfound:10,get09:10";
+	private static final String defaultFiles = "index.html:30,pictures.htm:20,text.txt:20,truck.gif:20,error.html:10";
+	
+	// Values are recorded in microseconds
+	private static final long microsPerNano = 1000;
+	
+	// The settings
+	private final String host;
+	private final int port;
+	private final int connections;
+	private final long warmupMillis;
+	private final long durationMillis;
+	private final boolean keepAlive;
+	private final double ratePerConnection;
+	
+	// The weight of every kind of request and every file, the weights are cumulative
+	private final int[] kindWeights;
+	private final List<String> files = new ArrayList<String>();
+	private final List<Integer> fileWeights = new ArrayList<Integer>();
+	
+	// The request for every kind and file, [kind][file]
+	private byte[][][] requests;
+	
+	// The latencies of every kind of request and of all of them
+	private final LatencyHistogram[] kindLatencies = new LatencyHistogram[kinds.length];
+	private final LatencyHistogram totalLatency = new LatencyHistogram();
+	
+	// The number of requests that failed or got another status than expected, and the number of bytes that was recieved
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong bytesRecieved = new AtomicLong();
+	private final AtomicLong connectionsOpened = new AtomicLong();
+	
+	// The times the measuring starts and ends
+	private volatile long measureStart;
+	private volatile long measureEnd;
+	
+	
+	/*************** Constructors *****************/
+	/**
+	 * Creates the load generator from the command line arguments
+	 * @param args the arguments as name=value
+	 */
+	public LoadGenerator(String[] args) {
+		super();
+		this.host = getArgument(args, "host", "localhost");
+		this.port = Integer.parseInt(getArgument(args, "port", "8080"));
+		this.connections = Integer.parseInt(getArgument(args, "connections", "16"));
+		this.warmupMillis = Long.parseLong(getArgument(args, "warmup", "2")) * 1000;
+		this.durationMillis = Long.parseLong(getArgument(args, "duration", "10")) * 1000;
+		this.keepAlive = Boolean.parseBoolean(getArgument(args, "keepalive", "true"));
+		this.ratePerConnection = Double.parseDouble(getArgument(args, "rate", "0")) / connections;
+		
+		this.kindWeights = new int[kinds.length];
+		for(String[] weight : parseWeights(getArgument(args, "mix", defaultMix))){
+			for(int i = 0; i < kinds.length; i++){
+				if(kinds[i].equals(weight[0])){
+					kindWeights[i] += Integer.parseInt(weight[1]);
+				}
+			}
+		}
+		for(int i = 1; i < kinds.length; i++){
+			kindWeights[i] += kindWeights[i - 1];
+		}
+		int fileWeight = 0;
+		for(String[] weight : parseWeights(getArgument(args, "files", defaultFiles))){
+			fileWeight += Integer.parseInt(weight[1]);
+			files.add(weight[0]);
+			fileWeights.add(fileWeight);
+		}
+		if(kindWeights[kinds.length - 1] <= 0 || fileWeight <= 0){
+			throw new IllegalArgumentException("The mix and the files needs at least one weight above 0");
+		}
+		
+		for(int i = 0; i < kinds.length; i++){
+			kindLatencies[i] = new LatencyHistogram();
+		}
+		createRequests();
+	}
+	
+	
+	/************************** methods **************************/
+	
+	/**
+	 * Runs the load generator
+	 * @param args the settings as name=value: host, port, connections, warmup and duration in seconds, keepalive=true/false,
+	 * rate(requests per second in total, 0 sends as fast as possible), mix(eg. "get:70,head:10,notfound:10,get09:10"),
+	 * files(eg. "index.html:3,truck.gif:1") and server=local/external. A local server is started with the same arguments so
+	 * engine, workers etc. can be given as well
+	 * @throws Exception if the server could not be started
+	 */
+	public static void main(String[] args) throws Exception{
+		LoadGenerator generator = new LoadGenerator(args);
+		
+		WebServer server = null;
+		if(getArgument(args, "server", "local").equals("local")){
+			server = startLocalServer(ServerConfiguration.fromArguments(args));
+		}
+		
+		generator.run();
+		generator.printReport();
+		
+		if(server != null){
+			server.shutdownServer();
+		}
+		System.exit(0); // the console thread of the server is still waiting for input
+	}
+	
+	/**
+	 * Starts a server in this process, on a thread of its own
+	 * @param configuration the settings of the server
+	 * @return the server
+	 * @throws Exception if the server could not be started
+	 */
+	private static WebServer startLocalServer(ServerConfiguration configuration) throws Exception{
+		final WebServer server;
+		if(configuration.getEngine() == ServerEngine.NIO){
+			server = new NioWebServer(configuration);
+		} else{
+			server = new TCPWebServer(configuration);
+		}
+		Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					server.startServer();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, "loadgenerator-server");
+		serverThread.setDaemon(true);
+		serverThread.start();
+		Thread.sleep(500); // let it start accepting
+		return server;
+	}
+	
+	/**
+	 * Starts every connection, waits for the warmup and the duration to pass and then for every connection to stop
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void run() throws InterruptedException{
+		long now = System.currentTimeMillis();
+		measureStart = now + warmupMillis;
+		measureEnd = measureStart + durationMillis;
+		
+		Thread[] threads = new Thread[connections];
+		for(int i = 0; i < connections; i++){
+			threads[i] = new Thread(new ClientConnection(i), "loadgenerator-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+	}
+	
+	/**
+	 * Prints the throughput and the latency percentiles
+	 */
+	public void printReport(){
+		double seconds = durationMillis / 1000.0;
+		long requests = totalLatency.getTotalCount();
+		System.out.println(String.format(Locale.US, "%d connections, keep-alive %s, %.0f s: %.1f requests/s, %.2f MB/s, " +
+				"%d errors, %d connections opened", connections, keepAlive ? "on" : "off", seconds, requests / seconds,
+				bytesRecieved.get() / seconds / (1 << 20), errors.get(), connectionsOpened.get()));
+		System.out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s %10s", "latency us", "count", "mean", "p50", "p90",
+				"p99", "p99.9", "max"));
+		for(int i = 0; i < kinds.length; i++){
+			if(kindLatencies[i].getTotalCount() > 0){
+				printLatency(kinds[i], kindLatencies[i]);
+			}
+		}
+		printLatency("all", totalLatency);
+	}
+	
+	private static void printLatency(String name, LatencyHistogram histogram){
+		System.out.println(String.format(Locale.US, "%-10s %10d %10.0f %10d %10d %10d %10d %10d", name, histogram.getTotalCount(),
+				histogram.getMean(), histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+				histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMax()));
+	}
+	
+	/**
+	 * Creates the bytes of every request that can be sent
+	 */
+	private void createRequests(){
+		requests = new byte[kinds.length][files.size()][];
+		String headers = "Host: " + host + "\r\n" + (keepAlive ? "" : "Connection: close\r\n") + "\r\n";
+		for(int i = 0; i < files.size(); i++){
+			String file = files.get(i);
+			requests[GET][i] = ("GET /" + file + " HTTP/1.1\r\n" + headers).getBytes(requestCharset);
+			requests[HEAD][i] = ("HEAD /" + file + " HTTP/1.1\r\n" + headers).getBytes(requestCharset);
+			requests[NOT_FOUND][i] = ("GET /" + missingFile + " HTTP/1.1\r\n" + headers).getBytes(requestCharset);
+			requests[GET09][i] = ("GET /" + file + "\r\n\r\n").getBytes(requestCharset);
+		}
+	}
+	
+	/**
+	 * Gets the value of a name=value argument
+	 * @param args the command line arguments
+	 * @param name the name of the argument
+	 * @param defaultValue the value to use if the argument is not given
+	 * @return the value
+	 */
+	private static String getArgument(String[] args, String name, String defaultValue){
+		for(String argument : args){
+			if(argument.startsWith(name + "=")){
+				return argument.substring(name.length() + 1);
+			}
+		}
+		return defaultValue;
+	}
+	
+	/**
+	 * Parses weights given as "name:weight,name:weight"
+	 */
+	private static List<String[]> parseWeights(String weights){
+		List<String[]> parsed = new ArrayList<String[]>();
+		for(String weight : weights.split(",")){
+			int separator = weight.lastIndexOf(':');
+			if(separator > 0){
+				parsed.add(new String[]{weight.substring(0, separator).trim(), weight.substring(separator + 1).trim()});
+			}
+		}
+		return parsed;
+	}
+	
+	
+	
+	/**
+	 * One connection to the server that sends requests until the time is up, a new connection is opened whenever the server
+	 * closes the old one
+	 * @author Mattis
+	 *
+	 */
+	private class ClientConnection implements Runnable{
+		// picks the kind of request and the file
+		private final Random random;
+		
+		// the connection, null when a new one has to be opened
+		private Socket socket;
+		private InputStream in;
+		private OutputStream out;
+		
+		// the buffer the responses are read in to
+		private final byte[] buffer = new byte[8192];
+		
+		ClientConnection(int id){
+			this.random = new Random(id);
+		}
+		
+		@Override
+		public void run() {
+			// with a fixed rate the latency is measured from when the request should have been sent, so that a slow response
+			// also counts against the requests that had to wait for it
+			long interval = ratePerConnection > 0 ? (long) (1e9 / ratePerConnection) : 0;
+			long intended = System.nanoTime();
+			
+			while(System.currentTimeMillis() < measureEnd){
+				int kind = pick(kindWeights, random.nextInt(kindWeights[kindWeights.length - 1]));
+				int file = pickFile(random.nextInt(fileWeights.get(fileWeights.size() - 1)));
+				
+				long start = System.nanoTime();
+				if(interval > 0){
+					intended += interval;
+					while((start = System.nanoTime()) < intended){
+						sleepNanos(intended - start);
+					}
+					start = intended;
+				}
+				
+				boolean ok = send(kind, requests[kind][file]);
+				long latency = (System.nanoTime() - start) / microsPerNano;
+				
+				if(System.currentTimeMillis() >= measureStart){
+					if(ok){
+						kindLatencies[kind].record(latency);
+						totalLatency.record(latency);
+					} else{
+						errors.incrementAndGet();
+					}
+				}
+			}
+			close();
+		}
+		
+		/**
+		 * Sends a request and reads the whole response
+		 * @param kind the kind of request
+		 * @param request the request
+		 * @return true if the response had the expected status
+		 */
+		private boolean send(int kind, byte[] request){
+			try {
+				if(socket == null){
+					socket = new Socket();
+					socket.setTcpNoDelay(true);
+					socket.connect(new InetSocketAddress(host, port));
+					in = new BufferedInputStream(socket.getInputStream(), buffer.length);
+					out = socket.getOutputStream();
+					connectionsOpened.incrementAndGet();
+				}
+				out.write(request);
+				out.flush();
+				
+				if(kind == GET09){
+					readUntilClosed(); // no headers, the server closes the connection after the file
+					close();
+					return true;
+				}
+				
+				String headers = readHeaders();
+				if(headers == null){
+					close();
+					return false;
+				}
+				long contentLength = Long.parseLong(getHeader(headers, "Content-Length", "0"));
+				if(kind != HEAD){
+					skip(contentLength);
+				}
+				if(!"keep-alive".equalsIgnoreCase(getHeader(headers, "Connection", "close"))){
+					close();
+				}
+				String expected = (kind == NOT_FOUND) ? " 404 " : " 200 ";
+				return headers.startsWith("HTTP/1.1" + expected);
+			} catch (IOException e) {
+				close();
+				return false;
+			}
+		}
+		
+		/**
+		 * Reads the status line and the headers
+		 * @return the headers, null if the connection ended before them
+		 */
+		private String readHeaders() throws IOException{
+			int length = 0;
+			int matched = 0;
+			while(matched < 4){
+				int b = in.read();
+				if(b == -1 || length == buffer.length){
+					return null;
+				}
+				buffer[length++] = (byte) b;
+				matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+			}
+			bytesRecieved.addAndGet(length);
+			return new String(buffer, 0, length, requestCharset);
+		}
+		
+		private void skip(long length) throws IOException{
+			while(length > 0){
+				int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+				if(read == -1){
+					throw new IOException("Connection ended before the whole body was read");
+				}
+				length -= read;
+				bytesRecieved.addAndGet(read);
+			}
+		}
+		
+		private void readUntilClosed() throws IOException{
+			int read;
+			while((read = in.read(buffer)) != -1){
+				bytesRecieved.addAndGet(read);
+			}
+		}
+		
+		private void close(){
+			if(socket != null){
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// already closed
+				}
+				socket = null;
+			}
+		}
+		
+		private void sleepNanos(long nanos){
+			try {
+				Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		private int pickFile(int value){
+			for(int i = 0; i < fileWeights.size(); i++){
+				if(value < fileWeights.get(i)){
+					return i;
+				}
+			}
+			return fileWeights.size() - 1;
+		}
+	}
+	
+	/**
+	 * Picks an index from cumulative weights
+	 */
+	private static int pick(int[] cumulativeWeights, int value){
+		for(int i = 0; i < cumulativeWeights.length; i++){
+			if(value < cumulativeWeights[i]){
+				return i;
+			}
+		}
+		return cumulativeWeights.length - 1;
+	}
+	
+	/**
+	 * Gets the value of a response header
+	 */
+	private static String getHeader(String headers, String name, String defaultValue){
+		for(String line : headers.split("\r\n")){
+			int separator = line.indexOf(':');
+			if(separator == name.length() && line.regionMatches(true, 0, name, 0, name.length())){
+				return line.substring(separator + 1).trim();
+			}
+		}
+		return defaultValue;
+	}
+	
+}
@@ -0,0 +1,119 @@
+package benchmark;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.Request;
+
+/**
+ * Compares parsing requests from the bytes they are recieved as with the regex and split based parsing that was used before.
+ * Before a request is measured it is parsed by both and the results are compared, the benchmark fails if they differ
+ * @author Mattis
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+	// The requests are read as bytes and every byte is one character
+	private static final Charset requestCharset = Charset.forName("ISO-8859-1");
+	
+	// The requests that are parsed by their names, both valid and invalid ones
+	private static final Map<String, String> requests = new LinkedHashMap<String, String>();
+	static {
+		requests.put("root09", "GET /\r\n\r\n");
+		requests.put("index09", "GET /index.html\r\n\r\n");
+		requests.put("truck10", "GET /truck.gif HTTP/1.0\r\n\r\n");
+		requests.put("head10", "HEAD /index.html HTTP/1.0\r\n\r\n");
+		requests.put("browser11", "GET /index.html HTTP/1.1\r\nHost: localhost:8080\r\n" +
+				"User-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\nAccept: text/html,application/xhtml+xml\r\n" +
+				"Accept-Language: en-US,en;q=0.5\r\nAccept-Encoding: gzip, deflate\r\nConnection: keep-alive\r\n" +
+				"Cache-Control: max-age=0\r\n\r\n");
+		requests.put("subdir11", "GET /sub/dir/file-name.min.js HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		requests.put("root11", "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		requests.put("quit09", "QUIT\r\n\r\n");
+		requests.put("quit10", "QUIT / HTTP/1.0\r\n\r\n");
+		requests.put("post11", "POST /index.html HTTP/1.1\r\n\r\n");
+		requests.put("parent11", "GET /../etc/passwd HTTP/1.1\r\n\r\n");
+		requests.put("emptySegment11", "GET /a//b HTTP/1.1\r\n\r\n");
+		requests.put("hidden11", "GET /a/.b HTTP/1.1\r\n\r\n");
+		requests.put("http20", "GET /index.html HTTP/2.0\r\n\r\n");
+		requests.put("badVersion", "GET /index.html HTTP/1x1\r\n\r\n");
+		requests.put("headers09", "GET /index.html\r\nHost: localhost\r\n\r\n");
+		requests.put("leadingSpace", " GET / HTTP/1.1\r\n\r\n");
+		requests.put("unterminated", "GET /index.html HTTP/1.1\r\n");
+		requests.put("emptyLines", "\r\n\r\n");
+		requests.put("empty", "");
+	}
+	
+	@Param({"root09", "index09", "truck10", "head10", "browser11", "subdir11", "root11", "quit09", "quit10", "post11",
+		"parent11", "emptySegment11", "hidden11", "http20", "badVersion", "headers09", "leadingSpace", "unterminated",
+		"emptyLines", "empty"})
+	public String request;
+	
+	// The request as a String for the old parser and as the bytes it is recieved as
+	private String requestString;
+	private byte[] bytes;
+	
+	/************************** methods **************************/
+	
+	/**
+	 * Parses the request with both parsers and fails the benchmark if they do not give the same result
+	 */
+	@Setup
+	public void compare(){
+		requestString = requests.get(request);
+		if(requestString == null){
+			throw new IllegalArgumentException("Unknown request: " + request);
+		}
+		bytes = requestString.getBytes(requestCharset);
+		
+		LegacyRequestParser legacy = new LegacyRequestParser(requestString);
+		Request parsed = new Request(bytes, 0, bytes.length);
+		boolean same = legacy.isValidRequest() == parsed.isValidRequest() &&
+				legacy.getRequestCommand() == parsed.getRequestCommand() &&
+				legacy.usesNewerHTTP() == parsed.usesNewerHTTP() && legacy.usesHTTP11() == parsed.usesHTTP11() &&
+				(!legacy.isValidRequest() || equals(legacy.getResource(), parsed.getResource()));
+		if(!same){
+			throw new IllegalStateException("The parsers does not agree on: " + request);
+		}
+	}
+	
+	/**
+	 * The regex and split based parsing
+	 */
+	@Benchmark
+	public int legacy(){
+		return new LegacyRequestParser(requestString).getHeaderCount();
+	}
+	
+	/**
+	 * Parsing the bytes directly, including looking up the connection header as the server does for every request
+	 */
+	@Benchmark
+	public boolean bytes(){
+		return new Request(bytes, 0, bytes.length).wantsKeepAlive();
+	}
+	
+	private static boolean equals(String a, String b){
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+}
@@ -0,0 +1,311 @@
+package fileManagement;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A singleton pool of direct ByteBuffers for the socket reads and writes, so that a connection does not allocate new buffers for
+ * every request and the JVM does not have to copy heap buffers in to a direct buffer of its own for every channel read and write.
+ * The buffers come in a few size classes(4 KB to 64 KB), a request for a size is given a buffer of the smallest class it fits in.
+ * Every platform thread keeps a few free buffers of each class for itself so that most acquires and releases does not touch
+ * anything shared, the rest are kept in a shared pool that holds at most a set number of bytes per class. Virtual threads only
+ * use the shared pool since they are too many and too short lived to keep buffers of their own.
+ * With -Dpytteweb.buffers.debug=true every buffer that is acquired is remembered together with where it was acquired, a buffer
+ * that is released twice is reported at once and the buffers that were never released can be listed with reportLeaks
+ * @author Mattis
+ *
+ */
+public final class BufferPool {
+	// created when the class is loaded so that getInstance does not need to be synchronized
+	private static final BufferPool instance = new BufferPool();
+
+	// the size of the smallest class, every class is twice as large as the one before it
+	private static final int smallestClassSize = 4 << 10;
+
+	// the number of size classes, 4 KB, 8 KB, 16 KB, 32 KB and 64 KB
+	private static final int classCount = 5;
+
+	/**
+	 * The largest buffer that is pooled, larger buffers are allocated for every acquire and left to the garbage collector
+	 */
+	public static final int maxPooledSize = smallestClassSize << (classCount - 1);
+
+	// the number of free buffers of each class a thread keeps for itself
+	private static final int threadCacheSize = 8;
+
+	// the largest number of bytes of each class that the shared pool holds, buffers released when it is full are left to the
+	// garbage collector
+	private static final int sharedBytesPerClass = 4 << 20;
+
+	// true if the acquired buffers are tracked to find leaks
+	private static final boolean debug = Boolean.getBoolean("pytteweb.buffers.debug");
+
+	// Thread.isVirtual, null on versions without virtual threads
+	private static final Method isVirtual = findIsVirtual();
+
+	// the free buffers that are shared by all threads, one queue per class
+	private final List<ConcurrentLinkedQueue<ByteBuffer>> shared = new ArrayList<ConcurrentLinkedQueue<ByteBuffer>>(classCount);
+	private final AtomicInteger[] sharedCounts = new AtomicInteger[classCount];
+
+	// the free buffers every platform thread keeps for itself, null for virtual threads. Whether a thread is virtual is only
+	// checked the first time it uses the pool, the null is kept by the ThreadLocal like any other value
+	private final ThreadLocal<ThreadCache> threadCaches = new ThreadLocal<ThreadCache>(){
+		@Override
+		protected ThreadCache initialValue() {
+			return isVirtualThread() ? null : new ThreadCache();
+		}
+	};
+
+	// the buffers that are acquired and not yet released and where they were acquired, only used in debug mode
+	private final Map<ByteBuffer, Throwable> acquired = Collections.synchronizedMap(new IdentityHashMap<ByteBuffer, Throwable>());
+
+	// Statistics
+	private final AtomicLong allocations = new AtomicLong();
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private final AtomicLong discards = new AtomicLong();
+
+
+	/*************** Constructors *****************/
+	private BufferPool(){
+		for(int i = 0; i < classCount; i++){
+			shared.add(new ConcurrentLinkedQueue<ByteBuffer>());
+			sharedCounts[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Singleton
+	 * @return the instance of this singleton pool
+	 */
+	public static BufferPool getInstance(){
+		return instance;
+	}
+
+
+	/************************** methods **************************/
+
+	/**
+	 * Gets a cleared direct buffer that holds at least the specified number of bytes. It must be given back with release when
+	 * it is not used anymore and must not be used after that
+	 * @param size the number of bytes the buffer must hold
+	 * @return the buffer, its capacity is the size of its class which may be larger than the size asked for
+	 */
+	public ByteBuffer acquire(int size){
+		int sizeClass = sizeClass(size);
+		ByteBuffer buffer = null;
+		if(sizeClass != -1){
+			ThreadCache cache = getThreadCache();
+			if(cache != null){
+				buffer = cache.poll(sizeClass);
+			}
+			if(buffer == null){
+				buffer = shared.get(sizeClass).poll();
+				if(buffer != null){
+					sharedCounts[sizeClass].decrementAndGet();
+				}
+			}
+		}
+		if(buffer == null){
+			int capacity = sizeClass == -1 ? size : smallestClassSize << sizeClass;
+			buffer = ByteBuffer.allocateDirect(capacity);
+			allocations.incrementAndGet();
+			allocatedBytes.addAndGet(capacity);
+		}
+
+		if(debug){
+			acquired.put(buffer, new Throwable("Buffer of " + buffer.capacity() + " bytes acquired here"));
+		}
+		return buffer;
+	}
+
+	/**
+	 * Gives back a buffer that was acquired from the pool
+	 * @param buffer the buffer, must not be used after this. Nothing happens if it is null
+	 * @throws IllegalStateException in debug mode, if the buffer was not acquired from the pool or has already been released
+	 */
+	public void release(ByteBuffer buffer){
+		if(buffer == null){
+			return;
+		}
+		if(debug && acquired.remove(buffer) == null){
+			throw new IllegalStateException("Buffer released twice or not acquired from the pool");
+		}
+
+		int sizeClass = sizeClass(buffer.capacity());
+		if(sizeClass == -1 || buffer.capacity() != smallestClassSize << sizeClass || !buffer.isDirect()){
+			return; // not a pooled size
+		}
+		buffer.clear();
+
+		ThreadCache cache = getThreadCache();
+		if(cache != null && cache.offer(sizeClass, buffer)){
+			return;
+		}
+		if(sharedCounts[sizeClass].incrementAndGet() <= sharedBytesPerClass / buffer.capacity()){
+			shared.get(sizeClass).offer(buffer);
+		} else{
+			sharedCounts[sizeClass].decrementAndGet();
+			discards.incrementAndGet(); // freed by the garbage collector
+		}
+	}
+
+	/**
+	 * Lists the buffers that has been acquired but not released, together with where they were acquired. Only possible in debug
+	 * mode
+	 * @param out the stream to write the list to, eg. System.err
+	 * @return the number of buffers that has not been released, 0 if the pool is not in debug mode
+	 */
+	public int reportLeaks(PrintStream out){
+		if(!debug){
+			return 0;
+		}
+		List<Throwable> leaks;
+		synchronized (acquired) {
+			leaks = new ArrayList<Throwable>(acquired.values());
+		}
+		for(Throwable leak : leaks){
+			leak.printStackTrace(out);
+		}
+		if(!leaks.isEmpty()){
+			out.println(leaks.size() + " buffers were never released");
+		}
+		return leaks.size();
+	}
+
+	/**
+	 * Gets the size class for a size
+	 * @param size the number of bytes
+	 * @return the index of the smallest class the size fits in, -1 if it is larger than the largest class
+	 */
+	private static int sizeClass(int size){
+		if(size > maxPooledSize){
+			return -1;
+		}
+		int sizeClass = 0;
+		while((smallestClassSize << sizeClass) < size){
+			sizeClass++;
+		}
+		return sizeClass;
+	}
+
+	/**
+	 * Gets the free buffers of the current thread
+	 * @return the buffers, null if the thread is a virtual thread
+	 */
+	private ThreadCache getThreadCache(){
+		return threadCaches.get();
+	}
+
+	/**
+	 * Checks if the current thread is a virtual thread, with reflection since Thread.isVirtual only exists from Java 21
+	 * @return true if it is a virtual thread, false if it is a platform thread or the version has no virtual threads
+	 */
+	private static boolean isVirtualThread(){
+		if(isVirtual == null){
+			return false;
+		}
+		try {
+			return (Boolean) isVirtual.invoke(Thread.currentThread());
+		} catch (Exception e) {
+			return false; // treated as a platform thread
+		}
+	}
+
+	/**
+	 * Finds Thread.isVirtual, which only exists from Java 21
+	 * @return the method, null if it does not exist
+	 */
+	private static Method findIsVirtual(){
+		try {
+			return Thread.class.getMethod("isVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the number of buffers that has been allocated because there was no free buffer
+	 * @return the number of allocations
+	 */
+	public long getAllocations() {
+		return allocations.get();
+	}
+
+	/**
+	 * Gets the number of bytes that has been allocated because there was no free buffer
+	 * @return the number of bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * Gets the number of released buffers that were left to the garbage collector since the pool was full
+	 * @return the number of discarded buffers
+	 */
+	public long getDiscards() {
+		return discards.get();
+	}
+
+	/**
+	 * Gets the number of buffers that are acquired and not yet released
+	 * @return the number of buffers, -1 if the pool is not in debug mode
+	 */
+	public int getOutstanding() {
+		return debug ? acquired.size() : -1;
+	}
+
+
+
+	/**
+	 * The free buffers of a single thread, only used by that thread
+	 * @author Mattis
+	 *
+	 */
+	private static class ThreadCache{
+		// a stack of free buffers per class
+		private final ByteBuffer[][] buffers = new ByteBuffer[classCount][threadCacheSize];
+		private final int[] counts = new int[classCount];
+
+		/**
+		 * Takes a free buffer
+		 * @param sizeClass the class of the buffer
+		 * @return the buffer, null if the thread has no free buffer of the class
+		 */
+		private ByteBuffer poll(int sizeClass){
+			if(counts[sizeClass] == 0){
+				return null;
+			}
+			int index = --counts[sizeClass];
+			ByteBuffer buffer = buffers[sizeClass][index];
+			buffers[sizeClass][index] = null;
+			return buffer;
+		}
+
+		/**
+		 * Keeps a free buffer
+		 * @param sizeClass the class of the buffer
+		 * @param buffer the buffer
+		 * @return true if it was kept, false if the thread already has as many free buffers of the class as it may keep
+		 */
+		private boolean offer(int sizeClass, ByteBuffer buffer){
+			if(counts[sizeClass] == threadCacheSize){
+				return false;
+			}
+			buffers[sizeClass][counts[sizeClass]++] = buffer;
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package fileManagement;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An OutputStream that writes to a channel, eg. the channel of a socket. Lets the FileManager see the channel behind the stream so
+ * that files can be sent with FileChannel.transferTo instead of being copied through a buffer.
+ * Small writes are collected in a buffer and written to the channel together when the buffer is full or when the stream is
+ * flushed, so that eg. the headers and body of a small response, or several pipelined responses, goes out in a single write.
+ * Writes that are too large for the buffer, eg. a large cached file or a part of a mapped file, are written together with what
+ * has been collected in one gathering write when the channel is a GatheringByteChannel(as the channel of a socket is), so the
+ * headers of a response still goes out in the same write as the start of its body.
+ * The buffer is a direct buffer from the BufferPool that is taken at the first write and must be given back with release
+ * @author Mattis
+ *
+ */
+public class ChannelOutputStream extends OutputStream {
+	// The size of the buffer the small writes are collected in
+	private static final int bufferSize = 8192;
+	
+	// The channel to write to, must be in blocking mode
+	private final WritableByteChannel channel;
+	
+	// The bytes that has been written to the stream but not yet to the channel, null until something is written
+	private ByteBuffer buffer;
+	
+	/**
+	 * Creates an instance of the ChannelOutputStream class
+	 * @param channel the channel to write to, must be in blocking mode
+	 */
+	public ChannelOutputStream(WritableByteChannel channel) {
+		super();
+		this.channel = channel;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		ByteBuffer buffer = getBuffer();
+		if(!buffer.hasRemaining()){
+			flush();
+		}
+		buffer.put((byte) b);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ByteBuffer buffer = getBuffer();
+		if(len <= buffer.remaining()){
+			buffer.put(b, off, len);
+			return;
+		}
+		if(len <= buffer.capacity() / 2){
+			// small enough to start a new buffer with, the next write may fill up the rest of it
+			flush();
+			buffer.put(b, off, len);
+			return;
+		}
+		// too large for the buffer, written straight to the channel together with what has been collected
+		write(ByteBuffer.wrap(b, off, len));
+	}
+	
+	/**
+	 * Writes the remaining bytes of a buffer, eg. a part of a mapped file, straight to the channel after what has been collected.
+	 * Both are written with one gathering write if the channel can do that
+	 * @param bytes the bytes to write, its position is moved to its limit
+	 * @throws IOException if the channel could not be written to
+	 */
+	public void write(ByteBuffer bytes) throws IOException {
+		if(buffer == null || buffer.position() == 0 || !(channel instanceof GatheringByteChannel)){
+			flush();
+			writeFully(bytes);
+			return;
+		}
+		buffer.flip();
+		ByteBuffer[] collectedAndBytes = {buffer, bytes};
+		GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+		while(bytes.hasRemaining()){
+			gatheringChannel.write(collectedAndBytes);
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * Writes what has been collected in the buffer to the channel
+	 */
+	@Override
+	public void flush() throws IOException {
+		if(buffer != null && buffer.position() > 0){
+			buffer.flip();
+			writeFully(buffer);
+			buffer.clear();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			release();
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Gives the buffer back to the pool, anything that has not been flushed is lost. The stream may still be used, it takes a
+	 * new buffer at the next write
+	 */
+	public void release(){
+		BufferPool.getInstance().release(buffer);
+		buffer = null;
+	}
+	
+	/**
+	 * Gets the buffer the small writes are collected in, takes it from the pool if the stream does not have one
+	 * @return the buffer
+	 */
+	private ByteBuffer getBuffer(){
+		if(buffer == null){
+			buffer = BufferPool.getInstance().acquire(bufferSize);
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Writes everything that remains of the bytes to the channel
+	 * @param bytes the bytes to write
+	 * @throws IOException if the channel could not be written to
+	 */
+	private void writeFully(ByteBuffer bytes) throws IOException{
+		while(bytes.hasRemaining()){
+			channel.write(bytes);
+		}
+	}
+	
+	/**
+	 * Gets the channel this stream writes to, anything written straight to the channel must be written after the stream has been
+	 * flushed
+	 * @return the channel
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+	
+}
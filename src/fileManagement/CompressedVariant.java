@@ -0,0 +1,117 @@
+package fileManagement;
+
+/**
+ * A gzip compressed version of a file, either a ".gz" file next to it on the disk or one that has been compressed in memory by
+ * the CompressedVariantCache
+ * @author Mattis
+ *
+ */
+public class CompressedVariant {
+	// The ".gz" file the variant is read from, null if the variant is kept in memory
+	private final String fileName;
+
+	// The compressed bytes, null if the variant is read from a file
+	private final byte[] content;
+
+	// The size of the compressed variant in bytes
+	private final long length;
+
+	// The size and last modified time of the uncompressed file the variant was made from
+	private final long sourceSize;
+	private final long sourceLastModified;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates a variant that is read from a file on the disk
+	 * @param fileName the ".gz" file
+	 * @param length the size of the ".gz" file in bytes
+	 * @param source the uncompressed file
+	 */
+	public CompressedVariant(String fileName, long length, FileCache.Entry source) {
+		this(fileName, null, length, source.getSize(), source.getLastModified());
+	}
+
+	/**
+	 * Creates a variant that is kept in memory
+	 * @param content the compressed bytes, null if the file did not get smaller when it was compressed
+	 * @param sourceSize the size of the uncompressed file
+	 * @param sourceLastModified the last modified time of the uncompressed file
+	 */
+	public CompressedVariant(byte[] content, long sourceSize, long sourceLastModified) {
+		this(null, content, content == null ? 0 : content.length, sourceSize, sourceLastModified);
+	}
+
+	private CompressedVariant(String fileName, byte[] content, long length, long sourceSize, long sourceLastModified) {
+		super();
+		this.fileName = fileName;
+		this.content = content;
+		this.length = length;
+		this.sourceSize = sourceSize;
+		this.sourceLastModified = sourceLastModified;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Checks if the variant was made from the current version of the file
+	 * @param source the uncompressed file
+	 * @return true if the file has the same size and last modified time as when the variant was made
+	 */
+	public boolean isMadeFrom(FileCache.Entry source){
+		return source.getSize() == sourceSize && source.getLastModified() == sourceLastModified;
+	}
+
+	/**
+	 * Checks if the variant can be sent, a file that did not get smaller when it was compressed is remembered so that it is not
+	 * compressed again, but it is sent uncompressed
+	 * @return true if the variant has any content
+	 */
+	public boolean isUsable(){
+		return fileName != null || content != null;
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the ".gz" file the variant is read from
+	 * @return the file name, null if the variant is kept in memory
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Gets the compressed bytes
+	 * @return the bytes, null if the variant is read from a file. Must not be changed
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * Gets the size of the compressed variant
+	 * @return the size in bytes
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Gets the size of the uncompressed file the variant was made from
+	 * @return the size in bytes
+	 */
+	public long getSourceSize() {
+		return sourceSize;
+	}
+
+	/**
+	 * Gets the last modified time of the uncompressed file the variant was made from
+	 * @return the time in milliseconds since 1970
+	 */
+	public long getSourceLastModified() {
+		return sourceLastModified;
+	}
+
+}
@@ -0,0 +1,241 @@
+package fileManagement;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps gzip compressed versions of the text files that has been asked for with "Accept-Encoding: gzip", so that a file is
+ * compressed once instead of for every request. A variant is keyed by the file and is only used as long as the file has the same
+ * size and last modified time as when it was compressed. The cache holds at most a set number of bytes, the least recently used
+ * variants are evicted when it is full
+ * @author Mattis
+ *
+ */
+public class CompressedVariantCache {
+	// The number of bytes every variant is counted as on top of its content
+	private static final int entryOverhead = 128;
+
+	// The largest number of bytes the cache may hold
+	private final long maxBytes;
+
+	// Files larger than this are not compressed in memory, they are only sent compressed if they have a ".gz" file
+	private final long maxSourceSize;
+
+	// The variants in least recently used order, guarded by lock
+	private final LinkedHashMap<String, CompressedVariant> variants =
+			new LinkedHashMap<String, CompressedVariant>(64, 0.75f, true);
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// The number of bytes the variants are counted as, guarded by lock
+	private long currentBytes = 0;
+
+	// Statistics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong compressions = new AtomicLong();
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the CompressedVariantCache class
+	 * @param maxBytes the largest number of bytes the cache may hold
+	 * @param maxSourceSize files larger than this many bytes are not compressed
+	 */
+	public CompressedVariantCache(long maxBytes, long maxSourceSize) {
+		super();
+		this.maxBytes = maxBytes;
+		this.maxSourceSize = maxSourceSize;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Checks if files of a mime type gets smaller when they are compressed. Text does, images and other formats that are
+	 * already compressed does not
+	 * @param mimeType the mime type, eg. text/html, may be null
+	 * @return true if the files should be compressed
+	 */
+	public static boolean isCompressible(String mimeType){
+		if(mimeType == null){
+			return false;
+		}
+		return mimeType.startsWith("text/") || mimeType.endsWith("xml") || mimeType.endsWith("json") ||
+				mimeType.endsWith("javascript");
+	}
+
+	/**
+	 * Gets the compressed variant of a file, compresses it if it has not been compressed before or if it has changed
+	 * @param fileName the file
+	 * @param source what the FileCache knows about the file
+	 * @return the variant, null if the file is too large or it did not get smaller when it was compressed
+	 * @throws IOException if the file could not be read
+	 */
+	public CompressedVariant getVariant(String fileName, FileCache.Entry source) throws IOException{
+		if(source.getSize() > maxSourceSize){
+			return null;
+		}
+
+		CompressedVariant variant;
+		lock.lock();
+		try {
+			variant = variants.get(fileName);
+		} finally {
+			lock.unlock();
+		}
+
+		if(variant != null && variant.isMadeFrom(source)){
+			hits.incrementAndGet();
+		} else{
+			// the file is compressed without holding the lock, if two threads compresses the same file at once the last one is kept
+			compressions.incrementAndGet();
+			variant = compress(fileName, source);
+			put(fileName, variant);
+		}
+		return variant.isUsable() ? variant : null;
+	}
+
+	/**
+	 * Compresses the file with the best compression there is, it is only done once so the time it takes does not matter much
+	 * @param fileName the file
+	 * @param source what the FileCache knows about the file, its content is used if it is cached
+	 * @return the variant, without content if the file did not get smaller
+	 * @throws IOException if the file could not be read
+	 */
+	private static CompressedVariant compress(String fileName, FileCache.Entry source) throws IOException{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) (source.getSize() / 3) + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed){
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		};
+
+		long size;
+		if(source.getContent() != null){
+			gzip.write(source.getContent());
+			size = source.getContent().length;
+		} else{
+			size = 0;
+			InputStream is = new FileInputStream(new File(fileName));
+			try {
+				byte[] buffer = new byte[8192];
+				int readBytes;
+				while((readBytes = is.read(buffer)) != -1){
+					gzip.write(buffer, 0, readBytes);
+					size += readBytes;
+				}
+			} finally {
+				is.close();
+			}
+		}
+		gzip.close();
+
+		if(size != source.getSize() || compressed.size() >= size){
+			// the file changed while it was read or is not worth sending compressed
+			return new CompressedVariant(null, source.getSize(), source.getLastModified());
+		}
+		return new CompressedVariant(compressed.toByteArray(), source.getSize(), source.getLastModified());
+	}
+
+	/**
+	 * Puts the variant in the cache and evicts the least recently used variants until the cache is within its size
+	 * @param fileName the file the variant was made from
+	 * @param variant the variant
+	 */
+	private void put(String fileName, CompressedVariant variant){
+		lock.lock();
+		try {
+			CompressedVariant replaced = variants.put(fileName, variant);
+			if(replaced != null){
+				currentBytes -= weight(fileName, replaced);
+			}
+			currentBytes += weight(fileName, variant);
+
+			Iterator<Map.Entry<String, CompressedVariant>> leastRecentlyUsed = variants.entrySet().iterator();
+			while(currentBytes > maxBytes && leastRecentlyUsed.hasNext()){
+				Map.Entry<String, CompressedVariant> evicted = leastRecentlyUsed.next();
+				leastRecentlyUsed.remove();
+				currentBytes -= weight(evicted.getKey(), evicted.getValue());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the variant of a file from the cache
+	 * @param fileName the file
+	 */
+	public void invalidate(String fileName){
+		lock.lock();
+		try {
+			CompressedVariant removed = variants.remove(fileName);
+			if(removed != null){
+				currentBytes -= weight(fileName, removed);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes every variant from the cache
+	 */
+	public void clear(){
+		lock.lock();
+		try {
+			variants.clear();
+			currentBytes = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes a variant is counted as in the cache
+	 */
+	private static long weight(String fileName, CompressedVariant variant){
+		return entryOverhead + fileName.length() * 2 + (variant.getContent() == null ? 0 : variant.getContent().length);
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the number of lookups that was answered with a variant that was already compressed
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of times a file has been compressed
+	 * @return the number of compressions
+	 */
+	public long getCompressions() {
+		return compressions.get();
+	}
+
+	/**
+	 * Gets the number of bytes the cache holds right now
+	 * @return the number of bytes
+	 */
+	public long getCurrentBytes() {
+		lock.lock();
+		try {
+			return currentBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,396 @@
+package fileManagement;
+
+import java.io.File;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An index of the files in the document root(if they exist, their size, last modified time, mime type and if they can be read)
+ * that is built when the server starts and kept current by a thread that scans the document root again at a set interval, so
+ * that the metadata of a file is a read from a concurrent map instead of a look at the disk. Every file that is found to be
+ * created, changed or deleted by a scan is reported to the listener, which purges the caches that are built on top of the file.
+ * Only the names that can be asked for are indexed, a part of the path that does not start with a word character can never be
+ * in a request(eg. ".git") and is skipped
+ * @author Mattis
+ *
+ */
+public class DocumentIndex implements Runnable {
+	// The deepest directory that is indexed, also stops symbolic links that points back up the tree from being followed forever
+	private static final int maxDepth = 16;
+
+	// The directory the file names are relative to
+	private final File root;
+
+	// The number of milliseconds between the scans
+	private final long pollInterval;
+
+	// The largest number of files the index may hold, a larger document root is not indexed at all
+	private final int maxFiles;
+
+	// Told about every file that has changed
+	private final Listener listener;
+
+	// The indexed files by their name relative to the root with '/' between the directories, only changed by the scanning thread
+	private final ConcurrentHashMap<String, IndexEntry> files = new ConcurrentHashMap<String, IndexEntry>(256);
+
+	// true as long as the index is kept current, an index that is not active knows nothing
+	private volatile boolean active = false;
+
+	// The thread that scans the document root, null if it is not running
+	private Thread scanner;
+
+	// Statistics
+	private final AtomicLong scans = new AtomicLong();
+	private final AtomicLong changes = new AtomicLong();
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the DocumentIndex class, nothing is indexed until it is started
+	 * @param root the document root
+	 * @param pollInterval the number of milliseconds between the scans of the document root
+	 * @param maxFiles the largest number of files that is indexed
+	 * @param listener told about every file that is created, changed or deleted
+	 */
+	public DocumentIndex(File root, long pollInterval, int maxFiles, Listener listener) {
+		super();
+		this.root = root;
+		this.pollInterval = pollInterval;
+		this.maxFiles = maxFiles;
+		this.listener = listener;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Builds the index and starts the thread that keeps it current
+	 * @return true if the index was built, false if the document root holds more files than may be indexed
+	 */
+	public synchronized boolean start(){
+		if(active){
+			return true;
+		}
+		Map<String, IndexEntry> found = scan();
+		if(found == null){
+			return false;
+		}
+		files.putAll(found);
+		active = true;
+		scanner = new Thread(this, "document-index");
+		scanner.setDaemon(true);
+		scanner.start();
+		return true;
+	}
+
+	/**
+	 * Stops keeping the index current and forgets every file, the callers has to go to the disk again after this
+	 */
+	public void stop(){
+		Thread stopped;
+		synchronized (this) {
+			active = false;
+			stopped = scanner;
+			scanner = null;
+		}
+		if(stopped != null){
+			stopped.interrupt();
+			try {
+				stopped.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		files.clear();
+	}
+
+	/**
+	 * Scans the document root every poll interval until the index is stopped
+	 */
+	@Override
+	public void run() {
+		while(active){
+			try {
+				Thread.sleep(pollInterval);
+			} catch (InterruptedException e) {
+				break; // stopped
+			}
+			update();
+		}
+	}
+
+	/**
+	 * Scans the document root and reports the differences to the index. The entries are replaced before the listener is told so
+	 * that a cache that is purged loads the new version of the file
+	 */
+	private void update(){
+		Map<String, IndexEntry> found = scan();
+		if(found == null){
+			// the document root has grown too large to be indexed, every lookup goes to the disk from now on
+			active = false;
+			files.clear();
+			listener.indexDiscarded();
+			return;
+		}
+
+		List<String> changed = new ArrayList<String>();
+		for(Map.Entry<String, IndexEntry> file : found.entrySet()){
+			IndexEntry old = files.get(file.getKey());
+			if(old == null || !old.isSameAs(file.getValue())){
+				files.put(file.getKey(), file.getValue());
+				changed.add(file.getKey());
+			}
+		}
+		for(String fileName : files.keySet()){
+			if(!found.containsKey(fileName)){
+				files.remove(fileName);
+				changed.add(fileName);
+			}
+		}
+
+		for(String fileName : changed){
+			changes.incrementAndGet();
+			listener.fileChanged(fileName);
+		}
+	}
+
+	/**
+	 * Reads the metadata of every file in the document root
+	 * @return the files by their name, null if there are more files than may be indexed
+	 */
+	private Map<String, IndexEntry> scan(){
+		scans.incrementAndGet();
+		Map<String, IndexEntry> found = new HashMap<String, IndexEntry>(Math.max(16, files.size() * 2));
+		return scanDirectory(root, "", 0, found) ? found : null;
+	}
+
+	/**
+	 * Reads the metadata of the files in a directory and its subdirectories
+	 * @param directory the directory
+	 * @param prefix the name of the directory relative to the root followed by a '/', empty for the root
+	 * @param depth the number of directories between the root and this directory
+	 * @param found where the files are put
+	 * @return false if there are more files than may be indexed
+	 */
+	private boolean scanDirectory(File directory, String prefix, int depth, Map<String, IndexEntry> found){
+		File[] children = directory.listFiles();
+		if(children == null){
+			return true; // not readable, its files are not served
+		}
+		for(File child : children){
+			String name = child.getName();
+			if(!isRequestable(name)){
+				continue;
+			}
+			String fileName = prefix + name;
+			if(child.isDirectory()){
+				if(depth < maxDepth && !scanDirectory(child, fileName + "/", depth + 1, found)){
+					return false;
+				}
+			} else if(child.isFile()){
+				if(found.size() == maxFiles){
+					return false;
+				}
+				IndexEntry entry = new IndexEntry(child);
+				IndexEntry old = files.get(fileName);
+				// the mime type is only guessed for files that are new to the index
+				found.put(fileName, old != null && old.isSameAs(entry) ? old : entry.withMimeType(fileName));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a part of a path can be in a request, the same rule as the request parser uses
+	 * @param name the name of a file or directory
+	 * @return true if it starts with a word character([A-Za-z0-9_])
+	 */
+	private static boolean isRequestable(String name){
+		if(name.length() == 0){
+			return false;
+		}
+		char c = name.charAt(0);
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	/**
+	 * Checks if the index knows everything about a file name, ie. if a file by that name exists it is in the index and if it is
+	 * not in the index it does not exist
+	 * @param fileName the file name as it is given by a request, relative to the document root
+	 * @return true if the index is active and the name is one that would have been indexed
+	 */
+	public boolean covers(String fileName){
+		if(!active || fileName.length() == 0 || fileName.charAt(0) == '/'){
+			return false;
+		}
+		int depth = 0;
+		int start = 0;
+		while(true){
+			int end = fileName.indexOf('/', start);
+			if(!isRequestable(fileName.substring(start, end == -1 ? fileName.length() : end))){
+				return false;
+			}
+			if(end == -1){
+				return depth <= maxDepth;
+			}
+			depth++;
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Gets what the index knows about a file, only meaningful if the index covers the file name
+	 * @param fileName the file name relative to the document root
+	 * @return the entry, null if the file does not exist
+	 */
+	public IndexEntry get(String fileName){
+		return files.get(fileName);
+	}
+
+
+	/**
+	 * Gets the names of every file in the index
+	 * @return a copy of the names, relative to the document root
+	 */
+	public List<String> getFileNames(){
+		return new ArrayList<String>(files.keySet());
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Checks if the index is kept current
+	 * @return true if it is active
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Gets the number of files in the index
+	 * @return the number of files
+	 */
+	public int getFileCount() {
+		return files.size();
+	}
+
+	/**
+	 * Gets the number of times the document root has been scanned
+	 * @return the number of scans
+	 */
+	public long getScans() {
+		return scans.get();
+	}
+
+	/**
+	 * Gets the number of files that has been found to be created, changed or deleted
+	 * @return the number of changes
+	 */
+	public long getChanges() {
+		return changes.get();
+	}
+
+
+
+	/**
+	 * Told by the index when the files change
+	 * @author Mattis
+	 *
+	 */
+	public interface Listener{
+		/**
+		 * A file has been created, changed or deleted
+		 * @param fileName the file name relative to the document root
+		 */
+		void fileChanged(String fileName);
+
+		/**
+		 * The index has stopped since the document root grew too large, nothing is known about the files anymore
+		 */
+		void indexDiscarded();
+	}
+
+
+
+	/**
+	 * What the index knows about a single file
+	 * @author Mattis
+	 *
+	 */
+	public static class IndexEntry{
+		// true if the file can be read
+		private final boolean readable;
+
+		// the size of the file in bytes
+		private final long size;
+
+		// the last time the file was modified
+		private final long lastModified;
+
+		// the mime type, eg. text/html
+		private final String mimeType;
+
+		private IndexEntry(File file){
+			this(file.canRead(), file.length(), file.lastModified(), null);
+		}
+
+		private IndexEntry(boolean readable, long size, long lastModified, String mimeType){
+			this.readable = readable;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.mimeType = mimeType;
+		}
+
+		/**
+		 * Creates a copy of the entry with the mime type guessed from the file name
+		 */
+		private IndexEntry withMimeType(String fileName){
+			return new IndexEntry(readable, size, lastModified, URLConnection.guessContentTypeFromName(fileName));
+		}
+
+		/**
+		 * Checks if two entries describes the same version of a file
+		 */
+		private boolean isSameAs(IndexEntry other){
+			return readable == other.readable && size == other.size && lastModified == other.lastModified;
+		}
+
+		/**
+		 * Checks if the file can be read
+		 * @return true if it can be read
+		 */
+		public boolean isReadable() {
+			return readable;
+		}
+
+		/**
+		 * Gets the size of the file
+		 * @return the size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the last time the file was modified
+		 * @return the time in milliseconds since 1970
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Gets the mime type of the file
+		 * @return the mime type, eg. text/html
+		 */
+		public String getMimeType() {
+			return mimeType;
+		}
+	}
+
+}
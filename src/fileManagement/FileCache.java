@@ -0,0 +1,394 @@
+package fileManagement;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the metadata of the files that has been asked for(if they exist, their size, last modified time and mime type) and the
+ * content of the small ones in memory so that the hot files can be served without touching the disk. The cache holds at most a
+ * set number of bytes, the least recently used files are evicted when it is full. A file is checked against the disk again when
+ * its entry is older than the revalidation interval and is reloaded if its size or last modified time has changed. When the
+ * cache is given a DocumentIndex the files the index covers are checked against the index instead of the disk, and the index
+ * invalidates them when they change
+ * @author Mattis
+ *
+ */
+public class FileCache {
+	// The number of bytes every entry is counted as on top of its content, keeps the number of entries for files that does not
+	// exist bounded as well
+	private static final int entryOverhead = 128;
+
+	// The largest number of bytes the cache may hold
+	private final long maxBytes;
+
+	// Files larger than this are not kept in memory, only their metadata is
+	private final int maxContentSize;
+
+	// The number of milliseconds an entry is trusted before it is checked against the disk again
+	private final long revalidationInterval;
+
+	// Knows the current size and last modified time of the files in the document root, null if there is no index
+	private volatile DocumentIndex index;
+
+	// The entries in least recently used order, guarded by lock. A lock is used instead of synchronized so that virtual threads
+	// are not pinned while they wait for it
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// The number of bytes the entries are counted as, guarded by lock
+	private long currentBytes = 0;
+
+	// Statistics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the FileCache class
+	 * @param maxBytes the largest number of bytes the cache may hold
+	 * @param maxContentSize files larger than this many bytes only has their metadata cached
+	 * @param revalidationInterval the number of milliseconds an entry is trusted before it is checked against the disk again
+	 */
+	public FileCache(long maxBytes, int maxContentSize, long revalidationInterval) {
+		super();
+		this.maxBytes = maxBytes;
+		this.maxContentSize = maxContentSize;
+		this.revalidationInterval = revalidationInterval;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Gets the entry for a file, loads it from the disk if it is not cached or if it has changed since it was cached
+	 * @param fileName the file to get
+	 * @return the entry for the file, this is returned even if the file does not exist
+	 */
+	public Entry getEntry(String fileName){
+		long now = System.currentTimeMillis();
+		Entry entry;
+
+		lock.lock();
+		try {
+			entry = entries.get(fileName);
+		} finally {
+			lock.unlock();
+		}
+
+		if(entry != null){
+			if(now - entry.validated < revalidationInterval || isCurrent(entry)){
+				hits.incrementAndGet();
+				return entry;
+			}
+			File file = new File(fileName);
+			if(entry.isUnchanged(file)){
+				entry.validated = now;
+				hits.incrementAndGet();
+				return entry;
+			}
+		}
+
+		// the disk is read without holding the lock, if two threads loads the same file at once the last one is kept
+		misses.incrementAndGet();
+		Entry loaded = load(fileName, now);
+		put(loaded);
+		return loaded;
+	}
+
+	/**
+	 * Checks an entry against the index, which is a lot cheaper than checking it against the disk
+	 * @param entry the entry
+	 * @return true if the index covers the file and knows it as the same version as the entry
+	 */
+	private boolean isCurrent(Entry entry){
+		DocumentIndex index = this.index;
+		return index != null && index.covers(entry.fileName) && entry.isDescribedBy(index.get(entry.fileName));
+	}
+
+	/**
+	 * Removes a file from the cache, the next time it is asked for it is loaded from the disk
+	 * @param fileName the file to remove
+	 */
+	public void invalidate(String fileName){
+		lock.lock();
+		try {
+			Entry removed = entries.remove(fileName);
+			if(removed != null){
+				currentBytes -= removed.weight();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes every file from the cache
+	 */
+	public void clear(){
+		lock.lock();
+		try {
+			entries.clear();
+			currentBytes = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the metadata, and the content if the file is small enough, from the disk
+	 * @param fileName the file to read
+	 * @param now the current time
+	 * @return the entry for the file
+	 */
+	private Entry load(String fileName, long now){
+		File file = new File(fileName);
+		Entry entry = new Entry(fileName, file);
+		entry.validated = now;
+
+		if(entry.readable && entry.size <= maxContentSize){
+			try {
+				entry.content = readContent(file, (int) entry.size);
+			} catch (IOException e) {
+				entry.content = null; // will be streamed from the disk instead
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Reads the whole file
+	 * @param file the file to read
+	 * @param size the size of the file
+	 * @return the content of the file
+	 * @throws IOException if the file could not be read or if it changed size while it was read
+	 */
+	private static byte[] readContent(File file, int size) throws IOException{
+		byte[] content = new byte[size];
+		FileInputStream fileInputStream = new FileInputStream(file);
+		try {
+			int read = 0;
+			while(read < size){
+				int readBytes = fileInputStream.read(content, read, size - read);
+				if(readBytes == -1){
+					throw new IOException("File changed while it was read");
+				}
+				read += readBytes;
+			}
+		} finally {
+			fileInputStream.close();
+		}
+		return content;
+	}
+
+	/**
+	 * Puts the entry in the cache and evicts the least recently used entries until the cache is within its size
+	 * @param entry the entry to put
+	 */
+	private void put(Entry entry){
+		lock.lock();
+		try {
+			Entry replaced = entries.put(entry.fileName, entry);
+			if(replaced != null){
+				currentBytes -= replaced.weight();
+			}
+			currentBytes += entry.weight();
+
+			Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+			while(currentBytes > maxBytes && leastRecentlyUsed.hasNext()){
+				Entry evicted = leastRecentlyUsed.next().getValue();
+				leastRecentlyUsed.remove();
+				currentBytes -= evicted.weight();
+				evictions.incrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the number of lookups that was answered from the cache
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of lookups that had to go to the disk
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the share of the lookups that was answered from the cache
+	 * @return the hit ratio between 0 and 1, 0 if nothing has been looked up yet
+	 */
+	public double getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Sets the index the entries are checked against instead of the disk for the files it covers
+	 * @param index the index, null to always check against the disk
+	 */
+	public void setIndex(DocumentIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Gets the number of entries that has been evicted to keep the cache within its size
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Gets the number of bytes the cache holds right now
+	 * @return the number of bytes
+	 */
+	public long getCurrentBytes() {
+		lock.lock();
+		try {
+			return currentBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of files in the cache right now
+	 * @return the number of entries
+	 */
+	public int getEntryCount() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+
+	/**
+	 * What the cache knows about a single file
+	 * @author Mattis
+	 *
+	 */
+	public static class Entry{
+		// the name of the file
+		private final String fileName;
+
+		// true if the file exists and can be read
+		private final boolean readable;
+
+		// the size of the file in bytes
+		private final long size;
+
+		// the last time the file was modified
+		private final long lastModified;
+
+		// the mime type, eg. text/html
+		private final String mimeType;
+
+		// the content of the file, null if the file is too large to be cached or does not exist
+		private byte[] content;
+
+		// the last time the entry was checked against the disk
+		private volatile long validated;
+
+		private Entry(String fileName, File file){
+			this.fileName = fileName;
+			this.readable = file.exists() && file.canRead();
+			this.size = file.length();
+			this.lastModified = file.lastModified();
+			this.mimeType = URLConnection.guessContentTypeFromName(fileName);
+		}
+
+		/**
+		 * Checks if the file on the disk is the same as when the entry was created
+		 * @param file the file on the disk
+		 * @return true if the file has the same size and last modified time, and can still be read
+		 */
+		private boolean isUnchanged(File file){
+			return file.lastModified() == lastModified && file.length() == size && (file.exists() && file.canRead()) == readable;
+		}
+
+		/**
+		 * Checks if what the index knows about the file is the same as when the entry was created
+		 * @param indexed the index entry of the file, null if the file does not exist
+		 * @return true if the file has the same size and last modified time, and can still be read
+		 */
+		private boolean isDescribedBy(DocumentIndex.IndexEntry indexed){
+			if(indexed == null){
+				return !readable;
+			}
+			return indexed.getLastModified() == lastModified && indexed.getSize() == size && indexed.isReadable() == readable;
+		}
+
+		/**
+		 * Gets the number of bytes this entry is counted as in the cache
+		 * @return the weight in bytes
+		 */
+		private long weight(){
+			return entryOverhead + fileName.length() * 2 + (content == null ? 0 : content.length);
+		}
+
+		/**
+		 * Checks if the file exists and can be read
+		 * @return true if the file exists and can be read
+		 */
+		public boolean isReadable() {
+			return readable;
+		}
+
+		/**
+		 * Gets the size of the file
+		 * @return the size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the last time the file was modified
+		 * @return the time in milliseconds since 1970
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Gets the mime type of the file
+		 * @return the mime type, eg. text/html
+		 */
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * Gets the content of the file
+		 * @return the content, null if the file is too large to be cached or does not exist. Must not be changed
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+	}
+
+}
@@ -2,17 +2,88 @@ package fileManagement;
 
 import java.io.*;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
- * A singleton filemanager that handles file IO
+ * A singleton filemanager that handles file IO. The methods are called from many connections at once, possibly on virtual threads,
+ * so nothing in here may hold a monitor(synchronized) while doing blocking IO since that pins the virtual thread to its carrier
  * @author Mattis
  *
  */
 public final class FileManager{
-	private static FileManager instance = null;
+	// created when the class is loaded so that getInstance does not need to be synchronized
+	private static final FileManager instance = new FileManager();
 	
-	// the size of the buffer to use when coping large files
-	private final int bufferSize = 1024;
+	// the size of the buffer to use when coping large files, taken from the BufferPool
+	private static final int bufferSize = 64 << 10;
+	
+	// the metadata of the files that has been asked for and the content of the small ones, so that the hot files does not have
+	// to be read from the disk for every request
+	private final FileCache cache = new FileCache(cacheSize, maxCachedFileSize, cacheRevalidationInterval);
+	
+	// the largest number of bytes the cache may hold
+	private static final long cacheSize = 16L << 20;
+	
+	// files larger than this are streamed from the disk every time
+	private static final int maxCachedFileSize = 256 << 10;
+	
+	// the number of milliseconds a cached file is trusted before the disk is checked for changes
+	private static final long cacheRevalidationInterval = 1000;
+	
+	// gzip compressed versions of the text files, so that a file is compressed once instead of for every request
+	private final CompressedVariantCache compressedCache = new CompressedVariantCache(compressedCacheSize, maxCompressedFileSize);
+	
+	// the largest number of bytes the compressed variants may take
+	private static final long compressedCacheSize = 8L << 20;
+	
+	// files larger than this are only sent compressed if they have a ".gz" file
+	private static final long maxCompressedFileSize = 1L << 20;
+	
+	// large files mapped in to memory, shared by the requests for the same file
+	private final MappedFileCache mappedFiles = new MappedFileCache(maxMappedBytes, maxMappedFiles);
+	
+	// the largest number of bytes that may be mapped at once
+	private static final long maxMappedBytes = 1L << 30;
+	
+	// the largest number of files that may be mapped at once
+	private static final int maxMappedFiles = 256;
+	
+	// the size in bytes from which files are sent from a mapping instead of being streamed or transferred, 0 if files are
+	// never sent from a mapping
+	private volatile long mappedFileThreshold = defaultMappedFileThreshold;
+	
+	/**
+	 * The default size from which files are sent from a mapping
+	 */
+	public static final long defaultMappedFileThreshold = 1L << 20;
+	
+	// the metadata of every file in the document root kept current by scanning it, null if the files are looked up on the disk
+	private volatile DocumentIndex index;
+	
+	// a document root with more files than this is not indexed
+	private static final int maxIndexedFiles = 50000;
+	
+	/**
+	 * The default number of milliseconds between the scans of the document root
+	 */
+	public static final long defaultIndexPollInterval = 1000;
+	
+	// purges the caches of the files the index finds to be changed
+	private final DocumentIndex.Listener invalidator = new DocumentIndex.Listener() {
+		@Override
+		public void fileChanged(String fileName) {
+			cache.invalidate(fileName);
+			compressedCache.invalidate(fileName);
+			mappedFiles.invalidate(fileName);
+		}
+		
+		@Override
+		public void indexDiscarded() {
+			System.out.println("The document root has more than " + maxIndexedFiles + " files, it is no longer indexed");
+		}
+	};
 	
 	private FileManager(){
 	}
@@ -21,28 +92,39 @@ public final class FileManager{
 	 * Singleton
 	 * @return the instance of this singleton filemanager
 	 */
-	public synchronized static FileManager getInstance(){
-		if(instance == null){
-			instance = new FileManager();
-		}
+	public static FileManager getInstance(){
 		return instance;
 	}
 	
 	/**
-	 * Reads a file as a byte array
+	 * Reads a file as a byte array. The file is taken from the cache if it is cached and from a mapping of the file otherwise, so
+	 * the whole file is always read
 	 * @param fileName the filename of the file to be read
 	 * @return the file as an array of bytes
-	 * @throws IOException could not read to the bytes array, possibly trouble closing the stream
+	 * @throws IOException (Includes FileNotFoundException if the specified file does not exist) if the file could not be read or
+	 * is too large to fit in an array
 	 */
 	public byte[] readFileAsByte(String fileName) throws IOException{
-		File file = new File(fileName);
-		byte[] bytes = new byte[(int)file.length()];
-		
-		FileInputStream fileInputStream = new FileInputStream(file);
-		fileInputStream.read(bytes);
-		fileInputStream.close();
+		FileCache.Entry entry = cache.getEntry(fileName);
+		if(!entry.isReadable()){
+			throw new FileNotFoundException(fileName);
+		}
+		if(entry.getContent() != null){
+			return entry.getContent().clone(); // the cached content must not be changed
+		}
 		
-		return bytes;
+		MappedFileCache.MappedFile mapped = mappedFiles.acquire(fileName, entry);
+		if(mapped == null){
+			throw new IOException("File too large or changed while read: " + fileName);
+		}
+		try {
+			ByteBuffer content = mapped.slice(0, entry.getSize());
+			byte[] bytes = new byte[content.remaining()];
+			content.get(bytes);
+			return bytes;
+		} finally {
+			mapped.release();
+		}
 	}
 	
 	
@@ -52,8 +134,12 @@ public final class FileManager{
 	 * @return
 	 */
 	public long getFileSize(String fileName){
-		File file = new File(fileName);
-		return file.length();
+		DocumentIndex index = this.index;
+		if(index != null && index.covers(fileName)){
+			DocumentIndex.IndexEntry entry = index.get(fileName);
+			return entry == null ? 0 : entry.getSize();
+		}
+		return cache.getEntry(fileName).getSize();
 	}
 	
 	/**
@@ -63,9 +149,12 @@ public final class FileManager{
 	 * false otherwise
 	 */
 	public boolean fileExistsAndIsReadable(String fileToBeRead){
-		File file = new File(fileToBeRead);
-		
-		return file.exists() && file.canRead();
+		DocumentIndex index = this.index;
+		if(index != null && index.covers(fileToBeRead)){
+			DocumentIndex.IndexEntry entry = index.get(fileToBeRead);
+			return entry != null && entry.isReadable();
+		}
+		return cache.getEntry(fileToBeRead).isReadable();
 	}
 	
 	/**
@@ -74,30 +163,370 @@ public final class FileManager{
 	 * @return the file type as a string
 	 */
 	public String getFileMimeType(String fileResource){
-		
-		return URLConnection.guessContentTypeFromName(fileResource);
+		DocumentIndex index = this.index;
+		if(index != null && index.covers(fileResource)){
+			DocumentIndex.IndexEntry entry = index.get(fileResource);
+			return entry == null ? URLConnection.guessContentTypeFromName(fileResource) : entry.getMimeType();
+		}
+		return cache.getEntry(fileResource).getMimeType();
 	}
 	
 	
 	/**
 	 * Copies the file to the specified outstream, this could also be used to send a large file over a socket if the out parameter
-	 * is given a reference to the sockets OutputStream
+	 * is given a reference to the sockets OutputStream. If the stream is a ChannelOutputStream the file is sent with
+	 * transferFileToChannel instead so that it never has to be copied in to this program, a PooledOutputStream queues it as a file
+	 * region that it sends the same way. Files that are in the cache are written straight from memory and files at least as large
+	 * as the mapped file threshold are written from a mapping of the file
 	 * @param out the file/stream to copy the specified file to
 	 * @param fileToCopy the file to be copied/sent
+	 * @return the number of bytes that was copied
 	 * @throws IOException (Includes FileNotFoundException if the specified file does not exist)
 	 */
-	public void copyFileToStream(OutputStream out, String fileToCopy) throws IOException{
-		InputStream is = new FileInputStream(fileToCopy);
-		int readBytes = 0;
+	public long copyFileToStream(OutputStream out, String fileToCopy) throws IOException{
+		FileCache.Entry entry = cache.getEntry(fileToCopy);
+		if(!entry.isReadable()){
+			throw new FileNotFoundException(fileToCopy);
+		}
+		if(entry.getContent() != null){
+			out.write(entry.getContent());
+			return entry.getContent().length;
+		}
+		
+		if(out instanceof PooledOutputStream){
+			return ((PooledOutputStream) out).writeFileRegion(fileToCopy, 0, Long.MAX_VALUE);
+		}
+		
+		if(isMapped(entry)){
+			long copied = copyMappedToStream(out, fileToCopy, entry, 0, entry.getSize());
+			if(copied != -1){
+				return copied;
+			}
+		}
+		
+		if(out instanceof ChannelOutputStream){
+			out.flush(); // what has been written before, eg. the headers, must be sent before the file
+			return transferFileToChannel(((ChannelOutputStream) out).getChannel(), fileToCopy);
+		}
 		
-		if(is != null){
-			byte[] buffer = new byte[bufferSize];
+		return streamFileRange(out, fileToCopy, 0, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Sends the file to the channel with FileChannel.transferTo, which lets the operating system copy the file straight to the
+	 * channel(sendfile when the channel is a socket) without it passing through a buffer in this program
+	 * @param channel the channel to send the file to, must be in blocking mode
+	 * @param fileToCopy the file to be sent
+	 * @return the number of bytes that was sent
+	 * @throws IOException (Includes FileNotFoundException if the specified file does not exist)
+	 */
+	public long transferFileToChannel(WritableByteChannel channel, String fileToCopy) throws IOException{
+		return transferFileRangeToChannel(channel, fileToCopy, 0, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Sends a part of the file to the channel with FileChannel.transferTo, the bytes before the part are never read
+	 * @param channel the channel to send the file to, must be in blocking mode
+	 * @param fileToCopy the file to be sent
+	 * @param position the index of the first byte to send
+	 * @param length the number of bytes to send, the part ends at the end of the file if the file is shorter
+	 * @return the number of bytes that was sent
+	 * @throws IOException (Includes FileNotFoundException if the specified file does not exist and EOFException if it was
+	 * truncated while it was being sent)
+	 */
+	public long transferFileRangeToChannel(WritableByteChannel channel, String fileToCopy, long position, long length)
+			throws IOException{
+		FileInputStream fileInputStream = new FileInputStream(fileToCopy);
+		try {
+			FileChannel fileChannel = fileInputStream.getChannel();
+			long end = Math.min(fileChannel.size(), position + Math.min(length, Long.MAX_VALUE - position));
+			long sent = position;
 			
-			while((readBytes = is.read(buffer)) != -1){
-				out.write(buffer, 0, readBytes);
+			// transferTo may send less than asked for, eg. linux sends at most 2GB at a time. Nothing sent means that the file has
+			// been truncated since its size was taken, a blocking channel always takes something
+			while(sent < end){
+				long transferred = fileChannel.transferTo(sent, end - sent, channel);
+				if(transferred == 0){
+					throw new EOFException(fileToCopy + " ended after " + sent + " of " + end + " bytes");
+				}
+				sent += transferred;
+			}
+			return Math.max(0, sent - position);
+		} finally {
+			fileInputStream.close();
+		}
+	}
+	
+	/**
+	 * Copies a part of the file to the stream, eg. for a Range request. Just as copyFileToStream the part is written from the
+	 * cache if the file is cached, queued as a file region if the stream is a PooledOutputStream, from a mapping if it is large
+	 * and sent with transferTo if the stream is a ChannelOutputStream, otherwise it is read with positional reads. The bytes
+	 * before the part are never read
+	 * @param out the stream to copy the part to
+	 * @param fileToCopy the file to copy from
+	 * @param position the index of the first byte to copy
+	 * @param length the number of bytes to copy
+	 * @return the number of bytes that was copied
+	 * @throws IOException (Includes FileNotFoundException if the specified file does not exist)
+	 */
+	public long copyFileRangeToStream(OutputStream out, String fileToCopy, long position, long length) throws IOException{
+		FileCache.Entry entry = cache.getEntry(fileToCopy);
+		if(!entry.isReadable()){
+			throw new FileNotFoundException(fileToCopy);
+		}
+		byte[] content = entry.getContent();
+		if(content != null){
+			if(position >= content.length){
+				return 0;
+			}
+			int copied = (int) Math.min(length, content.length - position);
+			out.write(content, (int) position, copied);
+			return copied;
+		}
+		
+		if(out instanceof PooledOutputStream){
+			return ((PooledOutputStream) out).writeFileRegion(fileToCopy, position, length);
+		}
+		
+		if(isMapped(entry)){
+			long copied = copyMappedToStream(out, fileToCopy, entry, position, length);
+			if(copied != -1){
+				return copied;
 			}
-			is.close();
 		}
+		
+		if(out instanceof ChannelOutputStream){
+			out.flush(); // what has been written before, eg. the headers, must be sent before the part
+			return transferFileRangeToChannel(((ChannelOutputStream) out).getChannel(), fileToCopy, position, length);
+		}
+		
+		return streamFileRange(out, fileToCopy, position, length);
+	}
+	
+	/**
+	 * Copies a part of the file to the stream through a buffer from the BufferPool, read with positional reads so the bytes
+	 * before the part are never read
+	 * @param out the stream to copy the part to
+	 * @param fileToCopy the file to copy from
+	 * @param position the index of the first byte to copy
+	 * @param length the number of bytes to copy, the part ends at the end of the file if the file is shorter
+	 * @return the number of bytes that was copied
+	 * @throws IOException (Includes FileNotFoundException if the specified file does not exist)
+	 */
+	private long streamFileRange(OutputStream out, String fileToCopy, long position, long length) throws IOException{
+		FileInputStream fileInputStream = new FileInputStream(fileToCopy);
+		ByteBuffer buffer = BufferPool.getInstance().acquire(bufferSize);
+		try {
+			FileChannel fileChannel = fileInputStream.getChannel();
+			long copied = 0;
+			while(copied < length){
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+				int readBytes = fileChannel.read(buffer, position + copied);
+				if(readBytes == -1){
+					break;
+				}
+				buffer.flip();
+				writeBuffer(out, buffer);
+				copied += readBytes;
+			}
+			return copied;
+		} finally {
+			BufferPool.getInstance().release(buffer);
+			fileInputStream.close();
+		}
+	}
+	
+	/**
+	 * Writes the remaining bytes of a buffer to the stream. ChannelOutputStreams takes the buffer as it is, other streams gets it
+	 * copied through a byte array
+	 * @param out the stream to write to
+	 * @param bytes the bytes to write, its position is moved to its limit
+	 * @throws IOException if the stream could not be written to
+	 */
+	private static void writeBuffer(OutputStream out, ByteBuffer bytes) throws IOException{
+		if(out instanceof ChannelOutputStream){
+			((ChannelOutputStream) out).write(bytes);
+		} else{
+			byte[] chunk = new byte[Math.min(bufferSize, bytes.remaining())];
+			while(bytes.hasRemaining()){
+				int chunkLength = Math.min(chunk.length, bytes.remaining());
+				bytes.get(chunk, 0, chunkLength);
+				out.write(chunk, 0, chunkLength);
+			}
+		}
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Checks if a file should be sent from a mapping
+	 * @param entry what the cache knows about the file
+	 * @return true if the file is at least as large as the mapped file threshold
+	 */
+	private boolean isMapped(FileCache.Entry entry){
+		long threshold = mappedFileThreshold;
+		return threshold > 0 && entry.getSize() >= threshold;
+	}
+	
+	/**
+	 * Copies a part of a file from its mapping to the stream. A ChannelOutputStream gets the mapped bytes written straight to
+	 * its channel and other streams gets them in chunks
+	 * @param out the stream to copy the part to
+	 * @param fileToCopy the file to copy from
+	 * @param entry what the cache knows about the file
+	 * @param position the index of the first byte to copy
+	 * @param length the number of bytes to copy
+	 * @return the number of bytes that was copied, -1 if the file can not be mapped
+	 * @throws IOException if the file could not be mapped or copied
+	 */
+	private long copyMappedToStream(OutputStream out, String fileToCopy, FileCache.Entry entry, long position, long length)
+			throws IOException{
+		MappedFileCache.MappedFile mapped = mappedFiles.acquire(fileToCopy, entry);
+		if(mapped == null){
+			return -1;
+		}
+		try {
+			ByteBuffer part = mapped.slice(position, length);
+			int copied = part.remaining();
+			writeBuffer(out, part);
+			return copied;
+		} finally {
+			mapped.release();
+		}
+	}
+	
+	/**
+	 * Gets everything that is known about a file at once, eg. its size, last modified time and mime type
+	 * @param fileName the file
+	 * @return the cached information about the file, this is returned even if the file does not exist
+	 */
+	public FileCache.Entry getFileEntry(String fileName){
+		return cache.getEntry(fileName);
+	}
+	
+	/**
+	 * Gets the gzip compressed variant of a file. A ".gz" file next to the file is used if it is at least as new as the file,
+	 * otherwise the file is compressed once and kept in the compressed variant cache
+	 * @param fileName the file
+	 * @return the variant, null if the file does not exist, is not text(eg. an image) or does not get smaller when compressed
+	 * @throws IOException if the file could not be read
+	 */
+	public CompressedVariant getGzipVariant(String fileName) throws IOException{
+		FileCache.Entry entry = cache.getEntry(fileName);
+		if(!entry.isReadable() || !CompressedVariantCache.isCompressible(entry.getMimeType())){
+			return null;
+		}
+		
+		String siblingName = fileName + ".gz";
+		FileCache.Entry sibling = cache.getEntry(siblingName);
+		if(sibling.isReadable() && sibling.getLastModified() >= entry.getLastModified()){
+			return new CompressedVariant(siblingName, sibling.getSize(), entry);
+		}
+		return compressedCache.getVariant(fileName, entry);
+	}
+	
+	/**
+	 * Copies a compressed variant to the stream, from memory or from its ".gz" file. At most the length the variant had when it
+	 * was found is copied, even if the ".gz" file has grown since then
+	 * @param out the stream to copy the variant to
+	 * @param variant the variant
+	 * @return the number of bytes that was copied, less than the length of the variant if the ".gz" file has become shorter
+	 * @throws IOException if the ".gz" file could not be found or copied
+	 */
+	public long copyVariantToStream(OutputStream out, CompressedVariant variant) throws IOException{
+		if(variant.getContent() != null){
+			out.write(variant.getContent());
+			return variant.getContent().length;
+		}
+		return copyFileRangeToStream(out, variant.getFileName(), 0, variant.getLength());
+	}
+	
+	/**
+	 * Gets the cache of the compressed variants, eg. to read its statistics
+	 * @return the cache
+	 */
+	public CompressedVariantCache getCompressedCache(){
+		return compressedCache;
+	}
+	
+	/**
+	 * Gets the cache of the mapped files, eg. to read its statistics
+	 * @return the cache
+	 */
+	public MappedFileCache getMappedFiles(){
+		return mappedFiles;
+	}
+	
+	/**
+	 * Gets the size from which files are sent from a mapping
+	 * @return the size in bytes, 0 if files are never sent from a mapping
+	 */
+	public long getMappedFileThreshold(){
+		return mappedFileThreshold;
+	}
+	
+	/**
+	 * Sets the size from which files are sent from a mapping instead of being streamed or transferred with transferTo
+	 * @param mappedFileThreshold the size in bytes, 0 to never send files from a mapping
+	 */
+	public void setMappedFileThreshold(long mappedFileThreshold){
+		this.mappedFileThreshold = mappedFileThreshold;
+		if(mappedFileThreshold == 0){
+			mappedFiles.clear();
+		}
+	}
+	
+	/**
+	 * Indexes the document root(the working directory) and keeps the index current by scanning it at an interval, from then on
+	 * the metadata of the files in it are looked up in the index instead of on the disk and the cached files are purged when
+	 * the index finds them changed. An index that is already running is replaced
+	 * @param pollInterval the number of milliseconds between the scans, 0 to not index the document root
+	 * @return true if the document root was indexed, false if it is not indexed or has too many files to be indexed
+	 */
+	public boolean startIndex(long pollInterval){
+		stopIndex();
+		if(pollInterval <= 0){
+			return false;
+		}
+		DocumentIndex started = new DocumentIndex(new File("."), pollInterval, maxIndexedFiles, invalidator);
+		if(!started.start()){
+			invalidator.indexDiscarded();
+			return false;
+		}
+		cache.setIndex(started);
+		index = started;
+		return true;
+	}
+	
+	/**
+	 * Stops indexing the document root, the metadata of the files are looked up on the disk again
+	 */
+	public void stopIndex(){
+		DocumentIndex stopped = index;
+		if(stopped != null){
+			index = null;
+			cache.setIndex(null);
+			stopped.stop();
+		}
+	}
+	
+	/**
+	 * Gets the index of the document root, eg. to read its statistics
+	 * @return the index, null if the document root is not indexed
+	 */
+	public DocumentIndex getIndex(){
+		return index;
+	}
+	
+	/**
+	 * Gets the cache of file metadata and content, eg. to read its statistics
+	 * @return the cache
+	 */
+	public FileCache getCache(){
+		return cache;
 	}
 	
 	
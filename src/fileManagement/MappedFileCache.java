@@ -0,0 +1,382 @@
+package fileManagement;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps large files mapped in to memory(MappedByteBuffer) so that the popular ones can be sent without being opened and read
+ * for every request and without being copied to the heap. A mapping is shared by every request for the file and is reference
+ * counted, the cache holds one reference and every request that uses it holds one until it is done. When the file changes or
+ * the mapping is evicted the cache lets go of its reference and the mapping is unmapped as soon as the last request is done with
+ * it. The cache holds at most a set number of mapped bytes and mappings, the least recently used are evicted first
+ * @author Mattis
+ *
+ */
+public class MappedFileCache {
+	// Unmaps a buffer without waiting for the garbage collector
+	private static final Unmapper unmapper = Unmapper.create();
+
+	// The largest number of bytes that may be mapped at once
+	private final long maxBytes;
+
+	// The largest number of files that may be mapped at once, every mapping takes a file descriptor worth of kernel memory
+	private final int maxMappings;
+
+	// The mappings in least recently used order, guarded by lock
+	private final LinkedHashMap<String, MappedFile> mappings = new LinkedHashMap<String, MappedFile>(16, 0.75f, true);
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// The number of bytes that are mapped by the cache, guarded by lock
+	private long currentBytes = 0;
+
+	// Statistics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong unmaps = new AtomicLong();
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the MappedFileCache class
+	 * @param maxBytes the largest number of bytes that may be mapped at once
+	 * @param maxMappings the largest number of files that may be mapped at once
+	 */
+	public MappedFileCache(long maxBytes, int maxMappings) {
+		super();
+		this.maxBytes = maxBytes;
+		this.maxMappings = maxMappings;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Gets the mapping of a file and takes a reference to it, maps the file if it is not mapped or if it has changed. The
+	 * reference must be given back with MappedFile.release when the mapping is not used anymore
+	 * @param fileName the file
+	 * @param entry what the FileCache knows about the file, the mapping is only used if the file has the same size and last
+	 * modified time
+	 * @return the mapping, null if the file is too large to be mapped in one piece or if it no longer has the size of the entry
+	 * @throws IOException if the file could not be found or mapped
+	 */
+	public MappedFile acquire(String fileName, FileCache.Entry entry) throws IOException{
+		if(entry.getSize() > Integer.MAX_VALUE){
+			return null;
+		}
+
+		MappedFile mapped;
+		lock.lock();
+		try {
+			mapped = mappings.get(fileName);
+		} finally {
+			lock.unlock();
+		}
+		if(mapped != null && mapped.isMadeFrom(entry) && mapped.retain()){
+			hits.incrementAndGet();
+			return mapped;
+		}
+
+		// the file is mapped without holding the lock, if two threads maps the same file at once the last one is kept and the
+		// other is unmapped when its request is done
+		misses.incrementAndGet();
+		mapped = map(fileName, entry);
+		if(mapped == null){
+			return null;
+		}
+		put(fileName, mapped);
+		return mapped;
+	}
+
+	/**
+	 * Maps the whole file, if it still has the size the FileCache knows of. A mapping of another size would be taken for the
+	 * file the entry describes until it changes again
+	 * @param fileName the file
+	 * @param entry what the FileCache knows about the file
+	 * @return the mapping with two references, one for the cache and one for the caller, null if the file has another size
+	 * @throws IOException if the file could not be found or mapped
+	 */
+	private MappedFile map(String fileName, FileCache.Entry entry) throws IOException{
+		FileInputStream fileInputStream = new FileInputStream(fileName);
+		try {
+			FileChannel fileChannel = fileInputStream.getChannel();
+			if(fileChannel.size() != entry.getSize()){
+				return null; // changed since the entry was made, the caller sends it without the mapping
+			}
+			// the mapping stays valid after the channel has been closed
+			MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, entry.getSize());
+			return new MappedFile(buffer, entry.getSize(), entry.getLastModified());
+		} finally {
+			fileInputStream.close();
+		}
+	}
+
+	/**
+	 * Puts the mapping in the cache and evicts the least recently used mappings until the cache is within its limits. The
+	 * mappings that are replaced or evicted are released by the cache
+	 * @param fileName the file
+	 * @param mapped the mapping
+	 */
+	private void put(String fileName, MappedFile mapped){
+		List<MappedFile> removed = new ArrayList<MappedFile>(1);
+		lock.lock();
+		try {
+			MappedFile replaced = mappings.put(fileName, mapped);
+			if(replaced != null){
+				currentBytes -= replaced.getSize();
+				removed.add(replaced);
+			}
+			currentBytes += mapped.getSize();
+
+			Iterator<MappedFile> leastRecentlyUsed = mappings.values().iterator();
+			while((currentBytes > maxBytes || mappings.size() > maxMappings) && leastRecentlyUsed.hasNext()){
+				MappedFile evicted = leastRecentlyUsed.next();
+				if(evicted == mapped){
+					continue; // the caller is about to use it, it is evicted next time
+				}
+				leastRecentlyUsed.remove();
+				currentBytes -= evicted.getSize();
+				removed.add(evicted);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		// released outside the lock since unmapping can take a while
+		for(MappedFile file : removed){
+			file.release();
+		}
+	}
+
+	/**
+	 * Removes the mapping of a file from the cache, it is unmapped when the requests that uses it are done
+	 * @param fileName the file
+	 */
+	public void invalidate(String fileName){
+		MappedFile removed;
+		lock.lock();
+		try {
+			removed = mappings.remove(fileName);
+			if(removed != null){
+				currentBytes -= removed.getSize();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if(removed != null){
+			removed.release();
+		}
+	}
+
+	/**
+	 * Removes every mapping from the cache
+	 */
+	public void clear(){
+		List<MappedFile> removed;
+		lock.lock();
+		try {
+			removed = new ArrayList<MappedFile>(mappings.values());
+			mappings.clear();
+			currentBytes = 0;
+		} finally {
+			lock.unlock();
+		}
+		for(MappedFile file : removed){
+			file.release();
+		}
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the number of lookups that used a mapping that already existed
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of times a file has been mapped
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of mappings that has been unmapped, without waiting for the garbage collector if that is possible
+	 * @return the number of unmaps
+	 */
+	public long getUnmaps() {
+		return unmaps.get();
+	}
+
+	/**
+	 * Gets the number of bytes the cache has mapped right now, mappings that has been removed but are still used by a request
+	 * are not counted
+	 * @return the number of bytes
+	 */
+	public long getCurrentBytes() {
+		lock.lock();
+		try {
+			return currentBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+
+	/**
+	 * A file that is mapped in to memory, shared by every request for the file
+	 * @author Mattis
+	 *
+	 */
+	public class MappedFile{
+		// the mapped bytes, only duplicates of it are handed out since its position is shared
+		private final MappedByteBuffer buffer;
+
+		// the size and last modified time of the file when it was mapped
+		private final long size;
+		private final long lastModified;
+
+		// the number of references, the mapping is unmapped when it reaches 0 and can never be used again after that
+		private final AtomicInteger references = new AtomicInteger(2);
+
+		private MappedFile(MappedByteBuffer buffer, long size, long lastModified){
+			this.buffer = buffer;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Checks if the mapping was made from the current version of the file
+		 * @param entry what the FileCache knows about the file
+		 * @return true if the file has the same size and last modified time as when it was mapped
+		 */
+		private boolean isMadeFrom(FileCache.Entry entry){
+			return entry.getSize() == size && entry.getLastModified() == lastModified;
+		}
+
+		/**
+		 * Takes a reference to the mapping
+		 * @return true if the reference was taken, false if the mapping has already been released by everyone
+		 */
+		private boolean retain(){
+			while(true){
+				int current = references.get();
+				if(current == 0){
+					return false;
+				}
+				if(references.compareAndSet(current, current + 1)){
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Gives back a reference to the mapping, the mapping is unmapped when the last reference has been given back and must
+		 * not be used by the one that gave back the reference
+		 */
+		public void release(){
+			if(references.decrementAndGet() == 0){
+				unmaps.incrementAndGet();
+				unmapper.unmap(buffer);
+			}
+		}
+
+		/**
+		 * Gets a part of the mapped bytes, the buffer has a position of its own so it may be read by one thread while others
+		 * reads the same file
+		 * @param position the index of the first byte
+		 * @param length the number of bytes, the part ends at the end of the file if the file is shorter
+		 * @return the bytes between position and limit of the buffer
+		 */
+		public ByteBuffer slice(long position, long length){
+			ByteBuffer part = buffer.duplicate();
+			int start = (int) Math.min(position, part.capacity());
+			part.position(start);
+			part.limit((int) Math.min(part.capacity(), start + Math.min(length, Integer.MAX_VALUE)));
+			return part;
+		}
+
+		/**
+		 * Gets the size of the file when it was mapped
+		 * @return the size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+	}
+
+
+
+	/**
+	 * Unmaps a MappedByteBuffer at once instead of when the garbage collector gets to it, which can take long enough for the
+	 * mappings of changed files to pile up. There is no public way to do it so the JVM internals are used, Unsafe.invokeCleaner
+	 * on Java 9 and later and the buffers Cleaner on older versions
+	 * @author Mattis
+	 *
+	 */
+	private static class Unmapper{
+		// Java 9 and later: Unsafe and its invokeCleaner(ByteBuffer)
+		private final Object unsafe;
+		private final Method invokeCleaner;
+
+		private Unmapper(Object unsafe, Method invokeCleaner){
+			this.unsafe = unsafe;
+			this.invokeCleaner = invokeCleaner;
+		}
+
+		/**
+		 * Finds out how buffers can be unmapped on this JVM
+		 * @return the unmapper
+		 */
+		private static Unmapper create(){
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				return new Unmapper(theUnsafe.get(null), invokeCleaner);
+			} catch (Exception e) {
+				// older than Java 9(no invokeCleaner) or Unsafe can not be reached, the Cleaner of the buffer is tried instead
+				return new Unmapper(null, null);
+			}
+		}
+
+		/**
+		 * Unmaps the buffer, best effort. If it is not possible the buffer is unmapped by the garbage collector
+		 * @param buffer the buffer, must not be used after this
+		 */
+		private void unmap(MappedByteBuffer buffer){
+			try {
+				if(invokeCleaner != null){
+					invokeCleaner.invoke(unsafe, buffer);
+				} else{
+					Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+					cleanerMethod.setAccessible(true);
+					Object cleaner = cleanerMethod.invoke(buffer);
+					if(cleaner != null){
+						cleaner.getClass().getMethod("clean").invoke(cleaner);
+					}
+				}
+			} catch (Exception e) {
+				// left to the garbage collector
+			}
+		}
+	}
+
+}
@@ -0,0 +1,316 @@
+package fileManagement;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An OutputStream that collects what is written to it in direct buffers from the BufferPool, used by the non-blocking engine to
+ * hold a response until the channel can take it. Files are not copied in to the buffers, a part of a file is queued as a file
+ * region between the bytes written before and after it and is sent with FileChannel.transferTo as the channel can take it, so
+ * a large file never takes more memory than the bytes around it. What has been collected is written to the channel with one
+ * gathering write per run of buffers and must be given back with release when the response has been written, which also closes
+ * the files
+ * @author Mattis
+ *
+ */
+public class PooledOutputStream extends OutputStream {
+	// The size of the buffers the bytes are collected in
+	private static final int chunkSize = 16 << 10;
+
+	// The buffers in the order they were filled, the last one is being filled
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>(4);
+
+	// The parts of files in the order they were queued
+	private final List<FileRegion> regions = new ArrayList<FileRegion>(2);
+
+	// The files the regions are sent from, closed by release
+	private final List<FileInputStream> files = new ArrayList<FileInputStream>(2);
+
+	// The name of the file that was opened last, a region of the same file right after it is sent from the same channel
+	private String lastFileName;
+
+	// The bytes of the buffers that are ready to be written, cut where the regions goes in between. null until the first writeTo
+	private ByteBuffer[] pending;
+
+	// The index of the first buffer in pending that has bytes left to write
+	private int firstPending = 0;
+
+	// The index of the first region that has bytes left to send
+	private int firstRegion = 0;
+
+	// The number of bytes that has been written to the stream, the regions included
+	private long size = 0;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an empty stream, no buffer is taken from the pool until something is written
+	 */
+	public PooledOutputStream() {
+		super();
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	@Override
+	public void write(int b) throws IOException {
+		currentChunk(1).put((byte) b);
+		size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0){
+			ByteBuffer chunk = currentChunk(len);
+			int part = Math.min(len, chunk.remaining());
+			chunk.put(b, off, part);
+			off += part;
+			len -= part;
+			size += part;
+		}
+	}
+
+	/**
+	 * Queues a part of a file to be sent after what has been written so far, the file is opened but nothing is read from it
+	 * until writeTo sends it
+	 * @param fileName the file
+	 * @param position the index of the first byte to send
+	 * @param length the number of bytes to send, the part ends at the end of the file if the file is shorter
+	 * @return the number of bytes that is queued
+	 * @throws IOException (Includes FileNotFoundException if the specified file does not exist)
+	 */
+	public long writeFileRegion(String fileName, long position, long length) throws IOException{
+		FileChannel file;
+		if(fileName.equals(lastFileName)){
+			file = files.get(files.size() - 1).getChannel();
+		} else{
+			FileInputStream fileInputStream = new FileInputStream(fileName);
+			files.add(fileInputStream);
+			lastFileName = fileName;
+			file = fileInputStream.getChannel();
+		}
+
+		long end = Math.min(file.size(), position + Math.min(length, Long.MAX_VALUE - position));
+		if(end <= position){
+			return 0;
+		}
+		// the region goes in where the next byte would have been written
+		int chunkIndex = chunks.size();
+		int chunkOffset = 0;
+		if(!chunks.isEmpty() && chunks.get(chunks.size() - 1).hasRemaining()){
+			chunkIndex--;
+			chunkOffset = chunks.get(chunkIndex).position();
+		}
+		regions.add(new FileRegion(fileName, file, position, end, chunkIndex, chunkOffset));
+		size += end - position;
+		return end - position;
+	}
+
+	/**
+	 * Writes as much of what has been collected as the channel takes, nothing more may be written to the stream after this
+	 * @param channel the channel to write to, eg. the channel of a socket in non-blocking mode
+	 * @return the number of bytes that was written
+	 * @throws IOException if the channel could not be written to, EOFException if a file was truncated before all of its
+	 * region had been sent
+	 */
+	public long writeTo(GatheringByteChannel channel) throws IOException{
+		if(pending == null){
+			cutPending();
+		}
+		long written = 0;
+		while(true){
+			// the buffers up to the next region
+			int end = firstRegion < regions.size() ? regions.get(firstRegion).pendingIndex : pending.length;
+			skipWritten(end);
+			if(firstPending < end){
+				written += channel.write(pending, firstPending, end - firstPending);
+				skipWritten(end);
+				if(firstPending < end){
+					return written; // the channel is full
+				}
+			}
+			if(firstRegion == regions.size()){
+				return written;
+			}
+			FileRegion region = regions.get(firstRegion);
+			written += region.transferTo(channel);
+			if(region.position < region.end){
+				return written; // the channel is full
+			}
+			firstRegion++;
+		}
+	}
+
+	/**
+	 * Checks if everything that was collected has been written by writeTo
+	 * @return true if there is nothing left to write
+	 */
+	public boolean isWritten(){
+		if(pending == null){
+			return chunks.isEmpty() && regions.isEmpty();
+		}
+		skipWritten(pending.length);
+		return firstPending == pending.length && firstRegion == regions.size();
+	}
+
+	/**
+	 * Makes the buffers ready to be written, every buffer is cut where a region goes in so that a region is sent between the
+	 * bytes that were written before and after it
+	 */
+	private void cutPending(){
+		List<ByteBuffer> cut = new ArrayList<ByteBuffer>(chunks.size() + regions.size());
+		int region = 0;
+		for(int i = 0; i < chunks.size(); i++){
+			ByteBuffer chunk = chunks.get(i);
+			int start = 0;
+			while(region < regions.size() && regions.get(region).chunkIndex == i){
+				addPart(cut, chunk, start, regions.get(region).chunkOffset);
+				start = regions.get(region).chunkOffset;
+				regions.get(region).pendingIndex = cut.size();
+				region++;
+			}
+			addPart(cut, chunk, start, chunk.position());
+		}
+		for(; region < regions.size(); region++){
+			regions.get(region).pendingIndex = cut.size(); // queued after the last byte
+		}
+		pending = cut.toArray(new ByteBuffer[cut.size()]);
+	}
+
+	/**
+	 * Adds a part of a buffer to the parts that are ready to be written, if it has any bytes
+	 */
+	private static void addPart(List<ByteBuffer> parts, ByteBuffer chunk, int start, int end){
+		if(end > start){
+			ByteBuffer part = chunk.duplicate();
+			part.limit(end);
+			part.position(start);
+			parts.add(part);
+		}
+	}
+
+	/**
+	 * Moves past the buffers that has been written, up to a buffer
+	 * @param end the index of the buffer to stop at
+	 */
+	private void skipWritten(int end){
+		while(firstPending < end && !pending[firstPending].hasRemaining()){
+			firstPending++;
+		}
+	}
+
+	/**
+	 * Gives the buffers back to the pool and closes the files, the stream must not be used after this
+	 */
+	public void release(){
+		BufferPool pool = BufferPool.getInstance();
+		for(ByteBuffer chunk : chunks){
+			pool.release(chunk);
+		}
+		chunks.clear();
+		for(FileInputStream file : files){
+			try {
+				file.close();
+			} catch (IOException e) {
+				// nothing was written to it
+			}
+		}
+		files.clear();
+		regions.clear();
+		lastFileName = null;
+		pending = null;
+	}
+
+	/**
+	 * Gets the buffer that is being filled, takes a new one from the pool if it is full
+	 * @param wanted the number of bytes that are about to be written
+	 * @return a buffer with room for at least one byte
+	 */
+	private ByteBuffer currentChunk(int wanted){
+		if(!chunks.isEmpty()){
+			ByteBuffer last = chunks.get(chunks.size() - 1);
+			if(last.hasRemaining()){
+				return last;
+			}
+		}
+		// large writes, eg. cached files, takes the largest pooled size so that they need fewer buffers
+		ByteBuffer chunk = BufferPool.getInstance().acquire(Math.max(chunkSize, Math.min(wanted, BufferPool.maxPooledSize)));
+		chunks.add(chunk);
+		return chunk;
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the number of bytes that has been written to the stream, the queued parts of files included
+	 * @return the number of bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of files the stream has open for its queued parts
+	 * @return the number of files
+	 */
+	public int getOpenFiles() {
+		return files.size();
+	}
+
+
+
+	/**
+	 * A part of a file that is queued to be sent
+	 * @author Mattis
+	 *
+	 */
+	private static class FileRegion{
+		// the name of the file, for the error when it has been truncated
+		private final String fileName;
+
+		// the file to send from, shared with the other regions of the same file
+		private final FileChannel file;
+
+		// the index of the next byte to send and the index after the last one
+		private long position;
+		private final long end;
+
+		// where in the buffers the region goes in: the index of the buffer and the number of bytes of it that comes before
+		private final int chunkIndex;
+		private final int chunkOffset;
+
+		// the index of the first buffer in pending that comes after the region, set when the buffers are cut
+		private int pendingIndex;
+
+		private FileRegion(String fileName, FileChannel file, long position, long end, int chunkIndex, int chunkOffset){
+			this.fileName = fileName;
+			this.file = file;
+			this.position = position;
+			this.end = end;
+			this.chunkIndex = chunkIndex;
+			this.chunkOffset = chunkOffset;
+		}
+
+		/**
+		 * Sends as much of the region as the channel takes. Nothing sent means that the channel is full, unless the file has been
+		 * truncated since the region was queued
+		 */
+		private long transferTo(GatheringByteChannel channel) throws IOException{
+			long sent = file.transferTo(position, end - position, channel);
+			if(sent == 0 && position >= file.size()){
+				throw new EOFException(fileName + " ended after " + position + " of " + end + " bytes");
+			}
+			position += sent;
+			return sent;
+		}
+	}
+
+}
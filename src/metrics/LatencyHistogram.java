@@ -0,0 +1,236 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts recorded values, eg. latencies in microseconds, in buckets that are linear within every power of two and grow
+ * logarithmically between them, the same layout as HdrHistogram uses. Every value is kept within a fixed relative precision no
+ * matter how large it is, so a few kilobytes are enough to get the percentiles of anything from microseconds to minutes.
+ * Recording is lock-free and may be done by any number of threads at once
+ * @author Mattis
+ *
+ */
+public class LatencyHistogram {
+	// The number of bits of every value that are kept, 7 keeps every value within 1/64 of what was recorded
+	private final int precisionBits;
+	
+	// The number of buckets for the values below 2^precisionBits, every one of them has its own bucket
+	private final int linearBuckets;
+	
+	// The number of buckets for every power of two above that
+	private final int bucketsPerPowerOfTwo;
+	
+	// The largest value that is counted in its own bucket, larger values are counted as this value
+	private final long highestTrackableValue;
+	
+	// The number of values in every bucket
+	private final AtomicLongArray counts;
+	
+	// The number of values, their sum and the smallest and largest value that has been recorded
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalSum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(0);
+	
+	
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates a histogram that tracks values up to an hour in microseconds with a precision of 1/64
+	 */
+	public LatencyHistogram() {
+		this(3600L * 1000 * 1000, 7);
+	}
+	
+	/**
+	 * Creates an instance of the LatencyHistogram class
+	 * @param highestTrackableValue the largest value that is tracked, larger values are recorded as this value
+	 * @param precisionBits the number of bits of every value that are kept, between 2 and 20. The relative error of a value is at
+	 * most 1/2^(precisionBits - 1)
+	 */
+	public LatencyHistogram(long highestTrackableValue, int precisionBits) {
+		super();
+		if(precisionBits < 2 || precisionBits > 20 || highestTrackableValue < 1){
+			throw new IllegalArgumentException("Number out of bounds");
+		}
+		this.precisionBits = precisionBits;
+		this.linearBuckets = 1 << precisionBits;
+		this.bucketsPerPowerOfTwo = 1 << (precisionBits - 1);
+		this.highestTrackableValue = highestTrackableValue;
+		this.counts = new AtomicLongArray(bucketIndex(highestTrackableValue) + 1);
+	}
+	
+	
+	///////////////////////// Methods /////////////////////////////////////
+	
+	/**
+	 * Records a value
+	 * @param value the value, negative values are recorded as 0 and values above the highest trackable value as that value
+	 */
+	public void record(long value){
+		if(value < 0){
+			value = 0;
+		} else if(value > highestTrackableValue){
+			value = highestTrackableValue;
+		}
+		counts.incrementAndGet(bucketIndex(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+		updateMinAndMax(value, value);
+	}
+	
+	/**
+	 * Adds every value of another histogram with the same layout to this one, eg. to sum up the histograms of many threads
+	 * @param other the histogram to add
+	 * @throws IllegalArgumentException if the other histogram does not have the same precision and highest trackable value
+	 */
+	public void add(LatencyHistogram other){
+		if(other.precisionBits != precisionBits || other.highestTrackableValue != highestTrackableValue){
+			throw new IllegalArgumentException("The histograms does not have the same layout");
+		}
+		for(int i = 0; i < counts.length(); i++){
+			long count = other.counts.get(i);
+			if(count != 0){
+				counts.addAndGet(i, count);
+			}
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalSum.addAndGet(other.totalSum.get());
+		if(other.getTotalCount() > 0){
+			updateMinAndMax(other.min.get(), other.max.get());
+		}
+	}
+	
+	/**
+	 * Lowers the min and raises the max if the values are outside of them
+	 * @param low the value to compare with the min
+	 * @param high the value to compare with the max
+	 */
+	private void updateMinAndMax(long low, long high){
+		long currentMin;
+		while(low < (currentMin = min.get()) && !min.compareAndSet(currentMin, low)){
+			// another thread changed it, try again
+		}
+		long currentMax;
+		while(high > (currentMax = max.get()) && !max.compareAndSet(currentMax, high)){
+			// another thread changed it, try again
+		}
+	}
+	
+	/**
+	 * Removes every recorded value. Values that are recorded at the same time may or may not be removed
+	 */
+	public void reset(){
+		for(int i = 0; i < counts.length(); i++){
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalSum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+	
+	/**
+	 * Gets the value that the given percentage of the recorded values are at or below
+	 * @param percentile the percentile between 0 and 100, eg. 99.9
+	 * @return the highest value that is in the same bucket as the value at the percentile, never more than the largest
+	 * recorded value. 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile){
+		long total = getTotalCount();
+		if(total == 0){
+			return 0;
+		}
+		long countAtPercentile = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++){
+			seen += counts.get(i);
+			if(seen >= countAtPercentile){
+				return Math.min(highestValueInBucket(i), getMax());
+			}
+		}
+		return getMax();
+	}
+	
+	/**
+	 * Gets the index of the bucket a value is counted in
+	 * @param value the value, at least 0
+	 * @return the index
+	 */
+	private int bucketIndex(long value){
+		if(value < linearBuckets){
+			return (int) value;
+		}
+		// shift the value so that it has precisionBits bits left, the number of shifts tells which power of two it is in
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (precisionBits - 1);
+		int topBits = (int) (value >>> shift);
+		return linearBuckets + (shift - 1) * bucketsPerPowerOfTwo + (topBits - bucketsPerPowerOfTwo);
+	}
+	
+	/**
+	 * Gets the largest value that is counted in a bucket
+	 * @param index the index of the bucket
+	 * @return the value
+	 */
+	private long highestValueInBucket(int index){
+		if(index < linearBuckets){
+			return index;
+		}
+		int shift = (index - linearBuckets) / bucketsPerPowerOfTwo + 1;
+		long topBits = (index - linearBuckets) % bucketsPerPowerOfTwo + bucketsPerPowerOfTwo;
+		return ((topBits + 1) << shift) - 1;
+	}
+	
+	
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the number of values that has been recorded
+	 * @return the number of values
+	 */
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+	
+	/**
+	 * Gets the sum of the recorded values
+	 * @return the sum
+	 */
+	public long getTotalSum() {
+		return totalSum.get();
+	}
+	
+	/**
+	 * Gets the average of the recorded values
+	 * @return the mean, 0 if nothing has been recorded
+	 */
+	public double getMean() {
+		long total = getTotalCount();
+		return total == 0 ? 0 : (double) totalSum.get() / total;
+	}
+	
+	/**
+	 * Gets the smallest recorded value
+	 * @return the smallest value, 0 if nothing has been recorded
+	 */
+	public long getMin() {
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+	
+	/**
+	 * Gets the largest recorded value
+	 * @return the largest value, 0 if nothing has been recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Gets the largest value that is tracked
+	 * @return the highest trackable value
+	 */
+	public long getHighestTrackableValue() {
+		return highestTrackableValue;
+	}
+	
+}
@@ -0,0 +1,105 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to at once without fighting over the same cache line, the same idea as LongAdder. Every
+ * thread adds to one of a number of cells picked from its id and the value of the counter is the sum of the cells, so adding is
+ * cheap and reading is a little more expensive
+ * @author Mattis
+ *
+ */
+public class StripedCounter {
+	// The number of longs between two cells, 8 longs are 64 bytes which is the size of a cache line on most processors
+	private static final int padding = 8;
+	
+	// The number of cells, a power of two so that a cell can be picked with a mask
+	private static final int cellCount = cellCountFor(Runtime.getRuntime().availableProcessors());
+	
+	// The cells, only every padding:th long is used
+	private final AtomicLongArray cells = new AtomicLongArray(cellCount * padding);
+	
+	
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates a counter that starts at 0
+	 */
+	public StripedCounter() {
+		super();
+	}
+	
+	
+	///////////////////////// Methods /////////////////////////////////////
+	
+	/**
+	 * Adds one to the counter
+	 */
+	public void increment(){
+		add(1);
+	}
+	
+	/**
+	 * Subtracts one from the counter
+	 */
+	public void decrement(){
+		add(-1);
+	}
+	
+	/**
+	 * Adds to the counter
+	 * @param value the value to add, may be negative
+	 */
+	public void add(long value){
+		cells.addAndGet(cellIndex(), value);
+	}
+	
+	/**
+	 * Gets the value of the counter. Values that are added at the same time may or may not be included
+	 * @return the sum of every cell
+	 */
+	public long sum(){
+		long sum = 0;
+		for(int i = 0; i < cells.length(); i += padding){
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+	
+	/**
+	 * Sets the counter to 0. Values that are added at the same time may or may not be kept
+	 */
+	public void reset(){
+		for(int i = 0; i < cells.length(); i += padding){
+			cells.set(i, 0);
+		}
+	}
+	
+	/**
+	 * Picks the cell for the current thread, the id is mixed so that threads that are created one after the other does not
+	 * end up next to each other only by chance
+	 * @return the index of the cell in the array
+	 */
+	private static int cellIndex(){
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((hash >>> 16) & (cellCount - 1)) * padding;
+	}
+	
+	/**
+	 * Gets the smallest power of two that is at least twice the number of processors
+	 */
+	private static int cellCountFor(int processors){
+		int count = 1;
+		while(count < processors * 2){
+			count <<= 1;
+		}
+		return count;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+	
+}
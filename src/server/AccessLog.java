@@ -0,0 +1,425 @@
+package server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import metrics.StripedCounter;
+
+/**
+ * An access log that is written by a thread of its own so that the threads that handles requests never wait for the disk. The
+ * request threads publishes a record of every response(time, client address, request line, response code, bytes and latency) to
+ * a ring buffer that many threads can write to at once without locks, and the writer thread takes the records out of it in
+ * batches and writes them to the file through a FileChannel. When the file has grown to its max size it is rotated: the
+ * file is renamed to "name.1", "name.1" to "name.2" and so on. A record that is published when the ring buffer is full is
+ * dropped and counted instead of waiting for the writer, the request path never blocks on the log.
+ * The lines are in the Common Log Format followed by the latency in microseconds, eg.
+ * 127.0.0.1 - - [17/Oct/2014:10:04:20 +0000] "GET /index.html HTTP/1.0" 200 152 87
+ * @author Mattis
+ *
+ */
+public class AccessLog implements Runnable {
+	/**
+	 * The number of records the ring buffer holds when nothing else is given
+	 */
+	public static final int defaultCapacity = 8192;
+
+	/**
+	 * The size in bytes a file may grow to before it is rotated when nothing else is given
+	 */
+	public static final long defaultMaxFileSize = 10L << 20;
+
+	// The number of rotated files that are kept, "name.1" is the newest
+	private static final int rotatedFiles = 5;
+
+	// The size of the buffer the writer collects the lines of a batch in, a line that does not fit is cut
+	private static final int batchBufferSize = 64 * 1024;
+
+	// The longest request line that is written, longer ones are cut so that a line always fits in the batch buffer
+	private static final int maxRequestLineLength = 2048;
+
+	// The number of nanoseconds the writer sleeps when the ring buffer is empty, the request threads never wakes it up
+	private static final long idleWait = 10000000L;
+
+	// The file the log is written to
+	private final File file;
+
+	// The size in bytes the file may grow to before it is rotated
+	private final long maxFileSize;
+
+	// The records, the slot of a record is its sequence number masked with the capacity - 1. A record is made of the value at
+	// its slot in each of the arrays so that no objects are created when it is published
+	private final int mask;
+	private final long[] times;
+	private final long[] latencies;
+	private final long[] sizes;
+	private final int[] codes;
+	private final InetAddress[] clients;
+	private final String[] requestLines;
+
+	// The sequence number every slot was last published with, a slot is ready to be written when it holds the sequence number
+	// the writer expects
+	private final AtomicLongArray published;
+
+	// The sequence number of the next record to publish, claimed by the request threads
+	private final AtomicLong tail = new AtomicLong();
+
+	// The sequence number of the next record to write, only moved by the writer
+	private final AtomicLong head = new AtomicLong();
+
+	// Statistics
+	private final StripedCounter dropped = new StripedCounter();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong rotations = new AtomicLong();
+
+	// The file that is written to, null while it can not be opened. Only used by the writer thread once it is started
+	private FileChannel channel;
+	private long fileSize;
+
+	// Formats the time of the records, only used by the writer thread. The formatted time is reused for every record in the same
+	// second
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+	private long formattedSecond = -1;
+	private String formattedTime;
+
+	// true as long as the writer should keep writing
+	private volatile boolean running = false;
+
+	// The thread that writes the records, null if the log is not started
+	private Thread writer;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the AccessLog class with the default capacity, nothing is written until it is started
+	 * @param file the file to write the log to, it is appended to if it already exists
+	 * @param maxFileSize the size in bytes the file may grow to before it is rotated
+	 */
+	public AccessLog(File file, long maxFileSize) {
+		this(file, maxFileSize, defaultCapacity);
+	}
+
+	/**
+	 * Creates an instance of the AccessLog class, nothing is written until it is started
+	 * @param file the file to write the log to, it is appended to if it already exists
+	 * @param maxFileSize the size in bytes the file may grow to before it is rotated
+	 * @param capacity the number of records the ring buffer holds, rounded up to a power of two
+	 */
+	public AccessLog(File file, long maxFileSize, int capacity) {
+		super();
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.times = new long[size];
+		this.latencies = new long[size];
+		this.sizes = new long[size];
+		this.codes = new int[size];
+		this.clients = new InetAddress[size];
+		this.requestLines = new String[size];
+		this.published = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++){
+			published.set(i, i - size); // no slot holds the sequence number it is first written with
+		}
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Creates and starts the access log a server is configured with
+	 * @param configuration the settings of the server
+	 * @return the started log, null if the server has no access log
+	 * @throws IOException if the file could not be opened
+	 */
+	public static AccessLog startFromConfiguration(ServerConfiguration configuration) throws IOException{
+		if(configuration.getAccessLogFile() == null){
+			return null;
+		}
+		AccessLog accessLog = new AccessLog(new File(configuration.getAccessLogFile()), configuration.getAccessLogMaxSize());
+		accessLog.start();
+		return accessLog;
+	}
+
+	/**
+	 * Opens the file and starts the thread that writes the records to it
+	 * @throws IOException if the file could not be opened
+	 */
+	public synchronized void start() throws IOException{
+		if(running){
+			return;
+		}
+		openFile();
+		running = true;
+		writer = new Thread(this, "access-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Stops the writer thread once it has written every record that has been published, and closes the file
+	 */
+	public void stop(){
+		Thread stopped;
+		synchronized (this) {
+			running = false;
+			stopped = writer;
+			writer = null;
+		}
+		if(stopped == null){
+			return;
+		}
+		LockSupport.unpark(stopped);
+		try {
+			stopped.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Publishes a record of a response that has been sent, never waits. If the ring buffer is full the record is dropped
+	 * @param request the request
+	 * @param responseCode the code of the response
+	 * @param bytes the number of bytes that was sent
+	 * @return true if the record was published, false if it was dropped
+	 */
+	public boolean log(Request request, ResponseCode responseCode, long bytes){
+		long sequence;
+		do{
+			sequence = tail.get();
+			if(sequence - head.get() > mask){
+				dropped.increment();
+				return false;
+			}
+		} while(!tail.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int) sequence & mask;
+		times[slot] = System.currentTimeMillis();
+		latencies[slot] = (System.nanoTime() - request.getReceivedAt()) / 1000;
+		sizes[slot] = bytes;
+		codes[slot] = responseCode.getCode();
+		clients[slot] = request.getClientAddress();
+		requestLines[slot] = request.getRequestLine();
+		published.lazySet(slot, sequence); // the writes above are seen by the writer before the sequence number is
+		return true;
+	}
+
+	/**
+	 * Writes the records as they are published until the log is stopped, then writes the ones that are left and closes the file
+	 */
+	@Override
+	public void run() {
+		ByteBuffer batch = ByteBuffer.allocate(batchBufferSize);
+		try {
+			while(running){
+				if(!writeBatch(batch)){
+					LockSupport.parkNanos(this, idleWait);
+				}
+			}
+			while(writeBatch(batch)){
+				// the records that were published before the log was stopped
+			}
+		} finally {
+			closeFile();
+		}
+	}
+
+	/**
+	 * Takes the records that are ready out of the ring buffer, as many as fits in the batch buffer, and writes them to the file
+	 * @param batch the buffer the lines are collected in
+	 * @return true if anything was written
+	 */
+	private boolean writeBatch(ByteBuffer batch){
+		batch.clear();
+		long sequence = head.get();
+		int records = 0;
+		while(batch.remaining() >= maxRequestLineLength + 256){
+			int slot = (int) sequence & mask;
+			if(published.get(slot) != sequence){
+				break; // not published yet
+			}
+			appendRecord(batch, slot);
+			clients[slot] = null;
+			requestLines[slot] = null;
+			sequence++;
+			records++;
+			head.lazySet(sequence); // the slot may be claimed again
+		}
+		if(records == 0){
+			return false;
+		}
+
+		batch.flip();
+		try {
+			if(channel == null){
+				openFile(); // the file could not be opened last time, it is tried again for every batch
+			}
+			if(fileSize + batch.remaining() > maxFileSize && fileSize > 0){
+				rotate();
+			}
+			while(batch.hasRemaining()){
+				fileSize += channel.write(batch);
+			}
+			written.addAndGet(records);
+		} catch (IOException e) {
+			dropped.add(records); // the disk is full or the file has gone, the records are lost but the server keeps going
+		}
+		return true;
+	}
+
+	/**
+	 * Appends the line of a record to the batch
+	 */
+	private void appendRecord(ByteBuffer batch, int slot){
+		InetAddress client = clients[slot];
+		appendAscii(batch, client != null ? client.getHostAddress() : "-", 64);
+		appendAscii(batch, " - - [", 8);
+		long second = times[slot] / 1000;
+		if(second != formattedSecond){
+			formattedSecond = second;
+			formattedTime = dateFormat.format(new Date(times[slot]));
+		}
+		appendAscii(batch, formattedTime, 64);
+		batch.put((byte) ']').put((byte) ' ').put((byte) '"');
+		String requestLine = requestLines[slot];
+		appendAscii(batch, requestLine != null ? requestLine : "-", maxRequestLineLength);
+		batch.put((byte) '"').put((byte) ' ');
+		appendAscii(batch, Integer.toString(codes[slot]), 8);
+		batch.put((byte) ' ');
+		appendAscii(batch, Long.toString(sizes[slot]), 24);
+		batch.put((byte) ' ');
+		appendAscii(batch, Long.toString(latencies[slot]), 24);
+		batch.put((byte) '\n');
+	}
+
+	/**
+	 * Appends text to the batch one byte per character, characters that are not printable ASCII(eg. a control character or a
+	 * quote that the client put in the request line) are written as '?' so that every record stays on one line
+	 */
+	private static void appendAscii(ByteBuffer batch, String text, int maxLength){
+		int length = Math.min(text.length(), maxLength);
+		for(int i = 0; i < length; i++){
+			char c = text.charAt(i);
+			batch.put(c >= ' ' && c < 127 && c != '"' ? (byte) c : (byte) '?');
+		}
+	}
+
+	/**
+	 * Opens the file for appending
+	 * @throws IOException if the file could not be opened, the log has no file until it is opened again
+	 */
+	private void openFile() throws IOException{
+		channel = null;
+		FileChannel opened = new FileOutputStream(file, true).getChannel();
+		try {
+			fileSize = opened.size();
+		} catch (IOException e) {
+			opened.close();
+			throw e;
+		}
+		channel = opened;
+	}
+
+	/**
+	 * Closes the file, nothing more can be written to it
+	 */
+	private void closeFile(){
+		try {
+			if(channel != null){
+				channel.close();
+			}
+		} catch (IOException e) {
+			// nothing more to write anyway
+		} finally {
+			channel = null;
+		}
+	}
+
+	/**
+	 * Renames the file to "name.1" after the older files has been moved one step up, the oldest one is deleted, and opens a new
+	 * empty file. If a file can not be renamed the rotation is given up, so that no rotated file is overwritten, and the log is
+	 * appended to the same file until the next batch tries again
+	 * @throws IOException if the file could not be opened again
+	 */
+	private void rotate() throws IOException{
+		closeFile();
+		try {
+			rotatedFile(rotatedFiles).delete();
+			for(int i = rotatedFiles - 1; i >= 1; i--){
+				File rotated = rotatedFile(i);
+				if(rotated.exists() && !rotated.renameTo(rotatedFile(i + 1))){
+					return;
+				}
+			}
+			if(file.renameTo(rotatedFile(1))){
+				rotations.incrementAndGet();
+			}
+		} finally {
+			openFile();
+		}
+	}
+
+	/**
+	 * Gets a rotated file
+	 * @param number the number of the file, 1 is the newest
+	 * @return the file "name.number"
+	 */
+	private File rotatedFile(int number){
+		return new File(file.getPath() + "." + number);
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the file the log is written to
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the number of records that has been written to the file
+	 * @return the number of records
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * Gets the number of records that were dropped since the ring buffer was full or they could not be written
+	 * @return the number of records
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Gets the number of times the file has been rotated
+	 * @return the number of rotations
+	 */
+	public long getRotations() {
+		return rotations.get();
+	}
+
+	/**
+	 * Gets the number of records that has been published but not yet written
+	 * @return the number of records
+	 */
+	public int getPending() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+}
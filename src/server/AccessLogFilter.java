@@ -0,0 +1,37 @@
+package server;
+
+/**
+ * The stage that publishes a record of every response that has been sent to the access log. It only hands the record to the
+ * log, which writes it on a thread of its own
+ * @author Mattis
+ *
+ */
+public class AccessLogFilter extends ResponseFilter {
+	// The log the responses are recorded in
+	private final AccessLog accessLog;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the AccessLogFilter class
+	 * @param accessLog the log the responses are recorded in
+	 */
+	public AccessLogFilter(AccessLog accessLog) {
+		super();
+		this.accessLog = accessLog;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	@Override
+	public void filter(Request request, Response response) {
+		// the response is recorded when it has been sent, so that the bytes are known
+	}
+
+	@Override
+	public void sent(Request request, Response response, long bytesWritten) {
+		accessLog.log(request, response.getResponseCode(), bytesWritten);
+	}
+
+}
@@ -0,0 +1,221 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.LatencyHistogram;
+import metrics.StripedCounter;
+
+/**
+ * Decides how many requests the server handles at once, so that an overloaded server answers the requests it can quickly and
+ * turns the rest away at once instead of letting every request wait in a queue. The limit is adjusted the same way TCP adjusts
+ * its window(AIMD): every request that is answered within the target latency, while the limit is being used, raises the limit by
+ * 1/limit so that it grows by one for every limit of requests, and a request that takes longer than the target cuts the limit by
+ * a tenth. The limit is only cut once per target latency since the requests that finish right after a cut were admitted under the
+ * old limit. A request that comes in when as many requests are being handled as the limit allows is shed, answered with a 503
+ * before anything is read from a file. Admitting and releasing a request is a compare-and-set each, no locks
+ * @author Mattis
+ *
+ */
+public class AdmissionController {
+	/**
+	 * The limit the controller starts at when nothing else is given
+	 */
+	public static final int defaultInitialLimit = 64;
+
+	// The limit is never cut below this, so that the server always serves something
+	private static final int minLimit = 4;
+
+	// The limit is never raised above this
+	private static final int maxLimit = 10000;
+
+	// What the limit is multiplied with when a request takes longer than the target
+	private static final double backoff = 0.9;
+
+	// The latency in nanoseconds a request should be answered within
+	private final long targetLatency;
+
+	// The number of requests that are being handled
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	// The number of requests that may be handled at once, a double(kept as its bits) so that it can grow by less than one
+	private final AtomicLong limit;
+
+	// The time in nanoseconds the limit was last cut
+	private final AtomicLong lastDecrease;
+
+	// The time it takes to handle a request in microseconds, from when it was read until the response was ready to be written
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	// Statistics
+	private final StripedCounter admitted = new StripedCounter();
+	private final StripedCounter shed = new StripedCounter();
+	private final AtomicLong decreases = new AtomicLong();
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the AdmissionController class
+	 * @param targetLatencyMillis the number of milliseconds a request should be answered within, the limit is cut when it takes
+	 * longer than that
+	 * @param initialLimit the number of requests that may be handled at once to start with
+	 */
+	public AdmissionController(long targetLatencyMillis, int initialLimit) {
+		super();
+		this.targetLatency = targetLatencyMillis * 1000000;
+		this.limit = new AtomicLong(Double.doubleToLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+		this.lastDecrease = new AtomicLong(System.nanoTime() - targetLatency);
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Creates the admission controller a server is configured with
+	 * @param configuration the settings of the server
+	 * @return the controller, null if every request is admitted
+	 */
+	public static AdmissionController fromConfiguration(ServerConfiguration configuration){
+		if(configuration.getAdmissionTargetLatency() == 0){
+			return null;
+		}
+		return new AdmissionController(configuration.getAdmissionTargetLatency(), configuration.getAdmissionInitialLimit());
+	}
+
+	/**
+	 * Admits a request if fewer requests than the limit are being handled. Every request that is admitted must be released
+	 * @return true if the request may be handled, false if it should be shed
+	 */
+	public boolean tryAcquire(){
+		int allowed = (int) getLimitValue();
+		while(true){
+			int current = inFlight.get();
+			if(current >= allowed){
+				shed.increment();
+				return false;
+			}
+			if(inFlight.compareAndSet(current, current + 1)){
+				admitted.increment();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases a request that has been handled and adjusts the limit by how long it took
+	 * @param latencyNanos the number of nanoseconds it took to handle the request, until its response was ready to be written
+	 */
+	public void release(long latencyNanos){
+		int current = inFlight.getAndDecrement();
+		latency.record(latencyNanos / 1000);
+		if(latencyNanos > targetLatency){
+			decrease();
+		} else{
+			increase(current);
+		}
+	}
+
+	/**
+	 * Cuts the limit, unless it was cut less than a target latency ago
+	 */
+	private void decrease(){
+		long now = System.nanoTime();
+		long last = lastDecrease.get();
+		if(now - last < targetLatency || !lastDecrease.compareAndSet(last, now)){
+			return;
+		}
+		while(true){
+			long bits = limit.get();
+			double next = Math.max(minLimit, Double.longBitsToDouble(bits) * backoff);
+			if(limit.compareAndSet(bits, Double.doubleToLongBits(next))){
+				decreases.incrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Raises the limit by 1/limit if at least half of it was in use, a limit that is not used says nothing about what the server
+	 * could take and is left as it is
+	 * @param used the number of requests that were being handled, including the one that was just released
+	 */
+	private void increase(int used){
+		while(true){
+			long bits = limit.get();
+			double current = Double.longBitsToDouble(bits);
+			if(used * 2 < current || current >= maxLimit){
+				return;
+			}
+			double next = Math.min(maxLimit, current + 1 / current);
+			if(limit.compareAndSet(bits, Double.doubleToLongBits(next))){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the limit with its fraction
+	 */
+	private double getLimitValue(){
+		return Double.longBitsToDouble(limit.get());
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the number of requests that may be handled at once
+	 * @return the limit
+	 */
+	public int getLimit() {
+		return (int) getLimitValue();
+	}
+
+	/**
+	 * Gets the number of requests that are being handled
+	 * @return the number of requests
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Gets the latency a request should be answered within
+	 * @return the latency in milliseconds
+	 */
+	public long getTargetLatencyMillis() {
+		return targetLatency / 1000000;
+	}
+
+	/**
+	 * Gets the number of requests that has been admitted
+	 * @return the number of requests
+	 */
+	public long getAdmitted() {
+		return admitted.sum();
+	}
+
+	/**
+	 * Gets the number of requests that has been shed
+	 * @return the number of requests
+	 */
+	public long getShed() {
+		return shed.sum();
+	}
+
+	/**
+	 * Gets the number of times the limit has been cut
+	 * @return the number of decreases
+	 */
+	public long getDecreases() {
+		return decreases.get();
+	}
+
+	/**
+	 * Gets the time it takes to handle the admitted requests
+	 * @return the histogram of the latencies in microseconds
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+}
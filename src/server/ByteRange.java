@@ -0,0 +1,183 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes of a file that the client has asked for with a Range header, eg. "Range: bytes=0-499". The ranges are
+ * parsed against the size of the file so that open ranges("500-") and suffix ranges("-500") become exact ranges
+ * @author Mattis
+ *
+ */
+public class ByteRange {
+	// The largest number of ranges that are accepted in one header, a request with more is answered with the whole file so
+	// that a client can not make the server send the same bytes many times over
+	public static final int maxRanges = 32;
+	
+	// The first and the last byte of the range, both included
+	private final long first;
+	private final long last;
+	
+	
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates a range
+	 * @param first the index of the first byte
+	 * @param last the index of the last byte, included in the range
+	 */
+	public ByteRange(long first, long last) {
+		super();
+		this.first = first;
+		this.last = last;
+	}
+	
+	
+	///////////////////////// Methods /////////////////////////////////////
+	
+	/**
+	 * Parses the value of a Range header. Ranges that overlap or are next to each other are merged and the ranges are sorted
+	 * @param header the value of the header, eg. "bytes=0-499,1000-"
+	 * @param size the size of the file in bytes
+	 * @return the ranges that can be satisfied, an empty list if none of them can(416), or null if the header is not valid or
+	 * has too many ranges and should be ignored(the whole file is sent)
+	 */
+	public static List<ByteRange> parse(String header, long size){
+		String unit = "bytes=";
+		if(!header.regionMatches(true, 0, unit, 0, unit.length())){
+			return null; // the only unit there is
+		}
+		
+		List<ByteRange> ranges = new ArrayList<ByteRange>();
+		int specs = 0;
+		int start = unit.length();
+		while(start <= header.length()){
+			int end = header.indexOf(',', start);
+			if(end == -1){
+				end = header.length();
+			}
+			String spec = header.substring(start, end).trim();
+			start = end + 1;
+			if(spec.length() == 0){
+				continue; // empty elements are allowed in lists
+			}
+			if(++specs > maxRanges){
+				return null;
+			}
+			
+			int dash = spec.indexOf('-');
+			if(dash == -1){
+				return null;
+			}
+			long firstByte = parseNumber(spec.substring(0, dash));
+			long lastByte = parseNumber(spec.substring(dash + 1));
+			
+			if(dash == 0){ // the last bytes, eg. "-500"
+				if(lastByte < 0){
+					return null;
+				}
+				if(lastByte > 0 && size > 0){
+					ranges.add(new ByteRange(Math.max(0, size - lastByte), size - 1));
+				}
+			} else{
+				if(firstByte < 0 || (dash < spec.length() - 1 && (lastByte < 0 || lastByte < firstByte))){
+					return null;
+				}
+				if(firstByte < size){ // ranges that starts after the end of the file can not be satisfied
+					long last = (dash == spec.length() - 1) ? size - 1 : Math.min(lastByte, size - 1);
+					ranges.add(new ByteRange(firstByte, last));
+				}
+			}
+		}
+		if(specs == 0){
+			return null;
+		}
+		return merge(ranges);
+	}
+	
+	/**
+	 * Sorts the ranges and merges the ones that overlap or are next to each other
+	 * @param ranges the ranges
+	 * @return the merged ranges
+	 */
+	private static List<ByteRange> merge(List<ByteRange> ranges){
+		if(ranges.size() < 2){
+			return ranges;
+		}
+		Collections.sort(ranges, new Comparator<ByteRange>() {
+			@Override
+			public int compare(ByteRange a, ByteRange b) {
+				return a.first < b.first ? -1 : (a.first == b.first ? 0 : 1);
+			}
+		});
+		List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+		ByteRange current = ranges.get(0);
+		for(int i = 1; i < ranges.size(); i++){
+			ByteRange next = ranges.get(i);
+			if(next.first <= current.last + 1){
+				current = new ByteRange(current.first, Math.max(current.last, next.last));
+			} else{
+				merged.add(current);
+				current = next;
+			}
+		}
+		merged.add(current);
+		return merged;
+	}
+	
+	/**
+	 * Parses a number of bytes
+	 * @return the number, -1 if it is empty or not a number
+	 */
+	private static long parseNumber(String number){
+		if(number.length() == 0 || number.length() > 18){
+			return -1;
+		}
+		long value = 0;
+		for(int i = 0; i < number.length(); i++){
+			char c = number.charAt(i);
+			if(c < '0' || c > '9'){
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+	
+	/**
+	 * Gets the value of the Content-Range header for this range
+	 * @param size the size of the whole file
+	 * @return the value, eg. "bytes 0-499/4360"
+	 */
+	public String getContentRange(long size){
+		return "bytes " + first + "-" + last + "/" + size;
+	}
+	
+	
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the index of the first byte of the range
+	 * @return the index
+	 */
+	public long getFirst() {
+		return first;
+	}
+	
+	/**
+	 * Gets the index of the last byte of the range, the byte is included in the range
+	 * @return the index
+	 */
+	public long getLast() {
+		return last;
+	}
+	
+	/**
+	 * Gets the number of bytes in the range
+	 * @return the length
+	 */
+	public long getLength() {
+		return last - first + 1;
+	}
+	
+}
@@ -0,0 +1,322 @@
+package server;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.StripedCounter;
+
+/**
+ * Limits what a single client(a remote IP address) may use of the server, so that one client can not hold every connection or
+ * every worker: the number of connections it may have open at once, and the rate it may send requests at. The rate is kept by a
+ * token bucket per client that fills up with time and holds at most a burst of requests. The state of a client is a few atomic
+ * values in a ConcurrentHashMap, a lookup is one get and taking a token or a connection is one compare-and-set, so the threads
+ * never lock. Clients that has not been seen for a while and has no open connections are evicted so that the map does not grow
+ * forever, by whichever thread passes by when it is time to
+ * @author Mattis
+ *
+ */
+public class ClientLimiter {
+	/**
+	 * The number of connections a client may have open at once when nothing else is given
+	 */
+	public static final int defaultMaxConnections = 256;
+
+	// The number of milliseconds a client must have been idle before it is evicted
+	private static final long idleTimeout = 60000;
+
+	// The number of milliseconds between the sweeps that evicts idle clients
+	private static final long sweepInterval = 10000;
+
+	// The largest number of clients that are kept track of, clients above that are let through untracked until the next sweep
+	// has evicted the idle ones, so that a flood of addresses can not use all memory. A full map does not make the sweeps more
+	// often, a sweep goes through every client and would otherwise be done on every accept while the flood lasts
+	private static final int maxClients = 100000;
+
+	// The number of connections a client may have open at once, 0 if it is not limited
+	private final int maxConnections;
+
+	// The number of nanoseconds it takes to earn a token, 0 if the rate is not limited
+	private final long tokenInterval;
+
+	// The number of nanoseconds of tokens a full bucket holds, the burst times the token interval
+	private final long bucketSize;
+
+	/**
+	 * Returned by connectionOpened for a connection that was let through without being counted, since there were too many
+	 * clients to keep track of another one. Closing it changes nothing
+	 */
+	static final Client uncounted = new Client(0);
+
+	// The state of every client that has been seen lately
+	private final ConcurrentHashMap<InetAddress, Client> clients = new ConcurrentHashMap<InetAddress, Client>(256);
+
+	// The time of the next sweep in milliseconds, moved by the thread that does the sweep
+	private final AtomicLong nextSweep = new AtomicLong(System.currentTimeMillis() + sweepInterval);
+
+	// Statistics
+	private final StripedCounter rejectedConnections = new StripedCounter();
+	private final StripedCounter limitedRequests = new StripedCounter();
+	private final AtomicLong evictions = new AtomicLong();
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the ClientLimiter class
+	 * @param maxConnections the number of connections a client may have open at once, 0 to not limit it
+	 * @param requestsPerSecond the rate a client may send requests at, 0 to not limit it
+	 * @param burst the number of requests a client may send at once before the rate applies, at least 1
+	 */
+	public ClientLimiter(int maxConnections, int requestsPerSecond, int burst) {
+		super();
+		this.maxConnections = maxConnections;
+		this.tokenInterval = requestsPerSecond > 0 ? 1000000000L / requestsPerSecond : 0;
+		this.bucketSize = tokenInterval * Math.max(1, burst);
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Creates the limiter a server is configured with
+	 * @param configuration the settings of the server
+	 * @return the limiter, null if neither the connections nor the rate of a client is limited
+	 */
+	public static ClientLimiter fromConfiguration(ServerConfiguration configuration){
+		if(configuration.getClientMaxConnections() == 0 && configuration.getClientRequestRate() == 0){
+			return null;
+		}
+		return new ClientLimiter(configuration.getClientMaxConnections(), configuration.getClientRequestRate(),
+				configuration.getClientBurst());
+	}
+
+	/**
+	 * Counts a connection that has been accepted from a client, if the client already has as many connections open as it may the
+	 * connection is not counted and should be rejected. The client the connection was counted on is kept with the connection and
+	 * given to connectionClosed when it is closed, so that only the connections that were counted are taken away again
+	 * @param address the address of the client
+	 * @return the client the connection was counted on, uncounted if it was let through without being counted, or null if the
+	 * connection should be rejected
+	 */
+	public Client connectionOpened(InetAddress address){
+		sweepIfTime();
+		while(true){
+			Client client = getClient(address);
+			if(client == null){
+				return uncounted; // too many clients to keep track of
+			}
+			int result = client.open(maxConnections);
+			if(result == Client.evicted){
+				continue; // evicted after it was looked up, a new one is made
+			}
+			if(result == Client.full){
+				rejectedConnections.increment();
+				return null;
+			}
+			return client;
+		}
+	}
+
+	/**
+	 * Counts a connection that has been closed, must be called once for every connection that connectionOpened let through
+	 * @param client what connectionOpened returned for the connection. Nothing happens if it is uncounted or null
+	 */
+	public void connectionClosed(Client client){
+		if(client != null && client != uncounted){
+			client.close();
+		}
+	}
+
+	/**
+	 * Takes a token from the bucket of a client for a request
+	 * @param address the address of the client, null if it is not known
+	 * @return true if the request may be served, false if the client sends requests faster than it may
+	 */
+	public boolean tryRequest(InetAddress address){
+		if(tokenInterval == 0 || address == null){
+			return true;
+		}
+		Client client = getClient(address);
+		if(client == null || client.takeToken(System.nanoTime(), tokenInterval, bucketSize)){
+			return true;
+		}
+		limitedRequests.increment();
+		return false;
+	}
+
+	/**
+	 * Gets the state of a client, it is created if the client has not been seen lately
+	 * @param address the address of the client
+	 * @return the state, null if there are too many clients to keep track of another one
+	 */
+	private Client getClient(InetAddress address){
+		Client client = clients.get(address);
+		if(client != null){
+			long now = System.currentTimeMillis();
+			if(client.lastSeen != now){
+				client.lastSeen = now; // only written when it has changed so that the cache line is not written on every request
+			}
+			return client;
+		}
+		if(clients.size() >= maxClients){
+			return null;
+		}
+		Client created = new Client(System.nanoTime() - bucketSize);
+		client = clients.putIfAbsent(address, created);
+		return client != null ? client : created;
+	}
+
+	/**
+	 * Evicts the idle clients if it is time for a sweep, only one of the threads that passes by at that time does it
+	 */
+	private void sweepIfTime(){
+		long now = System.currentTimeMillis();
+		long sweepAt = nextSweep.get();
+		if(now >= sweepAt && nextSweep.compareAndSet(sweepAt, now + sweepInterval)){
+			evictIdleClients(now);
+		}
+	}
+
+	/**
+	 * Evicts the clients that has no open connections, has not been seen for the idle timeout and has a full bucket, so that
+	 * nothing is forgotten that would have limited them
+	 * @param now the current time in milliseconds
+	 */
+	private void evictIdleClients(long now){
+		long nanoNow = System.nanoTime();
+		Iterator<Map.Entry<InetAddress, Client>> iterator = clients.entrySet().iterator();
+		while(iterator.hasNext()){
+			Map.Entry<InetAddress, Client> entry = iterator.next();
+			Client client = entry.getValue();
+			if(now - client.lastSeen >= idleTimeout && client.isBucketFull(nanoNow, bucketSize) && client.evict()){
+				clients.remove(entry.getKey(), client);
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the number of clients that are kept track of
+	 * @return the number of clients
+	 */
+	public int getTrackedClients() {
+		return clients.size();
+	}
+
+	/**
+	 * Gets the number of connections that were rejected since the client had too many open
+	 * @return the number of connections
+	 */
+	public long getRejectedConnections() {
+		return rejectedConnections.sum();
+	}
+
+	/**
+	 * Gets the number of requests that were rejected since the client sent them too fast
+	 * @return the number of requests
+	 */
+	public long getLimitedRequests() {
+		return limitedRequests.sum();
+	}
+
+	/**
+	 * Gets the number of idle clients that has been evicted
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+
+
+	/**
+	 * What the limiter knows about a single client, only known outside of the limiter as what a connection was counted on
+	 * @author Mattis
+	 *
+	 */
+	static class Client{
+		// returned by open
+		private static final int opened = 0, full = 1, evicted = 2;
+
+		// the number of open connections, -1 once the client has been evicted so that it is never used again
+		private final AtomicInteger connections = new AtomicInteger();
+
+		// the token bucket kept as the time it was empty at(in nanoseconds): it holds one token for every token interval since
+		// then, up to the bucket size. A request takes a token by moving the time one token interval ahead, so the bucket is
+		// refilled by the clock and nothing has to add tokens to it
+		private final AtomicLong emptyAt;
+
+		// the last time the client was seen in milliseconds, only used to find idle clients so it does not have to be exact
+		private volatile long lastSeen = System.currentTimeMillis();
+
+		private Client(long emptyAt){
+			this.emptyAt = new AtomicLong(emptyAt);
+		}
+
+		/**
+		 * Counts a connection if the client has fewer than the max open
+		 */
+		private int open(int maxConnections){
+			while(true){
+				int current = connections.get();
+				if(current < 0){
+					return evicted;
+				}
+				if(maxConnections > 0 && current >= maxConnections){
+					return full;
+				}
+				if(connections.compareAndSet(current, current + 1)){
+					return opened;
+				}
+			}
+		}
+
+		/**
+		 * Counts a connection that has been closed
+		 */
+		private void close(){
+			while(true){
+				int current = connections.get();
+				if(current <= 0 || connections.compareAndSet(current, current - 1)){
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Takes a token if there is one
+		 */
+		private boolean takeToken(long now, long tokenInterval, long bucketSize){
+			while(true){
+				long current = emptyAt.get();
+				long next = Math.max(current, now - bucketSize) + tokenInterval;
+				if(next - now > 0){
+					return false; // the bucket is empty
+				}
+				if(emptyAt.compareAndSet(current, next)){
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Checks if the bucket is full, ie. if the client has not used any of its tokens lately
+		 */
+		private boolean isBucketFull(long now, long bucketSize){
+			return now - emptyAt.get() >= bucketSize;
+		}
+
+		/**
+		 * Marks the client as evicted if it has no open connections
+		 */
+		private boolean evict(){
+			return connections.compareAndSet(0, -1);
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package server;
+
+import java.io.IOException;
+
+import fileManagement.CompressedVariant;
+import fileManagement.FileManager;
+
+/**
+ * The stage that sends the gzip compressed variant of a text file to the clients that accepts gzip. Requests with a Range header
+ * always gets the file as it is since the ranges are of the uncompressed file
+ * @author Mattis
+ *
+ */
+public class CompressionFilter extends ResponseFilter {
+	// The headers of the compressed variants
+	private final ResponseHeaderTemplates headerTemplates;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the CompressionFilter class
+	 * @param headerTemplates the templates the headers of the compressed variants are taken from
+	 */
+	public CompressionFilter(ResponseHeaderTemplates headerTemplates) {
+		super();
+		this.headerTemplates = headerTemplates;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	@Override
+	public void filter(Request request, Response response) {
+		if(response.getResponseCode() != ResponseCode.OK || response.getFile() == null){
+			return;
+		}
+		if(!response.isHeadersOnly() && request.hasRequestHeader(HeaderName.RANGE)){
+			return; // ranges are always taken from the uncompressed file
+		}
+		if(!ContentNegotiation.acceptsGzip(request)){
+			return;
+		}
+
+		CompressedVariant variant;
+		try {
+			variant = FileManager.getInstance().getGzipVariant(response.getResource());
+		} catch (IOException e) {
+			return; // the file is sent uncompressed, or as a 404 if it could not be read at all
+		}
+		if(variant == null){
+			return;
+		}
+		response.setHeaders(headerTemplates.getGzipTemplate(ResponseCode.OK, response.getResource(), response.getFile(), variant));
+		response.setBody(ResponseBody.ofVariant(variant));
+		response.setVariant(variant);
+	}
+
+}
@@ -0,0 +1,44 @@
+package server;
+
+/**
+ * The stage that answers a conditional request(If-None-Match or If-Modified-Since) with a 304 Not Modified without a body when
+ * the client already has the current version of the file, or of its compressed variant
+ * @author Mattis
+ *
+ */
+public class ConditionalFilter extends ResponseFilter {
+	// The headers of the 304 responses
+	private final ResponseHeaderTemplates headerTemplates;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the ConditionalFilter class
+	 * @param headerTemplates the templates the headers of the 304 responses are taken from
+	 */
+	public ConditionalFilter(ResponseHeaderTemplates headerTemplates) {
+		super();
+		this.headerTemplates = headerTemplates;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	@Override
+	public void filter(Request request, Response response) {
+		if(response.getResponseCode() != ResponseCode.OK || response.getFile() == null){
+			return;
+		}
+		if(!ConditionalGet.isNotModified(request, response.getHeaders())){
+			return;
+		}
+		if(response.getVariant() != null){
+			response.setHeaders(headerTemplates.getGzipTemplate(ResponseCode.NOT_MODIFIED, response.getResource(),
+					response.getFile(), response.getVariant()));
+		} else{
+			response.setHeaders(headerTemplates.getTemplate(ResponseCode.NOT_MODIFIED, response.getResource(), response.getFile()));
+		}
+		response.setBody(null); // the client already has the file
+	}
+
+}
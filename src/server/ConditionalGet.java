@@ -0,0 +1,101 @@
+package server;
+
+/**
+ * Decides if a GET or HEAD request can be answered with 304 Not Modified, that is if the client already has the current version
+ * of the resource. If-None-Match is compared with the ETag of the resource and takes precedence, If-Modified-Since is only used
+ * when the request has no If-None-Match. It also decides if the ranges of a Range request can be sent, which If-Range decides
+ * @author Mattis
+ *
+ */
+public final class ConditionalGet {
+	
+	private ConditionalGet(){
+	}
+	
+	
+	/**
+	 * Checks if the client already has the current version of the resource
+	 * @param request the GET or HEAD request
+	 * @param template the headers of the resource, has the ETag and the Last-Modified date
+	 * @return true if a 304 Not Modified should be sent instead of the resource
+	 */
+	public static boolean isNotModified(Request request, ResponseHeaderTemplate template){
+		if(!request.usesNewerHTTP() || template.getETag() == null){
+			return false;
+		}
+		
+		String ifNoneMatch = request.getRequestHeader(HeaderName.IF_NONE_MATCH);
+		if(ifNoneMatch != null){
+			return matchesAny(ifNoneMatch, template.getETag());
+		}
+		
+		String ifModifiedSince = request.getRequestHeader(HeaderName.IF_MODIFIED_SINCE);
+		if(ifModifiedSince != null){
+			if(ifModifiedSince.equals(template.getLastModifiedDate())){
+				return true; // the client sent back the date it got, no need to parse it
+			}
+			long since = HttpDate.parse(ifModifiedSince);
+			// the dates only has whole seconds
+			return since != -1 && template.getLastModified() / 1000 <= since / 1000;
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if the ranges of a Range request may be sent, that is if the request has no If-Range or if the validator in it is
+	 * for the current version of the resource. If it is not the whole resource is sent instead. The comparison is strong, a
+	 * weak ETag never matches and a date only matches if it is exactly the Last-Modified date
+	 * @param request the GET request with a Range header
+	 * @param template the headers of the resource, has the ETag and the Last-Modified date
+	 * @return true if the ranges may be sent
+	 */
+	public static boolean isRangeCurrent(Request request, ResponseHeaderTemplate template){
+		String ifRange = request.getRequestHeader(HeaderName.IF_RANGE);
+		if(ifRange == null){
+			return true;
+		}
+		if(template.getETag() == null){
+			return false;
+		}
+		if(ifRange.startsWith("\"") || ifRange.startsWith("W/")){
+			return ifRange.equals(template.getETag());
+		}
+		if(ifRange.equals(template.getLastModifiedDate())){
+			return true;
+		}
+		long date = HttpDate.parse(ifRange);
+		return date != -1 && date / 1000 == template.getLastModified() / 1000;
+	}
+	
+	/**
+	 * Checks if the ETag is in a list of ETags, eg. the value of If-None-Match. The comparison is weak, that is "W/" in front of
+	 * an ETag is ignored, which is what If-None-Match uses
+	 * @param eTags the ETags separated by ",", or "*" which matches any ETag
+	 * @param eTag the ETag including the quotes
+	 * @return true if the ETag is in the list
+	 */
+	public static boolean matchesAny(String eTags, String eTag){
+		String opaqueTag = stripWeak(eTag);
+		int start = 0;
+		while(start <= eTags.length()){
+			int end = eTags.indexOf(',', start);
+			if(end == -1){
+				end = eTags.length();
+			}
+			String candidate = eTags.substring(start, end).trim();
+			if(candidate.equals("*") || stripWeak(candidate).equals(opaqueTag)){
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes the "W/" that marks an ETag as weak
+	 */
+	private static String stripWeak(String eTag){
+		return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+	}
+	
+}
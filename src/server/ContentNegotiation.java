@@ -0,0 +1,81 @@
+package server;
+
+/**
+ * Decides which encoding a response is sent with from the Accept-Encoding header of the request. Only gzip is supported, it is
+ * the encoding every client understands and the only one the JDK can write
+ * @author Mattis
+ *
+ */
+public final class ContentNegotiation {
+	/**
+	 * The header that tells caches that the response depends on Accept-Encoding, sent with every response for a resource that
+	 * can be compressed, compressed or not
+	 */
+	public static final String varyHeader = "Vary: Accept-Encoding\r\n";
+	
+	/**
+	 * The headers of a gzip compressed response
+	 */
+	public static final String gzipHeaders = "Content-Encoding: gzip\r\n" + varyHeader;
+	
+	private ContentNegotiation(){
+	}
+	
+	
+	/**
+	 * Checks if the client accepts gzip compressed responses, that is if Accept-Encoding has gzip(or x-gzip or *) with a quality
+	 * that is not 0, eg. "gzip, deflate" or "br;q=1.0, gzip;q=0.8"
+	 * @param request the request
+	 * @return true if the response may be compressed with gzip
+	 */
+	public static boolean acceptsGzip(Request request){
+		String acceptEncoding = request.getRequestHeader(HeaderName.ACCEPT_ENCODING);
+		if(acceptEncoding == null){
+			return false;
+		}
+		
+		float gzipQuality = -1;
+		float anyQuality = -1;
+		int start = 0;
+		while(start <= acceptEncoding.length()){
+			int end = acceptEncoding.indexOf(',', start);
+			if(end == -1){
+				end = acceptEncoding.length();
+			}
+			String coding = acceptEncoding.substring(start, end);
+			start = end + 1;
+			
+			int parameters = coding.indexOf(';');
+			String name = (parameters == -1 ? coding : coding.substring(0, parameters)).trim();
+			if(name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")){
+				gzipQuality = quality(coding, parameters);
+			} else if(name.equals("*")){
+				anyQuality = quality(coding, parameters);
+			}
+		}
+		// gzip on its own decides, * is only used when gzip is not in the list
+		return gzipQuality != -1 ? gzipQuality > 0 : anyQuality > 0;
+	}
+	
+	/**
+	 * Gets the quality("q=") of a coding in Accept-Encoding
+	 * @param coding the coding with its parameters, eg. "gzip;q=0.5"
+	 * @param parameters the index of the first ";", -1 if the coding has no parameters
+	 * @return the quality, 1 if it is not given and 0 if it can not be parsed
+	 */
+	private static float quality(String coding, int parameters){
+		if(parameters == -1){
+			return 1;
+		}
+		String parameter = coding.substring(parameters + 1).trim();
+		if(!parameter.startsWith("q=") && !parameter.startsWith("Q=")){
+			return 1;
+		}
+		try {
+			return Float.parseFloat(parameter.substring(2).trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+}
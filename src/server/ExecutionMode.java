@@ -0,0 +1,11 @@
+package server;
+
+/**
+ * Represents the different ways the accepted connections can be executed
+ * @author Mattis
+ *
+ */
+public enum ExecutionMode {
+	// POOLED = a bounded pool of platform threads, VIRTUAL = one virtual thread per connection(needs Java 21 or later)
+	POOLED, VIRTUAL;
+}
@@ -0,0 +1,41 @@
+package server;
+
+import java.io.IOException;
+import java.util.Scanner;
+
+/**
+ * Used to read for input from the console and if it reads a 0 then it will shut down the server
+ * @author Mattis
+ *
+ */
+public class ExitServer implements Runnable{
+	// The server to shut down
+	private final WebServer server;
+	
+	/**
+	 * Creates an instance of the ExitServer class
+	 * @param server the server to shut down when a 0 is entered
+	 */
+	public ExitServer(WebServer server){
+		this.server = server;
+	}
+	
+	@Override
+	public void run() {
+		final Scanner s = new Scanner(System.in);
+		
+		while(!Thread.currentThread().isInterrupted()){
+			// listen for input
+			if(s.nextInt() == 0){
+				try {
+					server.shutdownServer();
+				} catch (IOException e) {
+					e.printStackTrace();
+					server.forcedShutdown();
+				}
+				return;
+			}
+		}
+	}
+	
+}
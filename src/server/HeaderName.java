@@ -0,0 +1,130 @@
+package server;
+
+/**
+ * Enum of the request headers the server looks at, so that they can be looked up by their id instead of by comparing names. The
+ * name of every header in a request is matched against these once when the request is parsed
+ * @author Mattis
+ *
+ */
+public enum HeaderName {
+	HOST("Host", false), CONNECTION("Connection", true), ACCEPT("Accept", true), ACCEPT_ENCODING("Accept-Encoding", true),
+	RANGE("Range", false), IF_RANGE("If-Range", false), IF_NONE_MATCH("If-None-Match", true),
+	IF_MODIFIED_SINCE("If-Modified-Since", false), CONTENT_LENGTH("Content-Length", false),
+	TRANSFER_ENCODING("Transfer-Encoding", true), USER_AGENT("User-Agent", false), X_FORWARDED_FOR("X-Forwarded-For", true);
+
+	// The headers by the length of their name, so that a name only has to be compared with the headers that are as long
+	private static final HeaderName[][] byLength = createLengthTable();
+
+	// the name as it is written in a request, case does not matter
+	private final String name;
+
+	// true if the value is a comma separated list, which means that the same header may be sent more than once and the values
+	// are joined with ", "(RFC 7230 3.2.2)
+	private final boolean list;
+
+	private HeaderName(String name, boolean list){
+		this.name = name;
+		this.list = list;
+	}
+
+	/**
+	 * Finds the header with a name that is a part of a request
+	 * @param bytes the request
+	 * @param start the index of the first byte of the name
+	 * @param end the index after the last byte of the name
+	 * @return the header, null if it is not one the server looks at
+	 */
+	public static HeaderName find(byte[] bytes, int start, int end){
+		int length = end - start;
+		if(length >= byLength.length){
+			return null;
+		}
+		for(HeaderName header : byLength[length]){
+			if(header.nameEquals(bytes, start)){
+				return header;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the header with a name
+	 * @param name the name, case does not matter
+	 * @return the header, null if it is not one the server looks at
+	 */
+	public static HeaderName find(String name){
+		int length = name.length();
+		if(length >= byLength.length){
+			return null;
+		}
+		for(HeaderName header : byLength[length]){
+			if(header.name.equalsIgnoreCase(name)){
+				return header;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if the name of this header starts at an index of a request, case is ignored
+	 */
+	private boolean nameEquals(byte[] bytes, int start){
+		for(int i = 0; i < name.length(); i++){
+			byte b = bytes[start + i];
+			if(b >= 'A' && b <= 'Z'){
+				b += 'a' - 'A';
+			}
+			char c = name.charAt(i);
+			if(c >= 'A' && c <= 'Z'){
+				c += 'a' - 'A';
+			}
+			if(b != c){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts the headers by the length of their names
+	 */
+	private static HeaderName[][] createLengthTable(){
+		int longest = 0;
+		for(HeaderName header : values()){
+			longest = Math.max(longest, header.name.length());
+		}
+		HeaderName[][] table = new HeaderName[longest + 1][];
+		for(int length = 0; length <= longest; length++){
+			int count = 0;
+			for(HeaderName header : values()){
+				if(header.name.length() == length){
+					count++;
+				}
+			}
+			table[length] = new HeaderName[count];
+			count = 0;
+			for(HeaderName header : values()){
+				if(header.name.length() == length){
+					table[length][count++] = header;
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the name of the header, eg. "Accept-Encoding"
+	 * @return the name
+	 */
+	public String getName(){
+		return this.name;
+	}
+
+	/**
+	 * Checks if the value of the header is a comma separated list, so that headers with the same name are joined
+	 * @return true if the value is a list
+	 */
+	public boolean isList(){
+		return this.list;
+	}
+}
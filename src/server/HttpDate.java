@@ -0,0 +1,95 @@
+package server;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats dates the way HTTP wants them, eg. "Wed, 12 Feb 2014 21:21:15 GMT". The current date is only formatted once a second
+ * and then shared by every response sent during that second
+ * @author Mattis
+ *
+ */
+public final class HttpDate {
+	// The number of bytes in a formatted date
+	public static final int length = 29;
+
+	private static final Charset headerCharset = Charset.forName("ISO-8859-1");
+
+	// The formats a date may be sent in, the first is the one HTTP/1.1 uses and the other two are older ones that clients may
+	// still send(RFC 850 and the format of asctime())
+	private static final String[] formats = {"EEE, dd MMM yyyy HH:mm:ss zzz", "EEEE, dd-MMM-yy HH:mm:ss zzz", "EEE MMM d HH:mm:ss yyyy"};
+
+	// The date for the current second, replaced by the first response that notices that the second has passed
+	private static volatile FormattedDate current = new FormattedDate(System.currentTimeMillis() / 1000);
+
+	private HttpDate(){
+	}
+
+	/**
+	 * Gets the current date as bytes, the same array is returned for every call during the same second so callers can tell if
+	 * the date has changed by comparing the arrays
+	 * @return the current date as bytes, must not be changed
+	 */
+	public static byte[] now(){
+		long second = System.currentTimeMillis() / 1000;
+		FormattedDate date = current;
+		if(date.second != second){
+			date = new FormattedDate(second);
+			current = date;
+		}
+		return date.bytes;
+	}
+
+	/**
+	 * Formats a date
+	 * @param millis the date in milliseconds since 1970
+	 * @return the date as a String, eg. "Wed, 12 Feb 2014 21:21:15 GMT"
+	 */
+	public static String format(long millis){
+		// SimpleDateFormat may not be shared between threads
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(millis));
+	}
+
+	/**
+	 * Parses a date sent by a client, eg. the value of an If-Modified-Since header
+	 * @param date the date in any of the three formats HTTP allows
+	 * @return the date in milliseconds since 1970, -1 if it is not a valid date
+	 */
+	public static long parse(String date){
+		for(String pattern : formats){
+			SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			format.setLenient(false);
+			try {
+				return format.parse(date.trim()).getTime();
+			} catch (ParseException e) {
+				// try the next format
+			}
+		}
+		return -1;
+	}
+
+
+
+	/**
+	 * A date that has been formatted for a certain second
+	 * @author Mattis
+	 *
+	 */
+	private static class FormattedDate{
+		private final long second;
+		private final byte[] bytes;
+
+		private FormattedDate(long second){
+			this.second = second;
+			this.bytes = format(second * 1000).getBytes(headerCharset);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The stage that counts the responses in the metrics: the response code, the bytes that was sent and the time it took to copy
+ * the file of the body. It should be the last stage so that it counts the response as it is sent
+ * @author Mattis
+ *
+ */
+public class MetricsFilter extends ResponseFilter {
+	// The metrics the responses are counted in
+	private final ServerMetrics metrics;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the MetricsFilter class
+	 * @param metrics the metrics the responses are counted in
+	 */
+	public MetricsFilter(ServerMetrics metrics) {
+		super();
+		this.metrics = metrics;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	@Override
+	public void filter(Request request, Response response) {
+		metrics.responseSent(response.getResponseCode());
+		if(response.hasBodyToSend() && response.getBody().isFromFile()){
+			response.setBody(new TimedBody(response.getBody()));
+		}
+	}
+
+	@Override
+	public void sent(Request request, Response response, long bytesWritten) {
+		metrics.bytesSent(bytesWritten);
+	}
+
+
+
+	/**
+	 * A body that counts the time it takes to write it as file time
+	 * @author Mattis
+	 *
+	 */
+	private class TimedBody extends ResponseBody{
+		// the body that is timed
+		private final ResponseBody body;
+
+		private TimedBody(ResponseBody body){
+			this.body = body;
+		}
+
+		@Override
+		public long writeTo(OutputStream out) throws IOException {
+			long start = System.nanoTime();
+			long written = body.writeTo(out);
+			metrics.fileCopied(System.nanoTime() - start);
+			return written;
+		}
+
+		@Override
+		public long getLength() {
+			return body.getLength();
+		}
+
+		@Override
+		public boolean isFromFile() {
+			return true;
+		}
+	}
+
+}
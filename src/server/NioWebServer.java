@@ -0,0 +1,611 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import fileManagement.BufferPool;
+import fileManagement.FileManager;
+import fileManagement.PooledOutputStream;
+
+/**
+ * An HTTP-server that serves the same requests as TCPWebServer but uses non-blocking channels instead of one thread per connection.
+ * One thread accepts the connections and hands them out to a number of event loops(one per core by default), every event loop
+ * uses a Selector to read the requests and write the responses for all of its connections. The requests are parsed and answered
+ * by the same Request and RequestProcessor classes as the blocking engine uses
+ * @author Mattis
+ *
+ */
+public class NioWebServer implements WebServer {
+	/************************* variabels **********************/
+
+	// The channel the server accepts connections from
+	private final ServerSocketChannel serverChannel;
+
+	// The selector that tells the accepting thread when there are connections to accept
+	private final Selector acceptSelector;
+
+	// The settings the server was started with, eg. the number of event loops
+	private final ServerConfiguration configuration;
+
+	// The event loops that handles the accepted connections, created when the server is started
+	private EventLoop[] eventLoops;
+
+	// when set to true the server will quit
+	private volatile boolean exit = false;
+
+	// Counts the connections, requests and responses
+	private final ServerMetrics metrics = new ServerMetrics();
+
+	// Generates the responses
+	private final RequestProcessor processor;
+
+	// Records every response, null if the server has no access log
+	private final AccessLog accessLog;
+
+	// Limits the connections and the request rate of every client, null if they are not limited
+	private final ClientLimiter clientLimiter;
+
+	// Connections that has not sent or recieved anything for this many milliseconds are closed, same as the read limit of the
+	// blocking engine
+	private int idleTimeout = 10000;
+
+	// A connection answers no more of the pipelined requests it has read once its responses waiting to be written has this many
+	// bytes(files included) or this many open files, the rest are answered when those has been written
+	private static final long maxQueuedBytes = 256 << 10;
+	private static final int maxQueuedFiles = 16;
+
+
+	/*************** Constructors *****************/
+	/**
+	 * Creates an instance of the NioWebServer class
+	 * @param configuration the settings to use, eg. port number and the number of event loops
+	 * @throws IOException if the server channel could not be opened for the portnumber in the configuration, eg. if it is already in use
+	 */
+	public NioWebServer(ServerConfiguration configuration) throws IOException{
+		this.configuration = configuration;
+		FileManager.getInstance().setMappedFileThreshold(configuration.getMappedFileThreshold());
+		FileManager.getInstance().startIndex(configuration.getIndexPollInterval());
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress(configuration.getPortNumber()));
+		serverChannel.configureBlocking(false);
+		acceptSelector = Selector.open();
+		serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+		this.accessLog = AccessLog.startFromConfiguration(configuration);
+		this.clientLimiter = ClientLimiter.fromConfiguration(configuration);
+		AdmissionController admissionController = AdmissionController.fromConfiguration(configuration);
+		this.processor = new RequestProcessor(this, metrics, configuration.isMetricsEndpointEnabled(), accessLog, clientLimiter,
+				admissionController);
+		metrics.setAccessLog(accessLog);
+		metrics.setClientLimiter(clientLimiter);
+		metrics.setAdmissionController(admissionController);
+	}
+
+
+	/************************** methods **************************/
+
+	/**
+	 * starts the server and accepts connections until an exit-request has been made, in the same ways as for TCPWebServer.
+	 * The accepted connections are handed to the event loops one at a time, when an exit-request has been made the event loops
+	 * are allowed to finish their connections before this method returns
+	 * @throws IOException if the connections could not be accepted
+	 */
+	public void startServer() throws IOException{
+		Thread exitThread = new Thread(new ExitServer(this));
+		exitThread.start();
+		metrics.register(configuration.getPortNumber());
+		startEventLoops();
+
+		int nextEventLoop = 0;
+		while(!exit){
+			acceptSelector.select();
+			acceptSelector.selectedKeys().clear();
+			try {
+				SocketChannel channel;
+				while((channel = serverChannel.accept()) != null){
+					metrics.connectionAccepted();
+					ClientLimiter.Client counted = null;
+					if(clientLimiter != null){
+						counted = clientLimiter.connectionOpened(channel.socket().getInetAddress());
+						if(counted == null){
+							rejectConnection(channel);
+							continue;
+						}
+					}
+					channel.configureBlocking(false);
+					nextEventLoop = handToEventLoop(new Connection(channel, counted), nextEventLoop);
+				}
+			} catch (IOException e) {
+				if(exit){
+					break; // the server channel was closed by an exit-request
+				}
+				throw e;
+			}
+		}
+		exitThread.interrupt();
+		this.drainEventLoops();
+		acceptSelector.close();
+		metrics.unregister();
+		FileManager.getInstance().stopIndex();
+		if(accessLog != null){
+			accessLog.stop(); // the event loops are drained, so every response has been recorded
+		}
+		BufferPool.getInstance().reportLeaks(System.err); // only lists anything when the pool is in debug mode
+	}
+
+	/**
+	 * Hands an accepted connection to the next event loop that is still running. An event loop that has stopped because of an
+	 * error it could not handle is skipped, if every event loop has stopped the connection is closed and the server is shut down
+	 * since it can not serve anything
+	 * @param connection the connection
+	 * @param nextEventLoop the index of the event loop whose turn it is
+	 * @return the index of the event loop whose turn it is next
+	 * @throws IOException if the server could not be shut down
+	 */
+	private int handToEventLoop(Connection connection, int nextEventLoop) throws IOException{
+		for(int i = 0; i < eventLoops.length; i++){
+			EventLoop eventLoop = eventLoops[nextEventLoop];
+			nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+			if(eventLoop.register(connection)){
+				return nextEventLoop;
+			}
+		}
+		closeUnregistered(connection);
+		System.err.println("Every event loop has stopped, the server is shut down");
+		shutdownServer();
+		return nextEventLoop;
+	}
+
+	/**
+	 * Answers a connection from a client that already has as many connections open as it may with a 503 and closes it. The
+	 * channel is still blocking, but the response is small enough to always fit in the empty send buffer
+	 * @param channel the connection to reject
+	 */
+	private void rejectConnection(SocketChannel channel){
+		metrics.responseSent(ResponseCode.SERVICE_UNAVAILABLE);
+		try {
+			metrics.bytesSent(channel.write(ByteBuffer.wrap(TCPWebServer.serviceUnavailableResponse)));
+		} catch (IOException e) {
+			// the client is gone, nothing to tell
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// already closed
+			}
+			metrics.connectionClosed();
+		}
+	}
+
+	/**
+	 * Closes a connection that was never registered with an event loop
+	 * @param connection the connection
+	 */
+	private void closeUnregistered(Connection connection){
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			// already closed
+		}
+		releaseClient(connection);
+		metrics.connectionClosed();
+	}
+
+	/**
+	 * Tells the client limiter that a connection is closed
+	 * @param connection the connection
+	 */
+	private void releaseClient(Connection connection){
+		if(clientLimiter != null){
+			clientLimiter.connectionClosed(connection.counted);
+		}
+	}
+
+	/**
+	 * Creates and starts the event loops, the number is taken from the configuration
+	 * @throws IOException if a selector could not be opened
+	 */
+	private void startEventLoops() throws IOException{
+		eventLoops = new EventLoop[configuration.getEventLoops()];
+		for(int i = 0; i < eventLoops.length; i++){
+			eventLoops[i] = new EventLoop();
+			Thread thread = new Thread(eventLoops[i], "PytteWebb-eventloop-" + (i + 1));
+			thread.setDaemon(true);
+			eventLoops[i].thread = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Lets the event loops finish the connections they are handling, connections that are not finished when the drain timeout in
+	 * the configuration has passed are closed
+	 */
+	private void drainEventLoops(){
+		long deadline = System.currentTimeMillis() + configuration.getDrainTimeout();
+		for(EventLoop eventLoop : eventLoops){
+			eventLoop.drain(deadline);
+		}
+		for(EventLoop eventLoop : eventLoops){
+			try {
+				eventLoop.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * shutsdown server, makes the server stop accepting new connections and the connections that are being handled are drained
+	 * by startServer. Used by both the QUIT command and the console
+	 * @throws IOException
+	 */
+	public void shutdownServer() throws IOException{
+		exit = true;
+		serverChannel.close();
+		acceptSelector.wakeup();
+	}
+
+	/**
+	 * Gets the metrics of the server
+	 * @return the metrics
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * shutsdown the entire program even if the channel could not be closed
+	 */
+	public void forcedShutdown(){
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			System.exit(0);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * The state of a single connection that an event loop is handling
+	 * @author Mattis
+	 *
+	 */
+	private static class Connection{
+		// the channel of the connection
+		private final SocketChannel channel;
+
+		// the client the connection was counted on by the client limiter, null if there is no limiter
+		private final ClientLimiter.Client counted;
+
+		// the request is read in to this buffer, taken from the BufferPool when something is about to be read and given back
+		// when everything that was read has been answered, so that connections waiting for their next request holds no buffer
+		private ByteBuffer input;
+
+		// finds the end of the request as it arrives
+		private final RequestReader scanner = new RequestReader();
+
+		// the number of bytes of the input that has already been scanned for the end of the request
+		private int scanned = 0;
+
+		// the response that is being written, null while the request is being read
+		private PooledOutputStream output;
+
+		// true if the connection is closed when the response has been written
+		private boolean closeAfterWrite = false;
+
+		// the number of requests that has been answered on this connection
+		private int handledRequests = 0;
+
+		// the last time something was read or written
+		private long lastActivity = System.currentTimeMillis();
+
+		// the address of the client, for the access log
+		private final InetAddress client;
+
+		private Connection(SocketChannel channel, ClientLimiter.Client counted){
+			this.channel = channel;
+			this.counted = counted;
+			this.client = channel.socket().getInetAddress();
+		}
+
+		/**
+		 * Checks if the connection is waiting for the client to send its next request
+		 * @return true if a request has been answered and nothing of the next request has been read
+		 */
+		private boolean isIdle(){
+			return handledRequests > 0 && output == null && (input == null || input.position() == 0);
+		}
+
+		/**
+		 * Gives the buffers of the connection back to the pool, used when the connection is closed
+		 */
+		private void release(){
+			BufferPool.getInstance().release(input);
+			input = null;
+			if(output != null){
+				output.release();
+				output = null;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Reads requests and writes responses for the connections that has been handed to it, runs on its own thread
+	 * @author Mattis
+	 *
+	 */
+	private class EventLoop implements Runnable{
+		// tells the event loop which connections are ready to be read from or written to
+		private final Selector selector;
+
+		// connections that has been accepted but not yet registered with the selector, the selector may only be registered
+		// with from the event loops own thread without blocking
+		private final ConcurrentLinkedQueue<Connection> newConnections = new ConcurrentLinkedQueue<Connection>();
+
+		// the time when the connections must be finished, 0 as long as the server is running
+		private volatile long drainDeadline = 0;
+
+		// the thread the event loop runs on
+		private Thread thread;
+
+		// true once the event loop has stopped, new connections are not handed to it after that
+		private volatile boolean stopped = false;
+
+		public EventLoop() throws IOException{
+			selector = Selector.open();
+		}
+
+		/**
+		 * Hands a newly accepted connection to this event loop
+		 * @param connection the connection
+		 * @return true if the event loop took the connection, false if it has stopped
+		 */
+		public boolean register(Connection connection){
+			if(stopped){
+				return false;
+			}
+			newConnections.add(connection);
+			// the event loop may have stopped after the check and closed what was queued before this was added
+			if(stopped && newConnections.remove(connection)){
+				return false;
+			}
+			selector.wakeup();
+			return true;
+		}
+
+		/**
+		 * Tells the event loop to finish its connections and then stop
+		 * @param deadline the time when the connections that are not finished are closed
+		 */
+		public void drain(long deadline){
+			drainDeadline = deadline;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(true){
+					selector.select(1000); // wakes up at least once a second to close idle connections
+					registerNewConnections();
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext()){
+						SelectionKey key = keys.next();
+						keys.remove();
+						handleKey(key);
+					}
+
+					long now = System.currentTimeMillis();
+					closeIdleConnections(now);
+					if(drainDeadline != 0 && (selector.keys().isEmpty() || now >= drainDeadline)){
+						break;
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				stopped = true;
+				closeAllConnections();
+			}
+		}
+
+		/**
+		 * Registers the connections that has been handed to this event loop since the last time
+		 * @throws IOException if a connection could not be registered
+		 */
+		private void registerNewConnections() throws IOException{
+			Connection connection;
+			while((connection = newConnections.poll()) != null){
+				connection.channel.register(selector, SelectionKey.OP_READ, connection);
+			}
+		}
+
+		/**
+		 * Reads from or writes to the connection depending on what it is ready for, closes it if anything goes wrong. A bug that
+		 * is hit while handling one connection only closes that connection, the rest of the event loop keeps going
+		 * @param key the selection key of the connection
+		 */
+		private void handleKey(SelectionKey key){
+			try {
+				if(key.isReadable()){
+					readRequest(key);
+				} else if(key.isWritable()){
+					writeResponse(key);
+				}
+			} catch (IOException e) {
+				// the client has most likely disconnected
+				closeConnection(key);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				closeConnection(key);
+			}
+		}
+
+		/**
+		 * Reads what the client has sent, when a whole request has been read the response is generated and written
+		 * @param key the selection key of the connection
+		 * @throws IOException if the connection could not be read from
+		 */
+		private void readRequest(SelectionKey key) throws IOException{
+			Connection connection = (Connection) key.attachment();
+			SocketChannel channel = (SocketChannel) key.channel();
+
+			if(connection.input == null){
+				connection.input = BufferPool.getInstance().acquire(RequestReader.defaultMaxRequestSize);
+				connection.input.limit(RequestReader.defaultMaxRequestSize);
+			}
+			if(channel.read(connection.input) == -1){
+				closeConnection(key);
+				return;
+			}
+			connection.lastActivity = System.currentTimeMillis();
+			answerBufferedRequests(key);
+		}
+
+		/**
+		 * Answers the whole requests that has been read. When the client pipelines its requests several of them may have been
+		 * read at once, their responses are collected and written together in order until as much is queued as a connection may
+		 * have, the requests after that are answered once it has been written
+		 * @param key the selection key of the connection
+		 * @throws IOException if the connection could not be written to
+		 */
+		private void answerBufferedRequests(SelectionKey key) throws IOException{
+			Connection connection = (Connection) key.attachment();
+			ByteBuffer input = connection.input;
+			PooledOutputStream response = null;
+
+			while(!connection.closeAfterWrite &&
+					(response == null || (response.size() < maxQueuedBytes && response.getOpenFiles() < maxQueuedFiles))){
+				int endOfRequest = connection.scanner.scan(input, connection.scanned, input.position());
+				connection.scanned = (endOfRequest == -1) ? input.position() : endOfRequest;
+				if(endOfRequest == -1 && input.hasRemaining()){
+					break; // wait for the rest of the request
+				}
+				if(endOfRequest == -1){
+					endOfRequest = input.position(); // too large, will not be a valid request
+				}
+
+				long parseStart = System.nanoTime();
+				Request request = new Request(input, 0, endOfRequest);
+				metrics.requestParsed(System.nanoTime() - parseStart);
+				// keep whatever comes after the request, it is the start of the next one
+				input.flip();
+				input.position(endOfRequest);
+				input.compact();
+				input.limit(RequestReader.defaultMaxRequestSize);
+				connection.scanned = 0;
+				connection.scanner.reset();
+				connection.handledRequests++;
+				request.setClientAddress(connection.client);
+
+				if(response == null){
+					response = new PooledOutputStream();
+				}
+				boolean keepAlive = configuration.isKeepAliveEnabled() && request.isValidRequest() && request.wantsKeepAlive() &&
+						connection.handledRequests < configuration.getMaxKeepAliveRequests() && drainDeadline == 0;
+				connection.closeAfterWrite = !processor.processAndSendRequest(response, request, keepAlive);
+			}
+
+			if(input.position() == 0){
+				BufferPool.getInstance().release(input); // nothing of the next request has arrived
+				connection.input = null;
+			}
+			if(response != null){
+				connection.output = response;
+				key.interestOps(SelectionKey.OP_WRITE);
+				writeResponse(key);
+			}
+		}
+
+		/**
+		 * Writes as much of the response as the connection can take. When the whole response has been written the connection is
+		 * either closed or goes back to reading the next request
+		 * @param key the selection key of the connection
+		 * @throws IOException if the connection could not be written to
+		 */
+		private void writeResponse(SelectionKey key) throws IOException{
+			Connection connection = (Connection) key.attachment();
+			SocketChannel channel = (SocketChannel) key.channel();
+
+			if(connection.output.writeTo(channel) > 0){
+				connection.lastActivity = System.currentTimeMillis();
+			}
+			if(connection.output.isWritten()){
+				connection.output.release();
+				connection.output = null;
+				if(connection.closeAfterWrite){
+					closeConnection(key); // Connection: close
+				} else{
+					key.interestOps(SelectionKey.OP_READ);
+					if(connection.input != null){
+						answerBufferedRequests(key); // the requests that were left when too much was queued
+					}
+				}
+			}
+		}
+
+		/**
+		 * Closes the connections that has not sent or recieved anything for too long, a connection that is waiting for its next
+		 * request gets the keep-alive timeout. When the event loop is draining the waiting connections are closed right away
+		 * @param now the current time
+		 */
+		private void closeIdleConnections(long now){
+			for(SelectionKey key : selector.keys()){
+				Connection connection = (Connection) key.attachment();
+				boolean idle = connection.isIdle();
+				int timeout = idle ? configuration.getKeepAliveTimeout() : idleTimeout;
+				if(now - connection.lastActivity >= timeout || (idle && drainDeadline != 0)){
+					closeConnection(key);
+				}
+			}
+		}
+
+		/**
+		 * Closes every connection and the selector, used when the event loop stops
+		 */
+		private void closeAllConnections(){
+			for(SelectionKey key : selector.keys()){
+				closeConnection(key);
+			}
+			Connection connection;
+			while((connection = newConnections.poll()) != null){
+				closeUnregistered(connection);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// nothing more to do
+			}
+		}
+
+		/**
+		 * Closes a single connection
+		 * @param key the selection key of the connection
+		 */
+		private void closeConnection(SelectionKey key){
+			key.cancel();
+			((Connection) key.attachment()).release();
+			if(key.channel().isOpen()){
+				releaseClient((Connection) key.attachment());
+				metrics.connectionClosed(); // a cancelled key stays in the selector until the next select
+			}
+			try {
+				key.channel().close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+}
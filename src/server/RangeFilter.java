@@ -0,0 +1,96 @@
+package server;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import fileManagement.CompressedVariantCache;
+
+/**
+ * The stage that answers a GET request with a Range header with the parts of the file that was asked for. One range is sent as
+ * a 206 with a Content-Range header, more than one as a 206 multipart/byteranges where every part has its own Content-Range, and
+ * if none of them can be satisfied a 416 is sent. A header that can not be parsed, or an If-Range that does not match the
+ * current version of the file, is ignored and the whole file is sent. Only the bytes of the ranges are read from the file
+ * @author Mattis
+ *
+ */
+public class RangeFilter extends ResponseFilter {
+	// The headers of the parts of a multipart response are sent as ASCII text
+	private static final Charset textCharset = Charset.forName("ISO-8859-1");
+
+	// The boundary between the parts of a response with more than one range, random so that it is not found in the files
+	private static final String multipartBoundary = "PytteWebb-" + Long.toHexString(new Random().nextLong());
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the RangeFilter class
+	 */
+	public RangeFilter() {
+		super();
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	@Override
+	public void filter(Request request, Response response) {
+		if(response.getResponseCode() != ResponseCode.OK || response.getFile() == null || response.isHeadersOnly() ||
+				response.getVariant() != null){
+			return;
+		}
+		String range = request.getRequestHeader(HeaderName.RANGE);
+		if(range == null || !ConditionalGet.isRangeCurrent(request, response.getHeaders())){
+			return;
+		}
+		List<ByteRange> ranges = ByteRange.parse(range, response.getHeaders().getContentLength());
+		if(ranges != null){ // a header that can not be parsed is ignored and the whole file is sent
+			sendRanges(response, ranges);
+		}
+	}
+
+	/**
+	 * Makes the response send the ranges instead of the whole file
+	 * @param response the response for the whole file
+	 * @param ranges the ranges to send, sorted and merged by ByteRange.parse
+	 */
+	private static void sendRanges(Response response, List<ByteRange> ranges){
+		ResponseHeaderTemplate template = response.getHeaders();
+		long size = template.getContentLength();
+		String resource = response.getResource();
+		String vary = CompressedVariantCache.isCompressible(template.getContentType()) ? ContentNegotiation.varyHeader : "";
+
+		if(ranges.isEmpty()){
+			response.setHeaders(new ResponseHeaderTemplate(ResponseCode.RANGE_NOT_SATISFIABLE, 0, template.getLastModified(), null,
+					null, "Content-Range: bytes */" + size + "\r\n"));
+			response.setBody(null);
+			return;
+		}
+
+		if(ranges.size() == 1){
+			ByteRange range = ranges.get(0);
+			response.setHeaders(new ResponseHeaderTemplate(ResponseCode.PARTIAL_CONTENT, range.getLength(),
+					template.getLastModified(), template.getContentType(), template.getETag(),
+					vary + "Content-Range: " + range.getContentRange(size) + "\r\n"));
+			response.setBody(ResponseBody.ofFileRange(resource, range));
+			return;
+		}
+
+		// the headers of every part are made first so that the length of the whole body is known
+		String contentType = template.getContentType() != null ? template.getContentType() : "application/octet-stream";
+		List<ResponseBody> parts = new ArrayList<ResponseBody>(ranges.size() * 2 + 1);
+		for(ByteRange range : ranges){
+			parts.add(ResponseBody.ofBytes(("\r\n--" + multipartBoundary + "\r\nContent-Type: " + contentType +
+					"\r\nContent-Range: " + range.getContentRange(size) + "\r\n\r\n").getBytes(textCharset)));
+			parts.add(ResponseBody.ofFileRange(resource, range));
+		}
+		parts.add(ResponseBody.ofBytes(("\r\n--" + multipartBoundary + "--\r\n").getBytes(textCharset)));
+		ResponseBody body = ResponseBody.ofParts(parts);
+
+		response.setHeaders(new ResponseHeaderTemplate(ResponseCode.PARTIAL_CONTENT, body.getLength(), template.getLastModified(),
+				"multipart/byteranges; boundary=" + multipartBoundary, template.getETag(), vary));
+		response.setBody(body);
+	}
+
+}
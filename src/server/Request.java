@@ -1,6 +1,10 @@
 package server;
 
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class represents the request from the client and should be able to contain the information that the client wants to send, 
@@ -9,13 +13,34 @@ import java.util.ArrayList;
  *
  */
 public class Request {
+	// The requests are read as bytes and every byte is one character
+	private static final Charset requestCharset = Charset.forName("ISO-8859-1");
+	
+	// The number of headers there is room for in the header table before it has to grow
+	private static final int initialHeaderCapacity = 16;
+	
+	// The number of ints every header takes in the header table: the start and end of the name and the value, and the ordinal
+	// of its HeaderName(-1 if it is not one of them)
+	private static final int headerFields = 5;
+	
+	/**
+	 * The largest number of headers a request may have, a request with more is not valid
+	 */
+	public static final int maxHeaderCount = 64;
+	
+	/**
+	 * The largest number of bytes a single header line may have, a request with a longer header is not valid
+	 */
+	public static final int maxHeaderSize = 4096;
+	
 	// The command used for this request, eg. GET, HEAD etc.
 	private RequestCommands requestCommand;
 	
 	// The path to the resource that has been requested
 	private String resource;
 	
-	// The request headers for this request, eg. host, connection-type etc.
+	// The request headers for this request, eg. host, connection-type etc. Created from the header table the first time they
+	// are asked for
 	private ArrayList<String> requestHeaders;
 	
 	// Holds the information about whether or not the request is in a valid format
@@ -24,105 +49,180 @@ public class Request {
 	// Holds the information about whether or not the request was made with a HTTP-version after 0.9(that is either 1.0 or 1.1)
 	private boolean lateVersionHTTP = false;
 	
-	// Saves the original request string and makes it accessible if someone needs to work with it directly for some reason
+	// Holds the information about whether or not the request was made with HTTP/1.1
+	private boolean versionHTTP11 = false;
+	
+	// The bytes of the request as they were recieved, every part of the request is an offset in to these
+	private final byte[] requestBytes;
+	
+	// The start and end of the method, the path and the version, -1 if the request does not have that part
+	private int methodStart = -1, methodEnd = -1;
+	private int pathStart = -1, pathEnd = -1;
+	private int versionStart = -1, versionEnd = -1;
+	
+	// The start and end of the name and the value of every header and the id of its name, headerFields ints per header. The
+	// values are trimmed
+	private int[] headerTable;
+	private int headerCount = 0;
+	
+	// One bit for every HeaderName(by its ordinal) the request has, so that a header it does not have is found at once
+	private long knownHeaders = 0;
+	
+	// The values of the headers as Strings by their index in the header table, decoded the first time they are asked for. null
+	// until a value is decoded
+	private String[] headerValues;
+	
+	// Saves the original request string and makes it accessible if someone needs to work with it directly for some reason,
+	// created from the bytes the first time it is asked for
 	private String originalRequestString;
 	
+	// The time the request was created in nanoseconds(System.nanoTime), the latency of the response is counted from this
+	private final long receivedAt = System.nanoTime();
+	
+	// The address of the client that sent the request, null if it is not known
+	private InetAddress clientAddress;
+	
+	// The time the response to the request was ready to be written in nanoseconds, 0 until then
+	private long respondedAt = 0;
+	
 	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates a request from a String
+	 * @param requestString the whole request including the ending "\r\n\r\n"
+	 */
 	public Request(String requestString) {
 		super();
-		requestHeaders = new ArrayList<String>();
-		parseRequestString(requestString);
+		this.requestBytes = requestString.getBytes(requestCharset);
+		this.originalRequestString = requestString;
+		parseRequest();
+	}
+	
+	/**
+	 * Creates a request from the bytes it was recieved as, without turning them in to a String first. The bytes are copied so
+	 * the buffer they were read in to can be reused for the next request
+	 * @param bytes the buffer the request was read in to
+	 * @param offset the index of the first byte of the request
+	 * @param length the number of bytes in the request including the ending "\r\n\r\n"
+	 */
+	public Request(byte[] bytes, int offset, int length) {
+		super();
+		this.requestBytes = new byte[length];
+		System.arraycopy(bytes, offset, requestBytes, 0, length);
+		parseRequest();
+	}
+	
+	/**
+	 * Creates a request from the bytes it was recieved as in a buffer, eg. a direct buffer that has no array. The bytes are copied
+	 * so the buffer can be reused for the next request
+	 * @param bytes the buffer the request was read in to, its position and limit are not changed
+	 * @param offset the index of the first byte of the request
+	 * @param length the number of bytes in the request including the ending "\r\n\r\n"
+	 */
+	public Request(ByteBuffer bytes, int offset, int length) {
+		super();
+		this.requestBytes = new byte[length];
+		ByteBuffer request = bytes.duplicate();
+		request.limit(offset + length);
+		request.position(offset);
+		request.get(requestBytes);
+		parseRequest();
 	}
 	
 	
 	///////////////////////// Methods /////////////////////////////////////
 	
 	/**
-	 * Used to parse the request string and enter the data in to the object of Request type
-	 * @param requestString
+	 * Used to parse the request bytes and enter the data in to the object of Request type. The first three whitespace separated
+	 * tokens are the method, the path and the version, just as when the request was split on whitespace
 	 */
-	private void parseRequestString(String requestString){
-		this.originalRequestString = requestString;
+	private void parseRequest(){
+		byte[] bytes = requestBytes;
+		int length = bytes.length;
 		
+		if(!endsWithEmptyLine(bytes)){ // if the request is not properly terminated say that it is not a valid request
+			validRequest = false;
+			return;
+		}
 		
-		String regexResourcePath = "((\\w+)([\\.-]*)/?)+"; // finds one or more characters followed by one or zero "/" one or more times
+		// A request that starts with whitespace has an empty first token, which is never a valid method
+		if(isWhitespace(bytes[0])){
+			validRequest = false;
+			return;
+		}
 		
-		String regexHTTPVersion = "(HTTP/1.)(1|0)";
+		methodStart = 0;
+		methodEnd = tokenEnd(bytes, methodStart);
+		pathStart = skipWhitespace(bytes, methodEnd);
+		if(pathStart < length){
+			pathEnd = tokenEnd(bytes, pathStart);
+			versionStart = skipWhitespace(bytes, pathEnd);
+			if(versionStart < length){
+				versionEnd = tokenEnd(bytes, versionStart);
+			} else{
+				versionStart = -1;
+			}
+		} else{
+			pathStart = -1;
+		}
 		
-		if(requestString.endsWith("\r\n\r\n")){ // Checks to see that the request string is properly terminated
-			String[] requestTokens = requestString.split("\\s+");
-			
-			
-			if(requestTokens.length >= 3){ // Uses a HTTP-version after 0.9
-				// Make sure the http version part and other stuff matches here before continuing
-				if(!requestTokens[2].matches(regexHTTPVersion)){
-					validRequest = false;
-				} else{ // If the HTTP/version of the request is in a correct format perform the rest of the request
-					lateVersionHTTP = true; // Store the information that this request is indeed made with an http-version after 0.9
-					
-					if(requestTokens[0].equals("GET")){
-						// Handle this GET request made with HTTP/1.0 or above
-						this.handleGETandHEAD1x1Requests(requestTokens, RequestCommands.GET10, regexHTTPVersion, regexResourcePath);
-					} else if(requestTokens[0].equals("HEAD")){
-						// Handle this HEAD request made with HTTP/1.0 or above
-						this.handleGETandHEAD1x1Requests(requestTokens, RequestCommands.HEAD10, regexHTTPVersion, regexResourcePath);
-					} else if(requestTokens[0].equals("QUIT")){
-						// Handle the quit command
-						this.requestCommand = RequestCommands.QUIT;
-						// nothing else to do for quit
-					} else{ // Does not handle other request than GET and HEAD and QUIT
-						validRequest = false;
-					}
-				}
+		if(versionStart != -1){ // Uses a HTTP-version after 0.9
+			// Make sure the http version part and other stuff matches here before continuing
+			if(!isValidVersion(bytes, versionStart, versionEnd)){
+				validRequest = false;
+			} else{ // If the HTTP/version of the request is in a correct format perform the rest of the request
+				lateVersionHTTP = true; // Store the information that this request is indeed made with an http-version after 0.9
+				versionHTTP11 = bytes[versionEnd - 1] == '1';
 				
-			} else if(requestTokens.length >= 2){ // Uses HTTP/0.9
-			
-				if(requestTokens[0].equals("GET")){
-					handleGET0x9Request(requestTokens, RequestCommands.GET09, regexResourcePath);
-				} else if(requestTokens[0].equals("QUIT")){
-					this.requestCommand = RequestCommands.QUIT;
-				} else{
-					validRequest = false;
-				}
-			} else if(requestTokens.length > 0){
-				if(requestTokens[0].equals("QUIT")){
+				if(tokenEquals("GET", bytes, methodStart, methodEnd)){
+					// Handle this GET request made with HTTP/1.0 or above
+					this.handleGETandHEAD1x1Requests(RequestCommands.GET10);
+				} else if(tokenEquals("HEAD", bytes, methodStart, methodEnd)){
+					// Handle this HEAD request made with HTTP/1.0 or above
+					this.handleGETandHEAD1x1Requests(RequestCommands.HEAD10);
+				} else if(tokenEquals("QUIT", bytes, methodStart, methodEnd)){
+					// Handle the quit command
 					this.requestCommand = RequestCommands.QUIT;
-				} else{
+					// nothing else to do for quit
+				} else{ // Does not handle other request than GET and HEAD and QUIT
 					validRequest = false;
 				}
+			}
+			
+		} else if(pathStart != -1){ // Uses HTTP/0.9
+			
+			if(tokenEquals("GET", bytes, methodStart, methodEnd)){
+				handleGET0x9Request(RequestCommands.GET09);
+			} else if(tokenEquals("QUIT", bytes, methodStart, methodEnd)){
+				this.requestCommand = RequestCommands.QUIT;
+			} else{
+				validRequest = false;
+			}
+		} else{
+			if(tokenEquals("QUIT", bytes, methodStart, methodEnd)){
+				this.requestCommand = RequestCommands.QUIT;
 			} else{
-				// System.out.println("length of request is incorrect");
 				validRequest = false;
 			}
-			
-		} else{ // if the request is not properly terminated say that it is not a valid request
-			validRequest = false;
 		}
 	}
 	
 	
 	
 	/**
-	 * Handles the GET and HEAD request for HTTP/1.0 and 1.1
-	 * @param requestTokens the splitted request string
-	 * @param typeOfRequest the type of request it is, that is if it is a GET or a HEAD
-	 * @param regexHTTPVersion the regex that checks to see that the HTTP-version part of the request is as it should
-	 * @param regexResourcePath the regex that checks to see that the resource path part of the request is as it should
+	 * Handles the GET request for HTTP/0.9
+	 * @param typeOfRequest the type of request it is
 	 */
-	private void handleGET0x9Request(String[] requestTokens, RequestCommands typeOfRequest, String regexResourcePath){
+	private void handleGET0x9Request(RequestCommands typeOfRequest){
 		this.requestCommand = typeOfRequest;
 		
-		if(requestTokens[1].equals("/")){
+		if(pathEnd - pathStart == 1 && requestBytes[pathStart] == '/'){
 			// Client has not specified a specific resource, get the index page
 			this.resource = TCPWebServer.indexFile;
 		}else{
-			// Get the resource
-			String requestToken = requestTokens[1].replaceFirst("/", "");
-			// Verify that what is left in the request token is what one would expect from a proper request
-			if(!requestToken.matches(regexResourcePath)){
+			// Get the resource, verify that it is what one would expect from a proper request
+			this.resource = parseResourcePath(requestBytes, pathStart, pathEnd);
+			if(this.resource == null){
 				validRequest = false;
-			}else{
-				this.resource = requestToken; // save path of the asked resource
 			}
 		}
 	}
@@ -131,42 +231,255 @@ public class Request {
 	
 	/**
 	 * Handles the GET and HEAD request for HTTP/1.0 and 1.1
-	 * @param requestTokens the splitted request string
 	 * @param typeOfRequest the type of request it is, that is if it is a GET or a HEAD
-	 * @param regexHTTPVersion the regex that checks to see that the HTTP-version part of the request is as it should
-	 * @param regexResourcePath the regex that checks to see that the resource path part of the request is as it should
 	 */
-	private void handleGETandHEAD1x1Requests(String[] requestTokens, RequestCommands typeOfRequest, String regexHTTPVersion,
-			String regexResourcePath){
+	private void handleGETandHEAD1x1Requests(RequestCommands typeOfRequest){
 		this.requestCommand = typeOfRequest;
 		
-		if(requestTokens[1].equals("/")){
+		if(pathEnd - pathStart == 1 && requestBytes[pathStart] == '/'){
 			// Client has not specified a specific resource, get the index page
 			this.resource = "index.html";
 		}else{
-			// Get the resource
-			String requestToken = requestTokens[1].replaceFirst("/", "");
-			// Verify that what is left in the request token is what one would expect from a proper request
-			if(!requestToken.matches(regexResourcePath)){
+			// Get the resource, verify that it is what one would expect from a proper request
+			this.resource = parseResourcePath(requestBytes, pathStart, pathEnd);
+			if(this.resource == null){
+				validRequest = false;
+				return;
+			}
+		}
+		// Save where the headers are, DOES NOT VALIDATE HEADERS
+		indexHeaders();
+	}
+	
+	/**
+	 * Finds the name and value of every header line and saves their offsets in the header table. The first line is the request
+	 * line, every line after it is a header until the empty line. Lines without a ':' are skipped. A request with more headers
+	 * than maxHeaderCount, a header line longer than maxHeaderSize or more than one Host header is not valid
+	 */
+	private void indexHeaders(){
+		byte[] bytes = requestBytes;
+		int lineStart = indexOf(bytes, '\n', 0) + 1;
+		while(lineStart > 0 && lineStart < bytes.length){
+			int lineEnd = indexOf(bytes, '\n', lineStart);
+			if(lineEnd == -1){
+				break;
+			}
+			int contentEnd = (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+			if(contentEnd == lineStart){
+				break; // the empty line that ends the headers
+			}
+			if(contentEnd - lineStart > maxHeaderSize || headerCount == maxHeaderCount){
 				validRequest = false;
-			}else{
-				this.resource = requestToken; // save path of the asked resource
-				// Save headers here, read until there is nothing more to read, DOES NOT VALIDATE HEADERS
-				for(int i = 3; i < requestTokens.length; i++){
-					String tempString = "";
-					// match (word): and then read and append until you match another (word): or until there is no more
-					if(requestTokens[i++].matches("(\\w+)(\\:)$")){
-						tempString += requestTokens[i-1];
-						while(!requestTokens[i].matches("(\\w+)(\\:)$") && i < requestTokens.length){
-							tempString += requestTokens[i++];
-						}
-						i -= 2; // moves back two because the for loop will increase the i by one
-					}
-					
-					this.addRequestHeader(tempString);
+				return;
+			}
+			
+			int separator = lineStart;
+			while(separator < contentEnd && bytes[separator] != ':'){
+				separator++;
+			}
+			if(separator < contentEnd){
+				int valueStart = separator + 1;
+				int valueEnd = contentEnd;
+				while(valueStart < valueEnd && isWhitespace(bytes[valueStart])){
+					valueStart++;
+				}
+				while(valueEnd > valueStart && isWhitespace(bytes[valueEnd - 1])){
+					valueEnd--;
+				}
+				HeaderName name = HeaderName.find(bytes, lineStart, separator);
+				if(name == HeaderName.HOST && hasRequestHeader(HeaderName.HOST)){
+					validRequest = false; // which of them is meant can not be known(RFC 7230 5.4)
+					return;
+				}
+				addHeaderOffsets(lineStart, separator, valueStart, valueEnd, name);
+			}
+			lineStart = lineEnd + 1;
+		}
+	}
+	
+	/**
+	 * Saves the offsets of a header in the header table, the table grows if it is full
+	 */
+	private void addHeaderOffsets(int nameStart, int nameEnd, int valueStart, int valueEnd, HeaderName name){
+		if(headerTable == null){
+			headerTable = new int[initialHeaderCapacity * headerFields];
+		} else if(headerCount * headerFields == headerTable.length){
+			int[] larger = new int[headerTable.length * 2];
+			System.arraycopy(headerTable, 0, larger, 0, headerTable.length);
+			headerTable = larger;
+		}
+		int i = headerCount * headerFields;
+		headerTable[i] = nameStart;
+		headerTable[i + 1] = nameEnd;
+		headerTable[i + 2] = valueStart;
+		headerTable[i + 3] = valueEnd;
+		headerTable[i + 4] = (name == null) ? -1 : name.ordinal();
+		if(name != null){
+			knownHeaders |= 1L << name.ordinal();
+		}
+		headerCount++;
+	}
+	
+	/**
+	 * Gets the resource from the path of the request. The first "/" is removed and what is left has to be one or more word
+	 * characters([A-Za-z0-9_]) followed by zero or more "." or "-" and one or zero "/", one or more times, which is what the
+	 * regex "((\\w+)([\\.-]*)/?)+" used to check
+	 * @param bytes the request
+	 * @param start the index of the first byte of the path
+	 * @param end the index after the last byte of the path
+	 * @return the resource, null if the path is not valid
+	 */
+	private static String parseResourcePath(byte[] bytes, int start, int end){
+		int removed = indexOf(bytes, '/', start);
+		if(removed >= end){
+			removed = -1;
+		}
+		
+		char[] resource = new char[(removed == -1) ? end - start : end - start - 1];
+		int length = 0;
+		for(int i = start; i < end; i++){
+			if(i != removed){
+				resource[length++] = (char) (bytes[i] & 0xff);
+			}
+		}
+		
+		if(length == 0 || !isWordCharacter(resource[0])){
+			return null;
+		}
+		for(int i = 1; i < length; i++){
+			char c = resource[i];
+			if(c == '/'){
+				// a "/" ends a part, the next part has to start with a word character
+				if(i + 1 < length && !isWordCharacter(resource[i + 1])){
+					return null;
+				}
+			} else if(c == '.' || c == '-'){
+				// "." and "-" may only come after a word character or another "." or "-"
+				if(resource[i - 1] == '/'){
+					return null;
 				}
+			} else if(!isWordCharacter(c)){
+				return null;
+			}
+		}
+		return new String(resource, 0, length);
+	}
+	
+	/**
+	 * Checks the version the same way as the regex "(HTTP/1.)(1|0)" did, where the "." matches any character
+	 */
+	private static boolean isValidVersion(byte[] bytes, int start, int end){
+		if(end - start != 8 || !tokenEquals("HTTP/1", bytes, start, start + 6)){
+			return false;
+		}
+		byte minor = bytes[start + 7];
+		// the "." matches anything but a line terminator, the tokens never has "\r" or "\n" in them but may have \u0085
+		return bytes[start + 6] != (byte) 0x85 && (minor == '0' || minor == '1');
+	}
+	
+	/**
+	 * Checks if a token is equal to a String
+	 * @param expected the String, only ASCII characters
+	 * @param bytes the request
+	 * @param start the index of the first byte of the token
+	 * @param end the index after the last byte of the token
+	 * @return true if the token has exactly the same characters
+	 */
+	private static boolean tokenEquals(String expected, byte[] bytes, int start, int end){
+		if(end - start != expected.length()){
+			return false;
+		}
+		for(int i = 0; i < expected.length(); i++){
+			if(bytes[start + i] != expected.charAt(i)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks if a token is equal to a String when case is ignored
+	 * @param expected the String, only ASCII characters
+	 * @param bytes the request
+	 * @param start the index of the first byte of the token
+	 * @param end the index after the last byte of the token
+	 * @return true if the token has the same characters in any case
+	 */
+	private static boolean tokenEqualsIgnoreCase(String expected, byte[] bytes, int start, int end){
+		if(end - start != expected.length()){
+			return false;
+		}
+		for(int i = 0; i < expected.length(); i++){
+			if(toLowerCase(bytes[start + i]) != toLowerCase((byte) expected.charAt(i))){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks if the bytes ends with "\r\n\r\n"
+	 */
+	private static boolean endsWithEmptyLine(byte[] bytes){
+		int length = bytes.length;
+		return length >= 4 && bytes[length - 4] == '\r' && bytes[length - 3] == '\n' && bytes[length - 2] == '\r' &&
+				bytes[length - 1] == '\n';
+	}
+	
+	/**
+	 * Gets the index after the last byte of the token that starts at the index
+	 */
+	private static int tokenEnd(byte[] bytes, int start){
+		int i = start;
+		while(i < bytes.length && !isWhitespace(bytes[i])){
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * Gets the index of the first byte that is not whitespace, starting at the index
+	 */
+	private static int skipWhitespace(byte[] bytes, int start){
+		int i = start;
+		while(i < bytes.length && isWhitespace(bytes[i])){
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * Gets the index of the first occurence of a byte, starting at the index
+	 * @return the index, -1 if the byte does not occur
+	 */
+	private static int indexOf(byte[] bytes, char b, int start){
+		for(int i = start; i < bytes.length; i++){
+			if(bytes[i] == b){
+				return i;
 			}
 		}
+		return -1;
+	}
+	
+	/**
+	 * Checks if the byte is whitespace the same way as the regex "\\s" does
+	 */
+	private static boolean isWhitespace(byte b){
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+	
+	/**
+	 * Checks if the character is a word character the same way as the regex "\\w" does
+	 */
+	private static boolean isWordCharacter(char c){
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+	
+	/**
+	 * Makes an ASCII letter lower case, every other byte is returned as it is
+	 */
+	private static byte toLowerCase(byte b){
+		return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
 	}
 	
 	
@@ -206,9 +519,16 @@ public class Request {
 	
 	/**
 	 * Gets the request headers as an ArrayList of Strings
-	 * @return the request headers as an ArrayList of Strings
+	 * @return the request headers as an ArrayList of Strings, eg. "Host: localhost"
 	 */
 	public ArrayList<String> getRequestHeaders() {
+		if(requestHeaders == null){
+			requestHeaders = new ArrayList<String>(headerCount);
+			for(int index = 0; index < headerCount; index++){
+				int i = index * headerFields;
+				requestHeaders.add(decode(headerTable[i], headerTable[i + 1]) + ": " + getHeaderValue(index));
+			}
+		}
 		return requestHeaders;
 	}
 	
@@ -226,7 +546,7 @@ public class Request {
 	 * @return true if the header was successfully added, false otherwise
 	 */
 	public boolean addRequestHeader(String requestHeader){
-		return this.requestHeaders.add(requestHeader);
+		return this.getRequestHeaders().add(requestHeader);
 	}
 	
 	/**
@@ -237,14 +557,69 @@ public class Request {
 		return validRequest;
 	}
 	
+	/**
+	 * Gets the time the request was created, which is when it had been read
+	 * @return the time in nanoseconds, comparable with System.nanoTime
+	 */
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+	
+	/**
+	 * Gets the time the response to the request was ready to be written, before anything of it had been sent
+	 * @return the time in nanoseconds, comparable with System.nanoTime. 0 if no response has been ready
+	 */
+	public long getRespondedAt() {
+		return respondedAt;
+	}
+	
+	/**
+	 * Sets the time the response to the request was ready to be written
+	 * @param respondedAt the time in nanoseconds, from System.nanoTime
+	 */
+	public void setRespondedAt(long respondedAt) {
+		this.respondedAt = respondedAt;
+	}
+	
+	/**
+	 * Gets the address of the client that sent the request
+	 * @return the address, null if it is not known
+	 */
+	public InetAddress getClientAddress() {
+		return clientAddress;
+	}
+	
+	/**
+	 * Sets the address of the client that sent the request
+	 * @param clientAddress the address
+	 */
+	public void setClientAddress(InetAddress clientAddress) {
+		this.clientAddress = clientAddress;
+	}
+	
 	/**
 	 * Gets the original request string as a String
 	 * @return A String representing the original request
 	 */
 	public String getOriginalRequestString() {
+		if(originalRequestString == null){
+			originalRequestString = decode(0, requestBytes.length);
+		}
 		return originalRequestString;
 	}
 	
+	/**
+	 * Gets the first line of the request as it was sent, eg. "GET /index.html HTTP/1.0", for the access log
+	 * @return the line without its line break, null if the request is empty
+	 */
+	public String getRequestLine(){
+		int end = 0;
+		while(end < requestBytes.length && requestBytes[end] != '\r' && requestBytes[end] != '\n'){
+			end++;
+		}
+		return end > 0 ? decode(0, end) : null;
+	}
+	
 	/**
 	 * Checks if this request was used with an HTTP-protocol after 0.9
 	 * @return true if the HTTP-protocol used is either HTTP/1.0 or HTTP/1.1
@@ -253,5 +628,205 @@ public class Request {
 		return lateVersionHTTP;
 	}
 	
+	/**
+	 * Checks if this request was used with HTTP/1.1
+	 * @return true if the HTTP-protocol used is HTTP/1.1
+	 */
+	public boolean usesHTTP11(){
+		return versionHTTP11;
+	}
+	
+	/**
+	 * Gets the value of a request header, eg. "keep-alive" for the header "Connection: keep-alive"
+	 * @param name the name of the header, case does not matter
+	 * @return the value of the first header with the name without surrounding whitespace(all of them joined with ", " if it is a
+	 * HeaderName with a list value), null if the request has no such header
+	 */
+	public String getRequestHeader(String name){
+		HeaderName header = HeaderName.find(name);
+		if(header != null){
+			return getRequestHeader(header);
+		}
+		for(int index = 0; index < headerCount; index++){
+			int i = index * headerFields;
+			if(tokenEqualsIgnoreCase(name, requestBytes, headerTable[i], headerTable[i + 1])){
+				return getHeaderValue(index);
+			}
+		}
+		return null; // No such header, and no headers at all in 0.9
+	}
+	
+	/**
+	 * Gets the value of a request header. A header whose value is a list, eg. Accept-Encoding, may be sent more than once and
+	 * gets all of its values joined with ", ", for other headers the first one is used
+	 * @param header the header
+	 * @return the value without surrounding whitespace, null if the request has no such header
+	 */
+	public String getRequestHeader(HeaderName header){
+		int first = indexOfHeader(header, 0);
+		if(first == -1){
+			return null;
+		}
+		int next = header.isList() ? indexOfHeader(header, first + 1) : -1;
+		if(next == -1){
+			return getHeaderValue(first);
+		}
+		StringBuilder joined = new StringBuilder(getHeaderValue(first));
+		while(next != -1){
+			joined.append(", ").append(getHeaderValue(next));
+			next = indexOfHeader(header, next + 1);
+		}
+		return joined.toString();
+	}
+	
+	/**
+	 * Gets the value of every header with the same name, in the order they were sent
+	 * @param header the header
+	 * @return the values, empty if the request has no such header
+	 */
+	public List<String> getRequestHeaderValues(HeaderName header){
+		List<String> values = new ArrayList<String>(1);
+		for(int index = indexOfHeader(header, 0); index != -1; index = indexOfHeader(header, index + 1)){
+			values.add(getHeaderValue(index));
+		}
+		return values;
+	}
+	
+	/**
+	 * Checks if the request has a header, without looking at the header table
+	 * @param header the header
+	 * @return true if the request has at least one
+	 */
+	public boolean hasRequestHeader(HeaderName header){
+		return (knownHeaders & (1L << header.ordinal())) != 0;
+	}
+	
+	/**
+	 * Checks if a request header has a value, without creating a String for the value
+	 * @param name the name of the header, case does not matter
+	 * @param value the value, case does not matter
+	 * @return true if the first header with the name has the value
+	 */
+	public boolean requestHeaderEquals(String name, String value){
+		HeaderName header = HeaderName.find(name);
+		for(int index = 0; index < headerCount; index++){
+			int i = index * headerFields;
+			if(header != null ? headerTable[i + 4] == header.ordinal() :
+					tokenEqualsIgnoreCase(name, requestBytes, headerTable[i], headerTable[i + 1])){
+				return tokenEqualsIgnoreCase(value, requestBytes, headerTable[i + 2], headerTable[i + 3]);
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if a header with a list value has a token in its list, eg. "close" in "Connection: TE, close", in any of the
+	 * headers with the name. Nothing is decoded
+	 * @param header the header
+	 * @param token the token, case does not matter
+	 * @return true if one of the comma separated parts of the values is the token
+	 */
+	public boolean requestHeaderContains(HeaderName header, String token){
+		for(int index = indexOfHeader(header, 0); index != -1; index = indexOfHeader(header, index + 1)){
+			int i = index * headerFields;
+			int end = headerTable[i + 3];
+			int partStart = headerTable[i + 2];
+			while(partStart <= end){
+				int partEnd = partStart;
+				while(partEnd < end && requestBytes[partEnd] != ','){
+					partEnd++;
+				}
+				int tokenStart = skipWhitespace(requestBytes, partStart);
+				int tokenEnd = partEnd;
+				while(tokenEnd > tokenStart && isWhitespace(requestBytes[tokenEnd - 1])){
+					tokenEnd--;
+				}
+				if(tokenEqualsIgnoreCase(token, requestBytes, Math.min(tokenStart, tokenEnd), tokenEnd)){
+					return true;
+				}
+				partStart = partEnd + 1;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Gets the number of headers the request has
+	 * @return the number of headers, 0 for HTTP/0.9
+	 */
+	public int getRequestHeaderCount(){
+		return headerCount;
+	}
+	
+	/**
+	 * Finds the next header with a name in the header table
+	 * @param header the header
+	 * @param from the index in the header table to start at
+	 * @return the index in the header table, -1 if there is no more such header
+	 */
+	private int indexOfHeader(HeaderName header, int from){
+		if(!hasRequestHeader(header)){
+			return -1;
+		}
+		int id = header.ordinal();
+		for(int index = from; index < headerCount; index++){
+			if(headerTable[index * headerFields + 4] == id){
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Gets the value of a header, decoded the first time it is asked for
+	 * @param index the index of the header in the header table
+	 * @return the value
+	 */
+	private String getHeaderValue(int index){
+		if(headerValues == null){
+			headerValues = new String[headerCount];
+		}
+		String value = headerValues[index];
+		if(value == null){
+			int i = index * headerFields;
+			value = decode(headerTable[i + 2], headerTable[i + 3]);
+			headerValues[index] = value;
+		}
+		return value;
+	}
+	
+	/**
+	 * Gets the length of the request as it was recieved
+	 * @return the number of bytes, 0 if nothing was recieved
+	 */
+	public int getRequestLength(){
+		return requestBytes.length;
+	}
+	
+	/**
+	 * Creates a String from a part of the request
+	 * @param start the index of the first byte
+	 * @param end the index after the last byte
+	 * @return the part as a String
+	 */
+	private String decode(int start, int end){
+		return new String(requestBytes, start, end - start, requestCharset);
+	}
+	
+	/**
+	 * Checks if the client wants the connection to be kept open for more requests after this one, which HTTP/1.1 clients does
+	 * unless they send "Connection: close" and HTTP/1.0 clients only does if they send "Connection: keep-alive"
+	 * @return true if the connection should be kept open
+	 */
+	public boolean wantsKeepAlive(){
+		if(!lateVersionHTTP){
+			return false;
+		}
+		if(versionHTTP11){
+			return !requestHeaderContains(HeaderName.CONNECTION, "close");
+		}
+		return requestHeaderContains(HeaderName.CONNECTION, "keep-alive");
+	}
+	
 	
 }
@@ -0,0 +1,355 @@
+package server;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import fileManagement.FileCache;
+import fileManagement.FileManager;
+
+/**
+ * Generates and sends the response for a request, used by both the blocking TCPWebServer and the NioWebServer so that the two
+ * engines answer every request in exactly the same way. The response for the file that was asked for is built as a Response
+ * and sent by a ResponseEncoder that runs it through the compression, conditional, range and metrics stages, in that order
+ * @author Mattis
+ *
+ */
+public class RequestProcessor {
+	// The server that is told to shut down when a QUIT request is recieved
+	private final WebServer server;
+	
+	// The resource that the metrics are sent as, eg. "GET /metrics HTTP/1.1"
+	public static final String metricsResource = "metrics";
+	
+	// The metrics are sent as ASCII text
+	private static final Charset textCharset = Charset.forName("ISO-8859-1");
+	
+	// The responses that are always the same, encoded once
+	private static final byte[] quitResponse = "Server shuting down".getBytes(textCharset);
+	private static final byte[] majorErrorResponse =
+			"Major error, make sure the files are in the correct folders....".getBytes(textCharset);
+	
+	// Tells a client that is turned away to wait a second before it tries again
+	private static final String retryAfter = "Retry-After: 1\r\n";
+	
+	// The headers of the response to a client that sends requests faster than it may, the response has no body
+	private static final ResponseHeaderTemplate tooManyRequestsHeaders =
+			new ResponseHeaderTemplate(ResponseCode.TOO_MANY_REQUESTS, 0, 0, null, null, retryAfter);
+	// The headers of the response to a request that is shed because the server is busy, the response has no body
+	private static final ResponseHeaderTemplate serviceUnavailableHeaders =
+			new ResponseHeaderTemplate(ResponseCode.SERVICE_UNAVAILABLE, 0, 0, null, null, retryAfter);
+	
+	// The pre-encoded response headers for every resource
+	private final ResponseHeaderTemplates headerTemplates = new ResponseHeaderTemplates();
+	
+	// Counts the requests and responses
+	private final ServerMetrics metrics;
+	
+	// true if the metrics are sent for the metrics resource, false if it is served as any other file
+	private final boolean metricsEndpoint;
+	
+	// Sends the responses for the files that were asked for, through every stage
+	private final ResponseEncoder fileEncoder;
+	
+	// Sends the other responses(errors, QUIT and the metrics) which are only counted
+	private final ResponseEncoder plainEncoder;
+	
+	// Limits the rate every client may send requests at, null if it is not limited
+	private final ClientLimiter clientLimiter;
+	
+	// Decides how many requests are handled at once and sheds the rest, null if every request is handled
+	private final AdmissionController admissionController;
+	
+	
+	/*************** Constructors *****************/
+	/**
+	 * Creates an instance of the RequestProcessor class that counts in metrics of its own and does not send them
+	 * @param server the server that should shut down when a QUIT request is recieved
+	 */
+	public RequestProcessor(WebServer server) {
+		this(server, new ServerMetrics(), false);
+	}
+	
+	/**
+	 * Creates an instance of the RequestProcessor class
+	 * @param server the server that should shut down when a QUIT request is recieved
+	 * @param metrics the metrics the requests and responses are counted in
+	 * @param metricsEndpoint true if the metrics are sent as text for the "/metrics" resource
+	 */
+	public RequestProcessor(WebServer server, ServerMetrics metrics, boolean metricsEndpoint) {
+		this(server, metrics, metricsEndpoint, null, null, null);
+	}
+	
+	/**
+	 * Creates an instance of the RequestProcessor class that records every response in an access log, limits the rate of the
+	 * clients and sheds the requests above the concurrency limit
+	 * @param server the server that should shut down when a QUIT request is recieved
+	 * @param metrics the metrics the requests and responses are counted in
+	 * @param metricsEndpoint true if the metrics are sent as text for the "/metrics" resource
+	 * @param accessLog the log the responses are recorded in, null if they are not logged
+	 * @param clientLimiter limits the rate every client may send requests at, null if it is not limited
+	 * @param admissionController decides how many requests are handled at once, null if every request is handled
+	 */
+	public RequestProcessor(WebServer server, ServerMetrics metrics, boolean metricsEndpoint, AccessLog accessLog,
+			ClientLimiter clientLimiter, AdmissionController admissionController) {
+		super();
+		this.server = server;
+		this.metrics = metrics;
+		this.metricsEndpoint = metricsEndpoint;
+		this.clientLimiter = clientLimiter;
+		this.admissionController = admissionController;
+		MetricsFilter metricsFilter = new MetricsFilter(metrics);
+		if(accessLog == null){
+			this.fileEncoder = new ResponseEncoder(new CompressionFilter(headerTemplates), new ConditionalFilter(headerTemplates),
+					new RangeFilter(), metricsFilter);
+			this.plainEncoder = new ResponseEncoder(metricsFilter);
+		} else{
+			AccessLogFilter accessLogFilter = new AccessLogFilter(accessLog);
+			this.fileEncoder = new ResponseEncoder(new CompressionFilter(headerTemplates), new ConditionalFilter(headerTemplates),
+					new RangeFilter(), metricsFilter, accessLogFilter);
+			this.plainEncoder = new ResponseEncoder(metricsFilter, accessLogFilter);
+		}
+	}
+	
+	
+	/************************** methods **************************/
+	
+	/**
+	 * Gets the page that is relevant for the request
+	 * @param out the stream to write the response to
+	 * @param request the request to answer
+	 * @param keepAlive true if the connection may be kept open after the response, only valid GET and HEAD requests made with
+	 * HTTP/1.0 or HTTP/1.1 keeps it open
+	 * @return true if the connection is kept open, that is if the response said so and was sent properly
+	 * @throws IOException if this happens something is wrong with the whole connection/socket
+	 */
+	public boolean processAndSendRequest(OutputStream out, Request request, boolean keepAlive) throws IOException{
+		metrics.requestRecieved(request);
+		
+		if(clientLimiter != null && !clientLimiter.tryRequest(request.getClientAddress())){
+			sendRejection(out, request, tooManyRequestsHeaders);
+			return false;
+		}
+		if(admissionController == null){
+			return processAdmittedRequest(out, request, keepAlive);
+		}
+		if(!admissionController.tryAcquire()){
+			sendRejection(out, request, serviceUnavailableHeaders);
+			return false;
+		}
+		try {
+			return processAdmittedRequest(out, request, keepAlive);
+		} finally {
+			// counted until the response was ready, the time a slow client takes to read the body says nothing about the server
+			long respondedAt = request.getRespondedAt() != 0 ? request.getRespondedAt() : System.nanoTime();
+			admissionController.release(respondedAt - request.getReceivedAt());
+		}
+	}
+	
+	/**
+	 * Answers a request that has been let through by the client limiter and the admission controller
+	 * @param out the stream to write the response to
+	 * @param request the request to answer
+	 * @param keepAlive true if the connection may be kept open after the response
+	 * @return true if the connection is kept open
+	 * @throws IOException if this happens something is wrong with the whole connection/socket
+	 */
+	private boolean processAdmittedRequest(OutputStream out, Request request, boolean keepAlive) throws IOException{
+		boolean fileNotFound = false;
+		boolean isValidRequest = request.isValidRequest();
+		
+		if(isValidRequest){
+			RequestCommands requestcommand = (request.getRequestCommand());
+			try {
+				if(metricsEndpoint && metricsResource.equals(request.getResource())){
+					sendMetrics(out, request, keepAlive);
+					return keepAlive && requestcommand != RequestCommands.GET09;
+				}
+				switch(requestcommand){
+				case GET09:
+					sendResponseGET0x9(out, request);
+					break;
+				case GET10:
+				case HEAD10:
+					fileEncoder.send(out, request, createFileResponse(request, keepAlive));
+					return keepAlive;
+				case QUIT:
+					plainEncoder.send(out, request, new Response(ResponseCode.OK, ResponseBody.ofBytes(quitResponse)));
+					stopServer();
+					break;
+				default:
+					isValidRequest = false;
+					break;
+				}
+			} catch (IOException e) {
+				if(e instanceof EOFException){
+					throw e; // the headers has been sent, so the connection can only be closed
+				}
+				// could not find file or other error return error file
+				if(e instanceof FileNotFoundException){
+					// return 404 file not found page
+					fileNotFound = true;
+				} else{
+					isValidRequest = false; // if it turns out the request was not valid after all
+				}
+			}
+		}
+		
+		// if the resource could not be found
+		if(fileNotFound){
+			// Get error page(make distinction between 400 and 404 in 1.0, not implemented yet)
+			sendErrorPage(out, request, ResponseCode.NOT_FOUND, TCPWebServer.fileNotFound, false);
+		}
+		
+		if(!isValidRequest){
+			// Load error file
+			if(request.usesNewerHTTP()){
+				sendErrorPage(out, request, ResponseCode.BAD_REQUEST, TCPWebServer.error400File, true);
+			} else{
+				sendErrorPage(out, request, ResponseCode.BAD_REQUEST, TCPWebServer.errorFile, false);
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Creates the response for a GET or HEAD request made with HTTP/1.0 or HTTP/1.1, the headers are taken from a template for
+	 * the resource so that nothing but the date has to be added. If the file does not exist the response is the 404 page. The
+	 * filter stages of the encoder then turns it in to a compressed, 304 or 206 response if the request asks for that
+	 * @param request the GET or HEAD request
+	 * @param keepAlive true if the connection is kept open after the response
+	 * @return the response
+	 */
+	private Response createFileResponse(Request request, boolean keepAlive){
+		FileManager fm = FileManager.getInstance();
+		String resource = request.getResource();
+		FileCache.Entry file = fm.getFileEntry(resource);
+		ResponseCode responseCode = ResponseCode.OK;
+		
+		if(!file.isReadable()){ // file does not exist in the specified location or is not readable
+			resource = TCPWebServer.fileNotFound; // the request keeps the resource that was asked for, eg. for the access log
+			file = fm.getFileEntry(resource);
+			responseCode = ResponseCode.NOT_FOUND;
+		}
+		
+		Response response = new Response(headerTemplates.getTemplate(responseCode, resource, file),
+				ResponseBody.ofFile(resource, file.getSize()), keepAlive);
+		response.setHeadersOnly(request.getRequestCommand() == RequestCommands.HEAD10);
+		if(responseCode == ResponseCode.OK){
+			response.setFile(resource, file);
+		}
+		return response;
+	}
+	
+	/**
+	 * Sends the file that was asked for with HTTP/0.9, which has no headers. A file that does not exist is answered with the 404
+	 * page
+	 * @param out the stream to write the response to
+	 * @param request the GET request
+	 * @throws IOException if the file could not be sent
+	 */
+	private void sendResponseGET0x9(OutputStream out, Request request) throws IOException{
+		FileCache.Entry file = FileManager.getInstance().getFileEntry(request.getResource());
+		if(!file.isReadable()){
+			throw new FileNotFoundException(request.getResource());
+		}
+		plainEncoder.send(out, request, new Response(ResponseCode.OK, ResponseBody.ofFile(request.getResource(), file.getSize())));
+	}
+	
+	/**
+	 * Sends an error page, the connection is always closed after it. If the page can not be sent either a short text is sent
+	 * instead
+	 * @param out the stream to write the response to
+	 * @param request the request that failed
+	 * @param responseCode the response code, eg. 404
+	 * @param page the error page
+	 * @param headers true if the page is sent with headers, false for HTTP/0.9 and the 404 page which has always been sent
+	 * without them
+	 * @throws IOException if not even the short text could be sent
+	 */
+	private void sendErrorPage(OutputStream out, Request request, ResponseCode responseCode, String page, boolean headers)
+			throws IOException{
+		FileCache.Entry file = FileManager.getInstance().getFileEntry(page);
+		if(!file.isReadable()){
+			metrics.responseSent(responseCode);
+			sendMajorError(out);
+			return;
+		}
+		ResponseBody body = ResponseBody.ofFile(page, file.getSize());
+		try {
+			if(headers){
+				plainEncoder.send(out, request, new Response(headerTemplates.getTemplate(responseCode, page, file), body, false));
+			} else{
+				plainEncoder.send(out, request, new Response(responseCode, body));
+			}
+		} catch (EOFException e) {
+			throw e; // the page has become shorter after its headers were sent
+		} catch (IOException e) {
+			sendMajorError(out); // the response has already been counted by the encoder
+		}
+	}
+	
+	/**
+	 * Sends the response to a request that is turned away before it is handled, it has no body and the connection is closed
+	 * after it. A HTTP/0.9 request gets nothing since its responses has no headers
+	 * @param out the stream to write the response to
+	 * @param request the request that is turned away
+	 * @param headers the headers of the response, eg. a 429 with a Retry-After header
+	 * @throws IOException if the response could not be sent
+	 */
+	private void sendRejection(OutputStream out, Request request, ResponseHeaderTemplate headers) throws IOException{
+		if(request.usesNewerHTTP()){
+			plainEncoder.send(out, request, new Response(headers, null, false));
+		} else{
+			plainEncoder.send(out, request, new Response(headers.getResponseCode(), null));
+		}
+	}
+	
+	/**
+	 * Sends the short text that is sent when not even an error page can be sent
+	 * @param out the stream to write the text to
+	 * @throws IOException if the text could not be sent
+	 */
+	private void sendMajorError(OutputStream out) throws IOException{
+		out.write(majorErrorResponse);
+		metrics.bytesSent(majorErrorResponse.length);
+	}
+	
+	/**
+	 * Sends the metrics of the server as text, with headers unless the request was made with HTTP/0.9
+	 * @param out the stream to write the response to
+	 * @param request the request for the metrics resource
+	 * @param keepAlive true if the connection is kept open after the response
+	 * @throws IOException if the metrics could not be sent
+	 */
+	private void sendMetrics(OutputStream out, Request request, boolean keepAlive) throws IOException{
+		ResponseBody body = ResponseBody.ofBytes(metrics.toText().getBytes(textCharset));
+		Response response;
+		if(request.usesNewerHTTP()){
+			response = new Response(new ResponseHeaderTemplate(ResponseCode.OK, body.getLength(), System.currentTimeMillis(),
+					ServerMetrics.textContentType), body, keepAlive);
+			response.setHeadersOnly(request.getRequestCommand() == RequestCommands.HEAD10);
+		} else{
+			response = new Response(ResponseCode.OK, body);
+		}
+		plainEncoder.send(out, request, response);
+	}
+	
+	
+	
+	
+	/**
+	 * Tells the server to stop accepting new connections, the connections that are being handled are allowed to finish
+	 */
+	private void stopServer(){
+		try {
+			server.shutdownServer();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+}
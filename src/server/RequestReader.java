@@ -0,0 +1,225 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads requests from a connection. The bytes are read in to a buffer that is reused for every request on the connection and the
+ * end of the request("\r\n\r\n") is found by a small state machine that only looks at every byte once, so nothing that has
+ * already been read is searched again
+ * @author Mattis
+ *
+ */
+public class RequestReader {
+	/**
+	 * The largest request(including headers) that is accepted by default, larger requests are answered as bad requests
+	 */
+	public static final int defaultMaxRequestSize = 8192;
+
+	// The size of the buffer when the reader is created, it grows up to maxRequestSize if a request needs it
+	private static final int initialBufferSize = 1024;
+
+	// The largest request that is accepted
+	private final int maxRequestSize;
+
+	// The bytes that has been read but not yet returned as a request
+	private byte[] buffer = new byte[initialBufferSize];
+
+	// The number of bytes in the buffer
+	private int length = 0;
+
+	// The number of bytes in the buffer that has been scanned for the end of the request
+	private int scanned = 0;
+
+	// How many bytes of "\r\n\r\n" that has been matched by the scanned bytes
+	private int matched = 0;
+
+	// The index after the end of the first request in the buffer, -1 if it has not been found yet
+	private int end = -1;
+
+	// The time it takes to parse the requests is recorded here, may be null
+	private final ServerMetrics metrics;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates a reader that accepts requests up to the default max request size
+	 */
+	public RequestReader() {
+		this(defaultMaxRequestSize, null);
+	}
+
+	/**
+	 * Creates a reader that accepts requests up to the default max request size
+	 * @param metrics the metrics to record the time it takes to parse every request in, may be null
+	 */
+	public RequestReader(ServerMetrics metrics) {
+		this(defaultMaxRequestSize, metrics);
+	}
+
+	/**
+	 * Creates a reader
+	 * @param maxRequestSize the largest request(including headers) in bytes that is accepted
+	 * @param metrics the metrics to record the time it takes to parse every request in, may be null
+	 */
+	public RequestReader(int maxRequestSize, ServerMetrics metrics) {
+		super();
+		this.maxRequestSize = maxRequestSize;
+		this.metrics = metrics;
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Reads a request from the stream, blocks until the whole request has been read, the stream has ended or the time is up
+	 * @param is the stream to read from, usually the sockets inputstream
+	 * @param socket the socket the stream belongs to, its timeout is set so that no read blocks past the deadline. May be null
+	 * if the stream does not belong to a socket, then there is no deadline
+	 * @param readLimit the number of milliseconds the whole request may take to read
+	 * @return the request parsed directly from the read bytes. If the stream ended, the time ran out or the request was larger
+	 * than the max request size then whatever was read is returned, which will not be a valid request
+	 * @throws IOException if the stream could not be read from
+	 */
+	public Request readRequest(InputStream is, Socket socket, int readLimit) throws IOException{
+		long deadline = System.currentTimeMillis() + readLimit;
+
+		while(true){
+			if(hasBufferedRequest()){
+				return takeRequest(end);
+			}
+			if(length >= maxRequestSize){
+				return takeRequest(length); // too large
+			}
+			if(length == buffer.length){
+				growBuffer();
+			}
+
+			if(socket != null){
+				long timeLeft = deadline - System.currentTimeMillis();
+				if(timeLeft <= 0){
+					return takeRequest(length);
+				}
+				socket.setSoTimeout((int) timeLeft);
+			}
+
+			int read;
+			try {
+				read = is.read(buffer, length, Math.min(buffer.length, maxRequestSize) - length);
+			} catch (SocketTimeoutException e) {
+				return takeRequest(length);
+			}
+			if(read == -1){
+				return takeRequest(length); // the client has stopped sending
+			}
+			length += read;
+		}
+	}
+
+	/**
+	 * Checks if a whole request has already been read, eg. when the client pipelines its requests and sends the next one before
+	 * the response to the first has been sent
+	 * @return true if the next call to readRequest returns without reading anything
+	 */
+	public boolean hasBufferedRequest(){
+		if(end == -1){
+			end = scan(buffer, scanned, length);
+			scanned = (end == -1) ? length : end;
+		}
+		return end != -1;
+	}
+
+	/**
+	 * Scans the bytes for the end of the request("\r\n\r\n"). The scan continues where the last one ended so a request can be
+	 * scanned a piece at a time as it arrives, eg. by the non-blocking engine
+	 * @param bytes the bytes to scan
+	 * @param from the index of the first byte to scan
+	 * @param to the index after the last byte to scan
+	 * @return the index directly after the end of the request, or -1 if the end has not been found yet
+	 */
+	public int scan(byte[] bytes, int from, int to){
+		for(int i = from; i < to; i++){
+			byte b = bytes[i];
+			if(b == '\r'){
+				matched = (matched == 2) ? 3 : 1;
+			} else if(b == '\n' && (matched == 1 || matched == 3)){
+				matched++;
+				if(matched == 4){
+					matched = 0;
+					return i + 1;
+				}
+			} else{
+				matched = 0;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Scans the bytes of a buffer for the end of the request("\r\n\r\n"), eg. a direct buffer that has no array. Works just as
+	 * scan for a byte array
+	 * @param bytes the buffer to scan, its position and limit are not used or changed
+	 * @param from the index of the first byte to scan
+	 * @param to the index after the last byte to scan
+	 * @return the index directly after the end of the request, or -1 if the end has not been found yet
+	 */
+	public int scan(ByteBuffer bytes, int from, int to){
+		for(int i = from; i < to; i++){
+			byte b = bytes.get(i);
+			if(b == '\r'){
+				matched = (matched == 2) ? 3 : 1;
+			} else if(b == '\n' && (matched == 1 || matched == 3)){
+				matched++;
+				if(matched == 4){
+					matched = 0;
+					return i + 1;
+				}
+			} else{
+				matched = 0;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Makes the reader forget the request that was being scanned, used when the scanner is used on its own
+	 */
+	public void reset(){
+		matched = 0;
+		length = 0;
+		scanned = 0;
+		end = -1;
+	}
+
+	/**
+	 * Takes the first bytes of the buffer as a request, any bytes after it are kept for the next request
+	 * @param requestEnd the index after the last byte of the request
+	 * @return the request
+	 */
+	private Request takeRequest(int requestEnd){
+		long start = System.nanoTime();
+		Request request = new Request(buffer, 0, requestEnd);
+		if(metrics != null && requestEnd > 0){
+			metrics.requestParsed(System.nanoTime() - start);
+		}
+		System.arraycopy(buffer, requestEnd, buffer, 0, length - requestEnd);
+		length -= requestEnd;
+		scanned = 0;
+		matched = 0;
+		end = -1;
+		return request;
+	}
+
+	/**
+	 * Doubles the size of the buffer, but never past the max request size
+	 */
+	private void growBuffer(){
+		byte[] larger = new byte[Math.min(buffer.length * 2, maxRequestSize)];
+		System.arraycopy(buffer, 0, larger, 0, length);
+		buffer = larger;
+	}
+
+}
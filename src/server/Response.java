@@ -1,58 +1,91 @@
 package server;
 
-import java.util.ArrayList;
+import fileManagement.CompressedVariant;
+import fileManagement.FileCache;
 
 /**
- * This represents an response and should contain things that a normal response normally do, such as: response code, headers and
- * the file that has been requested if one has been requested(not a HEAD-request)
+ * This represents a response: the response code, the headers and the body that is sent for a request. The headers are a
+ * ResponseHeaderTemplate, which holds the typed headers(length, type, ETag, Last-Modified and so on) encoded in advance, and the
+ * body is a ResponseBody that is only read when the response is written, so a file is never loaded in to memory to be part of a
+ * response. A response is built by the RequestProcessor, changed by the ResponseFilters(eg. to a 304 or a 206) and written by
+ * the ResponseEncoder
  * @author Mattis
  *
  */
 public class Response {
 	// The response code for the request
 	private ResponseCode responseCode;
-	
-	// The headers that will be returned for the request
-	private ArrayList<String> responseHeaders;
-	
-	// The document/resource that will be sent in response to the request, this will be null if no document is to be sent(HEAD request)
-	private byte[] responseDocument;
-	
+
+	// The headers that will be returned for the request, null if the response has no headers(HTTP/0.9)
+	private ResponseHeaderTemplate headers;
+
+	// The body that will be sent after the headers, null if the response has no body(eg. a 304)
+	private ResponseBody body;
+
+	// true if only the headers are sent(a HEAD request), the body is still set so that the headers describe it
+	private boolean headersOnly;
+
+	// true if the connection is kept open after the response
+	private boolean keepAlive;
+
+	// The resource the body is the file of, null if the body is not a file
+	private String resource;
+
+	// What the FileManager knows about the resource when the response was made
+	private FileCache.Entry file;
+
+	// The compressed variant that is sent instead of the file, null if the file is sent as it is
+	private CompressedVariant variant;
+
 	////////////////////// Constructors ////////////////////////////////////////
 	/**
-	 * Creates an instance of the class Response
+	 * Creates a response without headers, eg. for a HTTP/0.9 request
+	 * @param responseCode the response code, only counted since it is not sent
+	 * @param body the body
 	 */
-	public Response() {
+	public Response(ResponseCode responseCode, ResponseBody body) {
 		super();
-		this.responseHeaders = new ArrayList<String>();
+		this.responseCode = responseCode;
+		this.body = body;
 	}
-	
+
 	/**
 	 * Creates an instance of the class Response
-	 * @param responseCode the response code to be sent in response to the request
-	 * @param responseHeaders the headers to be sent
+	 * @param headers the headers, the response code is taken from them
+	 * @param body the body, null if the response has no body
+	 * @param keepAlive true if the connection is kept open after the response
+	 */
+	public Response(ResponseHeaderTemplate headers, ResponseBody body, boolean keepAlive) {
+		super();
+		this.responseCode = headers.getResponseCode();
+		this.headers = headers;
+		this.body = body;
+		this.keepAlive = keepAlive;
+	}
+
+	/////////////////////////////// Methods //////////////////////////////////////
+
+	/**
+	 * Makes the response send the file of a resource
+	 * @param resource the resource
+	 * @param file what the FileManager knows about the resource
 	 */
-	public Response(ResponseCode responseCode, ArrayList<String> responseHeaders) {
-		this(responseCode, responseHeaders, null);
+	public void setFile(String resource, FileCache.Entry file){
+		this.resource = resource;
+		this.file = file;
 	}
-	
+
 	/**
-	 * Creates an instance of the class Response
-	 * @param responseCode the response code to be sent in response to the request
-	 * @param responseHeaders the headers to be sent
-	 * @param responseDocument the document/resource to be sent in response to the request, this would include a 400/404 on a bad request
+	 * Checks if the body is sent, ie. if there is one and the request was not a HEAD request
+	 * @return true if the body is sent
 	 */
-	public Response(ResponseCode responseCode,
-			ArrayList<String> responseHeaders, byte[] responseDocument) {
-		super();
-		this.responseCode = responseCode;
-		this.responseHeaders = responseHeaders;
-		this.responseDocument = responseDocument;
+	public boolean hasBodyToSend(){
+		return body != null && !headersOnly;
 	}
 
 	///////////////////////////// GETTERS AND SETTERS BELOW ///////////////////////////////
-	
-	
+
+
 
 	/**
 	 * Gets the response code for this response
@@ -61,53 +94,94 @@ public class Response {
 	public ResponseCode getResponseCode() {
 		return responseCode;
 	}
-	
+
 	/**
-	 * Sets the response code for this response
-	 * @param responseCode the response code as an ResponseCode enum
+	 * Gets the headers of this response
+	 * @return the headers, null if the response has no headers
 	 */
-	public void setResponseCode(ResponseCode responseCode) {
-		this.responseCode = responseCode;
+	public ResponseHeaderTemplate getHeaders() {
+		return headers;
 	}
-	
+
 	/**
-	 * Gets the headers for this response(this is not the request headers)
-	 * @return the response headers as an array list where each string is an individual header
+	 * Sets the headers of this response, the response code is changed to the one of the headers
+	 * @param headers the headers
 	 */
-	public ArrayList<String> getResponseHeaders() {
-		return responseHeaders;
+	public void setHeaders(ResponseHeaderTemplate headers) {
+		this.headers = headers;
+		this.responseCode = headers.getResponseCode();
 	}
-	
+
 	/**
-	 * Sets the headers for this response
-	 * @param responseHeaders the headers as an ArrayList
+	 * Gets the body of this response
+	 * @return the body, null if the response has no body
 	 */
-	public void setResponseHeaders(ArrayList<String> responseHeaders) {
-		this.responseHeaders = responseHeaders;
+	public ResponseBody getBody() {
+		return body;
 	}
-	
+
 	/**
-	 * Adds a single header to the current headers
-	 * @param header an header as a String
+	 * Sets the body of this response
+	 * @param body the body, null if the response has no body
 	 */
-	public void addResponseHeader(String header){
-		this.responseHeaders.add(header);
+	public void setBody(ResponseBody body) {
+		this.body = body;
 	}
-	
+
 	/**
-	 * Gets the response document as an byte array
-	 * @return the response document as an byte array representing the document
+	 * Checks if only the headers are sent
+	 * @return true for the response to a HEAD request
 	 */
-	public byte[] getResponseDocument() {
-		return responseDocument;
+	public boolean isHeadersOnly() {
+		return headersOnly;
 	}
-	
+
 	/**
-	 * Sets the response document
-	 * @param responseDocument the document to be sent in response to the request as an byte-array
+	 * Sets if only the headers are sent
+	 * @param headersOnly true for the response to a HEAD request
 	 */
-	public void setResponseDocument(byte[] responseDocument) {
-		this.responseDocument = responseDocument;
+	public void setHeadersOnly(boolean headersOnly) {
+		this.headersOnly = headersOnly;
 	}
-	
+
+	/**
+	 * Checks if the connection is kept open after the response
+	 * @return true if it is kept open
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Gets the resource the body is the file of
+	 * @return the resource, null if the body is not a file
+	 */
+	public String getResource() {
+		return resource;
+	}
+
+	/**
+	 * Gets what the FileManager knew about the resource when the response was made
+	 * @return the entry, null if the body is not a file
+	 */
+	public FileCache.Entry getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the compressed variant that is sent instead of the file
+	 * @return the variant, null if the file is sent as it is
+	 */
+	public CompressedVariant getVariant() {
+		return variant;
+	}
+
+	/**
+	 * Sets the compressed variant that is sent instead of the file
+	 * @param variant the variant
+	 */
+	public void setVariant(CompressedVariant variant) {
+		this.variant = variant;
+	}
+
 }
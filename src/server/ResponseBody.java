@@ -0,0 +1,223 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import fileManagement.CompressedVariant;
+import fileManagement.FileManager;
+
+/**
+ * The body of a response, which is only read when it is written so that nothing has to be held in memory before that: bytes that
+ * are already in memory, a file or a part of a file, a compressed variant of a file, or several bodies after each other(the
+ * parts of a multipart response). Files are written through the FileManager so they are sent from the cache, a mapping or with
+ * transferTo just as before
+ * @author Mattis
+ *
+ */
+public abstract class ResponseBody {
+
+	/**
+	 * Writes the body to the stream, exactly as many bytes as getLength since that is what the headers said
+	 * @param out the stream to write to
+	 * @return the number of bytes that was written
+	 * @throws IOException (Includes FileNotFoundException if the file of the body does not exist anymore and EOFException if it
+	 * has become shorter than the body, the connection must then be closed since the client is still waiting for the rest)
+	 */
+	public abstract long writeTo(OutputStream out) throws IOException;
+
+	/**
+	 * Gets the number of bytes in the body
+	 * @return the number of bytes
+	 */
+	public abstract long getLength();
+
+	/**
+	 * Checks if the body is read from a file, so that the time it takes to write it is counted as file time
+	 * @return true if the body is read from a file
+	 */
+	public boolean isFromFile(){
+		return false;
+	}
+
+	/**
+	 * Creates a body of bytes that are already in memory
+	 * @param bytes the bytes, must not be changed after this
+	 * @return the body
+	 */
+	public static ResponseBody ofBytes(byte[] bytes){
+		return new BytesBody(bytes);
+	}
+
+	/**
+	 * Creates a body of a whole file
+	 * @param fileName the file
+	 * @param size the size of the file
+	 * @return the body
+	 */
+	public static ResponseBody ofFile(String fileName, long size){
+		return new FileBody(fileName, 0, size);
+	}
+
+	/**
+	 * Creates a body of a part of a file
+	 * @param fileName the file
+	 * @param range the part
+	 * @return the body
+	 */
+	public static ResponseBody ofFileRange(String fileName, ByteRange range){
+		return new FileBody(fileName, range.getFirst(), range.getLength());
+	}
+
+	/**
+	 * Creates a body of the compressed variant of a file
+	 * @param variant the variant
+	 * @return the body
+	 */
+	public static ResponseBody ofVariant(CompressedVariant variant){
+		return new VariantBody(variant);
+	}
+
+	/**
+	 * Creates a body of several bodies after each other
+	 * @param parts the bodies in the order they are written
+	 * @return the body
+	 */
+	public static ResponseBody ofParts(List<ResponseBody> parts){
+		return new MultipartBody(parts);
+	}
+
+
+
+	/**
+	 * Bytes that are already in memory
+	 */
+	private static class BytesBody extends ResponseBody{
+		private final byte[] bytes;
+
+		private BytesBody(byte[] bytes){
+			this.bytes = bytes;
+		}
+
+		@Override
+		public long writeTo(OutputStream out) throws IOException {
+			out.write(bytes);
+			return bytes.length;
+		}
+
+		@Override
+		public long getLength() {
+			return bytes.length;
+		}
+	}
+
+
+
+	/**
+	 * A whole file or a part of it
+	 */
+	private static class FileBody extends ResponseBody{
+		private final String fileName;
+
+		// the index of the first byte and the number of bytes, as they were when the headers were made. The file may have been
+		// changed since then, but never more than the length is sent
+		private final long position;
+		private final long length;
+
+		private FileBody(String fileName, long position, long length){
+			this.fileName = fileName;
+			this.position = position;
+			this.length = length;
+		}
+
+		@Override
+		public long writeTo(OutputStream out) throws IOException {
+			long written = FileManager.getInstance().copyFileRangeToStream(out, fileName, position, length);
+			if(written < length){
+				throw new EOFException(fileName + " has become shorter, " + written + " of " + length + " bytes sent");
+			}
+			return written;
+		}
+
+		@Override
+		public long getLength() {
+			return length;
+		}
+
+		@Override
+		public boolean isFromFile() {
+			return true;
+		}
+	}
+
+
+
+	/**
+	 * The compressed variant of a file, from memory or from its ".gz" file
+	 */
+	private static class VariantBody extends ResponseBody{
+		private final CompressedVariant variant;
+
+		private VariantBody(CompressedVariant variant){
+			this.variant = variant;
+		}
+
+		@Override
+		public long writeTo(OutputStream out) throws IOException {
+			long written = FileManager.getInstance().copyVariantToStream(out, variant);
+			if(written < variant.getLength()){
+				throw new EOFException(variant.getFileName() + " has become shorter, " + written + " of " + variant.getLength() +
+						" bytes sent");
+			}
+			return written;
+		}
+
+		@Override
+		public long getLength() {
+			return variant.getLength();
+		}
+
+		@Override
+		public boolean isFromFile() {
+			return true;
+		}
+	}
+
+
+
+	/**
+	 * Several bodies after each other
+	 */
+	private static class MultipartBody extends ResponseBody{
+		private final List<ResponseBody> parts;
+
+		private MultipartBody(List<ResponseBody> parts){
+			this.parts = parts;
+		}
+
+		@Override
+		public long writeTo(OutputStream out) throws IOException {
+			long written = 0;
+			for(ResponseBody part : parts){
+				written += part.writeTo(out);
+			}
+			return written;
+		}
+
+		@Override
+		public long getLength() {
+			long length = 0;
+			for(ResponseBody part : parts){
+				length += part.getLength();
+			}
+			return length;
+		}
+
+		@Override
+		public boolean isFromFile() {
+			return true;
+		}
+	}
+
+}
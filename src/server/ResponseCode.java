@@ -6,15 +6,31 @@ package server;
  *
  */
 public enum ResponseCode {
-	OK(200), BAD_REQUEST(400), NOT_FOUND(404);
+	OK(200, "OK"), PARTIAL_CONTENT(206, "Partial Content"), NOT_MODIFIED(304, "Not Modified"), BAD_REQUEST(400, "Bad Request"), NOT_FOUND(404, "Not Found"), RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"), TOO_MANY_REQUESTS(429, "Too Many Requests"), SERVICE_UNAVAILABLE(503, "Service Unavailable");
 	
 	private int code;
 	
-	private ResponseCode(int code){
+	// the text that follows the code in the status line, eg. "Not Found"
+	private String reasonPhrase;
+	
+	private ResponseCode(int code, String reasonPhrase){
 		this.code = code;
+		this.reasonPhrase = reasonPhrase;
 	}
 	
 	public int getCode(){
 		return this.code;
 	}
+	
+	public String getReasonPhrase(){
+		return this.reasonPhrase;
+	}
+	
+	/**
+	 * Gets the status line for this response code, eg. "HTTP/1.1 404 Not Found"
+	 * @return the status line without the ending CRLF
+	 */
+	public String getStatusLine(){
+		return "HTTP/1.1 " + code + " " + reasonPhrase; // always return version 1.1
+	}
 }
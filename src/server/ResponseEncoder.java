@@ -0,0 +1,70 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes Responses to a stream: runs the response through the filter stages, writes the headers and then the body straight
+ * from its source. It is the only place a response is written, for both engines and every HTTP version
+ * @author Mattis
+ *
+ */
+public class ResponseEncoder {
+	// The stages every response passes through before it is written, in order
+	private final ResponseFilter[] filters;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the ResponseEncoder class
+	 * @param filters the stages every response passes through before it is written, in the order they are run
+	 */
+	public ResponseEncoder(ResponseFilter... filters) {
+		super();
+		this.filters = filters.clone();
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Runs the response through the filter stages and writes it
+	 * @param out the stream to write the response to
+	 * @param request the request the response is for
+	 * @param response the response
+	 * @return the number of bytes that was written
+	 * @throws IOException (Includes FileNotFoundException if the file of the body does not exist anymore)
+	 */
+	public long send(OutputStream out, Request request, Response response) throws IOException{
+		for(ResponseFilter filter : filters){
+			filter.filter(request, response);
+		}
+		request.setRespondedAt(System.nanoTime()); // what comes after this depends on how fast the client reads
+		long written = write(out, response);
+		for(ResponseFilter filter : filters){
+			filter.sent(request, response, written);
+		}
+		return written;
+	}
+
+	/**
+	 * Writes the headers of the response, if it has any, and then its body unless only the headers are sent
+	 * @param out the stream to write the response to
+	 * @param response the response
+	 * @return the number of bytes that was written
+	 * @throws IOException (Includes FileNotFoundException if the file of the body does not exist anymore)
+	 */
+	public static long write(OutputStream out, Response response) throws IOException{
+		long written = 0;
+		if(response.getHeaders() != null){
+			byte[] headers = response.getHeaders().render(response.isKeepAlive());
+			out.write(headers);
+			written += headers.length;
+		}
+		if(response.hasBodyToSend()){
+			written += response.getBody().writeTo(out);
+		}
+		return written;
+	}
+
+}
@@ -0,0 +1,29 @@
+package server;
+
+/**
+ * A stage that a Response passes through before it is written by the ResponseEncoder, eg. one that turns it in to a 304 when
+ * the client already has the file or one that counts it in the metrics. The stages are run in the order they were given to the
+ * encoder and every stage sees what the stages before it made of the response. A stage may change the headers and replace the
+ * body, but must not read the body since that would load it in to memory
+ * @author Mattis
+ *
+ */
+public abstract class ResponseFilter {
+
+	/**
+	 * Changes the response before it is written
+	 * @param request the request the response is for
+	 * @param response the response
+	 */
+	public abstract void filter(Request request, Response response);
+
+	/**
+	 * Called when the response has been written, does nothing unless the stage needs to know
+	 * @param request the request the response is for
+	 * @param response the response as it was written
+	 * @param bytesWritten the number of bytes that was written, headers and body
+	 */
+	public void sent(Request request, Response response, long bytesWritten){
+	}
+
+}
@@ -0,0 +1,258 @@
+package server;
+
+import java.nio.charset.Charset;
+
+/**
+ * The response headers for a single resource, encoded to bytes once and reused for every response for that resource. Only the
+ * Date header changes between responses, it is patched in once a second instead of the headers being built for every request
+ * @author Mattis
+ *
+ */
+public class ResponseHeaderTemplate {
+	private static final Charset headerCharset = Charset.forName("ISO-8859-1");
+
+	// The end of the Date header and of the headers
+	private static final byte[] headerEnd = "\r\n\r\n".getBytes(headerCharset);
+
+	// The response code the headers are for
+	private final ResponseCode responseCode;
+
+	// The size of the resource the headers were made for
+	private final long contentLength;
+
+	// The last modified time of the resource the headers were made for
+	private final long lastModified;
+
+	// The mime type of the resource, null if it is unknown
+	private final String contentType;
+
+	// The ETag and the Last-Modified date of the resource, null if the headers does not have them
+	private final String eTag;
+	private final String lastModifiedDate;
+
+	// Every header up to and including "Date: ", for responses that closes the connection and for those that keeps it open
+	private final byte[] closePrefix;
+	private final byte[] keepAlivePrefix;
+
+	// The headers with the date of the current second, replaced when the second has passed
+	private volatile RenderedHeaders renderedClose;
+	private volatile RenderedHeaders renderedKeepAlive;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates the headers for a resource
+	 * @param responseCode the response code, eg. 200 OK
+	 * @param contentLength the size of the resource in bytes
+	 * @param lastModified the last modified time of the resource, used to tell if the template is still valid
+	 * @param contentType the mime type of the resource, eg. text/html, may be null if it is unknown
+	 */
+	public ResponseHeaderTemplate(ResponseCode responseCode, long contentLength, long lastModified, String contentType) {
+		this(responseCode, contentLength, lastModified, contentType, false);
+	}
+
+	/**
+	 * Creates the headers for a resource
+	 * @param responseCode the response code, eg. 200 OK
+	 * @param contentLength the size of the resource in bytes
+	 * @param lastModified the last modified time of the resource
+	 * @param contentType the mime type of the resource, eg. text/html, may be null if it is unknown
+	 * @param validators true if the headers should have an ETag and a Last-Modified header so that clients can ask if the
+	 * resource has changed instead of downloading it again
+	 */
+	public ResponseHeaderTemplate(ResponseCode responseCode, long contentLength, long lastModified, String contentType,
+			boolean validators) {
+		this(responseCode, contentLength, lastModified, contentType,
+				validators ? createETag(contentLength, lastModified) : null, null);
+	}
+
+	/**
+	 * Creates the headers for a part or a variant of a resource, eg. a 206 Partial Content response or a compressed file
+	 * @param responseCode the response code, eg. 206 Partial Content
+	 * @param contentLength the number of bytes in the body of the response
+	 * @param lastModified the last modified time of the resource
+	 * @param contentType the mime type of the body, may be null if it is unknown
+	 * @param eTag the ETag of the resource including the quotes, the headers has an ETag and a Last-Modified header if it is
+	 * not null
+	 * @param extraHeaders headers that are added as they are before the Date header, each ending with CRLF, eg.
+	 * "Content-Range: bytes 0-499/4360\r\n". May be null
+	 */
+	public ResponseHeaderTemplate(ResponseCode responseCode, long contentLength, long lastModified, String contentType,
+			String eTag, String extraHeaders) {
+		super();
+		this.responseCode = responseCode;
+		this.contentLength = contentLength;
+		this.lastModified = lastModified;
+		this.contentType = contentType;
+		this.eTag = eTag;
+		this.lastModifiedDate = eTag != null ? HttpDate.format(lastModified) : null;
+
+		this.closePrefix = buildPrefix(responseCode, contentLength, contentType, extraHeaders, "close");
+		this.keepAlivePrefix = buildPrefix(responseCode, contentLength, contentType, extraHeaders, "keep-alive");
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Creates the ETag of a resource from its size and last modified time, which changes whenever the file is changed without
+	 * the file having to be read
+	 * @param contentLength the size of the resource in bytes
+	 * @param lastModified the last modified time of the resource
+	 * @return the ETag including the quotes, eg. "1498e4f3a40-1108"
+	 */
+	public static String createETag(long contentLength, long lastModified){
+		return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(contentLength) + "\"";
+	}
+
+	/**
+	 * Creates the ETag of an encoded variant of a resource, it must differ from the ETag of the resource itself since the bytes
+	 * differ
+	 * @param contentLength the size of the resource in bytes(not of the variant)
+	 * @param lastModified the last modified time of the resource
+	 * @param contentEncoding the encoding of the variant, eg. gzip
+	 * @return the ETag including the quotes, eg. "1498e4f3a40-1108-gzip"
+	 */
+	public static String createETag(long contentLength, long lastModified, String contentEncoding){
+		return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(contentLength) + "-" + contentEncoding + "\"";
+	}
+
+	/**
+	 * Builds every header up to and including "Date: "
+	 * @param responseCode the response code, eg. 200 OK
+	 * @param contentLength the size of the resource in bytes
+	 * @param contentType the mime type of the resource, may be null if it is unknown
+	 * @param extraHeaders headers that are added as they are, may be null
+	 * @param connection the value of the Connection header, eg. close
+	 * @return the headers as bytes
+	 */
+	private byte[] buildPrefix(ResponseCode responseCode, long contentLength, String contentType, String extraHeaders,
+			String connection){
+		// First status response, eg. HTTP/1.1 200 OK, then headers that express metadata about the file
+		StringBuilder headers = new StringBuilder(256);
+		headers.append(responseCode.getStatusLine()).append("\r\n");
+		headers.append("Server: PytteWebb-1.0\r\n");
+		if(responseCode != ResponseCode.NOT_MODIFIED){ // a 304 has no body
+			headers.append("Content-Length: ").append(contentLength).append("\r\n");
+		}
+		headers.append("Connection: ").append(connection).append("\r\n");
+		if(responseCode == ResponseCode.OK || responseCode == ResponseCode.PARTIAL_CONTENT){
+			headers.append("Accept-Ranges: bytes\r\n"); // tells the client that it may ask for parts of the file
+		}
+		if(responseCode != ResponseCode.NOT_MODIFIED && responseCode != ResponseCode.RANGE_NOT_SATISFIABLE){
+			headers.append("Content-Type: ").append(contentType != null ? contentType : "application/octet-stream").append("\r\n"); //TODO: fix charset
+		}
+		if(eTag != null){
+			headers.append("ETag: ").append(eTag).append("\r\n");
+			headers.append("Last-Modified: ").append(lastModifiedDate).append("\r\n");
+		}
+		if(extraHeaders != null){
+			headers.append(extraHeaders);
+		}
+		headers.append("Date: "); // Date is last so that it can be appended for every second
+		return headers.toString().getBytes(headerCharset);
+	}
+
+	/**
+	 * Gets the headers, including the ending empty line, with the current date
+	 * @param keepAlive true if the connection is kept open after the response
+	 * @return the headers as bytes, the same array is returned during the same second and must not be changed
+	 */
+	public byte[] render(boolean keepAlive){
+		byte[] date = HttpDate.now();
+		RenderedHeaders headers = keepAlive ? renderedKeepAlive : renderedClose;
+		if(headers == null || headers.date != date){
+			if(keepAlive){
+				headers = new RenderedHeaders(keepAlivePrefix, date);
+				renderedKeepAlive = headers;
+			} else{
+				headers = new RenderedHeaders(closePrefix, date);
+				renderedClose = headers;
+			}
+		}
+		return headers.bytes;
+	}
+
+	/**
+	 * Checks if the template was made for a resource with the specified metadata
+	 * @param responseCode the response code
+	 * @param contentLength the size of the resource in bytes
+	 * @param lastModified the last modified time of the resource
+	 * @return true if the template can be used for the resource
+	 */
+	public boolean matches(ResponseCode responseCode, long contentLength, long lastModified){
+		return this.responseCode == responseCode && this.contentLength == contentLength && this.lastModified == lastModified;
+	}
+
+	/**
+	 * Gets the response code the headers are for
+	 * @return the response code
+	 */
+	public ResponseCode getResponseCode() {
+		return responseCode;
+	}
+
+	/**
+	 * Gets the size of the resource the headers were made for
+	 * @return the size in bytes
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Gets the mime type of the resource the headers were made for
+	 * @return the mime type, eg. text/html, null if it is unknown
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Gets the ETag of the resource
+	 * @return the ETag including the quotes, null if the headers does not have one
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * Gets the Last-Modified date of the resource as it is sent
+	 * @return the date, eg. "Wed, 12 Feb 2014 21:21:15 GMT", null if the headers does not have one
+	 */
+	public String getLastModifiedDate() {
+		return lastModifiedDate;
+	}
+
+	/**
+	 * Gets the last modified time of the resource the headers were made for
+	 * @return the time in milliseconds since 1970
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+
+
+	/**
+	 * The headers with the date patched in
+	 * @author Mattis
+	 *
+	 */
+	private static class RenderedHeaders{
+		// the date that was patched in
+		private final byte[] date;
+
+		// the whole headers
+		private final byte[] bytes;
+
+		private RenderedHeaders(byte[] prefix, byte[] date){
+			this.date = date;
+			this.bytes = new byte[prefix.length + date.length + headerEnd.length];
+			System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+			System.arraycopy(date, 0, bytes, prefix.length, date.length);
+			System.arraycopy(headerEnd, 0, bytes, prefix.length + date.length, headerEnd.length);
+		}
+	}
+
+}
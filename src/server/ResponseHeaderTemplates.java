@@ -0,0 +1,94 @@
+package server;
+
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fileManagement.CompressedVariant;
+import fileManagement.CompressedVariantCache;
+import fileManagement.FileCache;
+
+/**
+ * Keeps a ResponseHeaderTemplate for every resource that has been served, a template is replaced when the resource has changed.
+ * The templates for the gzip compressed variants are kept apart from those of the resources themselves
+ * @author Mattis
+ *
+ */
+public class ResponseHeaderTemplates {
+	// The templates for every response code, keyed by resource. Every map is created up front so looking up a template does
+	// not allocate anything
+	private final EnumMap<ResponseCode, ConcurrentHashMap<String, ResponseHeaderTemplate>> templates =
+			new EnumMap<ResponseCode, ConcurrentHashMap<String, ResponseHeaderTemplate>>(ResponseCode.class);
+	private final EnumMap<ResponseCode, ConcurrentHashMap<String, ResponseHeaderTemplate>> gzipTemplates =
+			new EnumMap<ResponseCode, ConcurrentHashMap<String, ResponseHeaderTemplate>>(ResponseCode.class);
+
+
+	//////////////////////// Constructors /////////////////////////
+	public ResponseHeaderTemplates() {
+		super();
+		for(ResponseCode responseCode : ResponseCode.values()){
+			templates.put(responseCode, new ConcurrentHashMap<String, ResponseHeaderTemplate>());
+			gzipTemplates.put(responseCode, new ConcurrentHashMap<String, ResponseHeaderTemplate>());
+		}
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Gets the template for a resource, creates it if the resource has not been served before or if it has changed
+	 * @param responseCode the response code the headers are for
+	 * @param resource the path to the resource
+	 * @param file what the FileManager knows about the resource
+	 * @return the template
+	 */
+	public ResponseHeaderTemplate getTemplate(ResponseCode responseCode, String resource, FileCache.Entry file){
+		ConcurrentHashMap<String, ResponseHeaderTemplate> resourceTemplates = templates.get(responseCode);
+		ResponseHeaderTemplate template = resourceTemplates.get(resource);
+		if(template == null || !template.matches(responseCode, file.getSize(), file.getLastModified())){
+			// the responses for the resource itself can be validated by the client, error pages can not
+			boolean validators = responseCode == ResponseCode.OK || responseCode == ResponseCode.NOT_MODIFIED;
+			// a resource that can be compressed is sent uncompressed only to clients that does not accept gzip
+			boolean vary = validators && CompressedVariantCache.isCompressible(file.getMimeType());
+			template = new ResponseHeaderTemplate(responseCode, file.getSize(), file.getLastModified(), file.getMimeType(),
+					validators ? ResponseHeaderTemplate.createETag(file.getSize(), file.getLastModified()) : null,
+					vary ? ContentNegotiation.varyHeader : null);
+			resourceTemplates.put(resource, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Gets the template for the gzip compressed variant of a resource, creates it if the variant has not been served before or
+	 * if it has changed
+	 * @param responseCode the response code the headers are for, OK or NOT_MODIFIED
+	 * @param resource the path to the resource
+	 * @param file what the FileManager knows about the resource
+	 * @param variant the compressed variant
+	 * @return the template
+	 */
+	public ResponseHeaderTemplate getGzipTemplate(ResponseCode responseCode, String resource, FileCache.Entry file,
+			CompressedVariant variant){
+		ConcurrentHashMap<String, ResponseHeaderTemplate> resourceTemplates = gzipTemplates.get(responseCode);
+		ResponseHeaderTemplate template = resourceTemplates.get(resource);
+		if(template == null || !template.matches(responseCode, variant.getLength(), variant.getSourceLastModified())){
+			template = new ResponseHeaderTemplate(responseCode, variant.getLength(), variant.getSourceLastModified(),
+					file.getMimeType(), ResponseHeaderTemplate.createETag(variant.getSourceSize(), variant.getSourceLastModified(),
+					"gzip"), ContentNegotiation.gzipHeaders);
+			resourceTemplates.put(resource, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Removes every template
+	 */
+	public void clear(){
+		for(ConcurrentHashMap<String, ResponseHeaderTemplate> resourceTemplates : templates.values()){
+			resourceTemplates.clear();
+		}
+		for(ConcurrentHashMap<String, ResponseHeaderTemplate> resourceTemplates : gzipTemplates.values()){
+			resourceTemplates.clear();
+		}
+	}
+
+}
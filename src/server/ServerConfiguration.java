@@ -0,0 +1,554 @@
+package server;
+
+import java.io.IOException;
+
+import fileManagement.FileManager;
+
+/**
+ * Holds the settings the server is started with, eg. port number and how many worker threads that should handle connections.
+ * Every setting has a default value so only the ones that differ from the defaults has to be given
+ * @author Mattis
+ *
+ */
+public class ServerConfiguration {
+	// The port number the server will listen to
+	private int portNumber = 8080;
+
+	// The engine that serves the requests, the blocking one or the non-blocking one
+	private ServerEngine engine = ServerEngine.BLOCKING;
+
+	// The number of event loop threads the non-blocking engine uses, one per core
+	private int eventLoops = Runtime.getRuntime().availableProcessors();
+
+	// The number of worker threads that handles accepted connections
+	private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+	// The number of accepted connections that may wait for a free worker before new connections are rejected with a 503
+	private int workerQueueLimit = 256;
+
+	// How the accepted connections are executed, on the bounded worker pool or on one virtual thread each
+	private ExecutionMode executionMode = ExecutionMode.POOLED;
+
+	// The number of milliseconds a kept open connection may wait for its next request, 0 closes every connection after one request
+	private int keepAliveTimeout = 5000;
+
+	// The largest number of requests that are served on the same connection
+	private int maxKeepAliveRequests = 100;
+
+	// The number of milliseconds to wait for connections that are being handled to finish when the server shuts down
+	private long drainTimeout = 10000;
+
+	// true if the server sends its metrics as text for the "/metrics" resource
+	private boolean metricsEndpointEnabled = true;
+
+	// The size in bytes from which files are sent from a mapping of the file, 0 if files are never mapped
+	private long mappedFileThreshold = FileManager.defaultMappedFileThreshold;
+
+	// The number of milliseconds between the scans of the document root that keeps the file index current, 0 if it is not indexed
+	private long indexPollInterval = FileManager.defaultIndexPollInterval;
+
+	// The number of synthetic requests that warms up the server before it accepts connections, 0 if it is not warmed up
+	private int warmUpRequests = 0;
+
+	// true if the server exits after the warm-up instead of accepting connections, eg. to write an AppCDS archive
+	private boolean warmUpOnly = false;
+
+	// The file every response is recorded in, null if there is no access log
+	private String accessLogFile = null;
+
+	// The size in bytes the access log may grow to before it is rotated
+	private long accessLogMaxSize = AccessLog.defaultMaxFileSize;
+
+	// The number of connections a single client(IP address) may have open at once, 0 if it is not limited
+	private int clientMaxConnections = ClientLimiter.defaultMaxConnections;
+
+	// The number of requests per second a single client may send, 0 if it is not limited
+	private int clientRequestRate = 0;
+
+	// The number of requests a single client may send at once before its request rate applies, 0 for one second of requests
+	private int clientBurst = 0;
+
+	// The number of milliseconds a request should be answered within before the concurrency limit is cut, 0 if the requests
+	// are not limited
+	private long admissionTargetLatency = 0;
+
+	// The number of requests that may be handled at once before the admission controller has adjusted the limit
+	private int admissionInitialLimit = AdmissionController.defaultInitialLimit;
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates a configuration that uses the default values for every setting
+	 */
+	public ServerConfiguration() {
+		super();
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Creates a configuration from the command line arguments. The first argument may be the port number on its own(as it always
+	 * has been), the other settings are given as name=value, eg. "8080 workers=16 queue=512"
+	 * @param args the command line arguments
+	 * @return the configuration, settings that could not be parsed keeps their default value
+	 */
+	public static ServerConfiguration fromArguments(String[] args){
+		ServerConfiguration configuration = new ServerConfiguration();
+
+		for(int i = 0; i < args.length; i++){
+			String argument = args[i];
+			int separator = argument.indexOf('=');
+			try{
+				if(separator < 0){
+					if(i == 0){
+						configuration.setPortNumber(Integer.parseInt(argument));
+					}
+					continue;
+				}
+				configuration.setSetting(argument.substring(0, separator), argument.substring(separator + 1));
+			} catch(IOException e){
+				// System.out.println("non valid value for " + argument + ", will use the default instead");
+			} catch(IllegalArgumentException e){ // includes NumberFormatException
+				// System.out.println("non valid value for " + argument + ", will use the default instead");
+			}
+		}
+
+		return configuration;
+	}
+
+	/**
+	 * Sets a single setting by its name
+	 * @param name the name of the setting, eg. "workers"
+	 * @param value the value as a String
+	 * @throws IOException if the value is out of range for the setting
+	 */
+	private void setSetting(String name, String value) throws IOException{
+		if(name.equals("port")){
+			setPortNumber(Integer.parseInt(value));
+		} else if(name.equals("engine")){
+			setEngine(ServerEngine.valueOf(value.toUpperCase()));
+		} else if(name.equals("loops")){
+			setEventLoops(Integer.parseInt(value));
+		} else if(name.equals("workers")){
+			setWorkerThreads(Integer.parseInt(value));
+		} else if(name.equals("queue")){
+			setWorkerQueueLimit(Integer.parseInt(value));
+		} else if(name.equals("execution")){
+			setExecutionMode(ExecutionMode.valueOf(value.toUpperCase()));
+		} else if(name.equals("keepalive")){
+			setKeepAliveTimeout(Integer.parseInt(value));
+		} else if(name.equals("maxrequests")){
+			setMaxKeepAliveRequests(Integer.parseInt(value));
+		} else if(name.equals("drain")){
+			setDrainTimeout(Long.parseLong(value));
+		} else if(name.equals("metrics")){
+			setMetricsEndpointEnabled(Boolean.parseBoolean(value));
+		} else if(name.equals("mmap")){
+			setMappedFileThreshold(Long.parseLong(value));
+		} else if(name.equals("index")){
+			setIndexPollInterval(Long.parseLong(value));
+		} else if(name.equals("warmup")){
+			setWarmUpRequests(Integer.parseInt(value));
+		} else if(name.equals("warmuponly")){
+			setWarmUpOnly(Boolean.parseBoolean(value));
+		} else if(name.equals("accesslog")){
+			setAccessLogFile(value.length() > 0 ? value : null);
+		} else if(name.equals("accesslogsize")){
+			setAccessLogMaxSize(Long.parseLong(value));
+		} else if(name.equals("clientconnections")){
+			setClientMaxConnections(Integer.parseInt(value));
+		} else if(name.equals("clientrate")){
+			setClientRequestRate(Integer.parseInt(value));
+		} else if(name.equals("clientburst")){
+			setClientBurst(Integer.parseInt(value));
+		} else if(name.equals("admission")){
+			setAdmissionTargetLatency(Long.parseLong(value));
+		} else if(name.equals("admissionlimit")){
+			setAdmissionInitialLimit(Integer.parseInt(value));
+		}
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * gets the portnumber
+	 * @return the current portnumber as an integer
+	 */
+	public int getPortNumber() {
+		return portNumber;
+	}
+
+	/**
+	 * sets the portnumber
+	 * @param portNumber the port number to be used by the server
+	 * @throws IOException throws IOException if the portnumber is out of range(bigger than 65535 or smaller than 1)
+	 */
+	public void setPortNumber(int portNumber) throws IOException{
+		if(portNumber > 65535 || portNumber < 1) throw new IOException("Number out of bounds");
+		this.portNumber = portNumber;
+	}
+
+	/**
+	 * Gets the engine that serves the requests
+	 * @return the engine as a ServerEngine enum
+	 */
+	public ServerEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Sets the engine that serves the requests
+	 * @param engine the engine as a ServerEngine enum
+	 */
+	public void setEngine(ServerEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Gets the number of event loop threads used by the non-blocking engine
+	 * @return the number of event loops
+	 */
+	public int getEventLoops() {
+		return eventLoops;
+	}
+
+	/**
+	 * Sets the number of event loop threads used by the non-blocking engine
+	 * @param eventLoops the number of event loops, must be at least 1
+	 * @throws IOException if the number is smaller than 1
+	 */
+	public void setEventLoops(int eventLoops) throws IOException{
+		if(eventLoops < 1) throw new IOException("Number out of bounds");
+		this.eventLoops = eventLoops;
+	}
+
+	/**
+	 * Gets the number of worker threads that handles the accepted connections
+	 * @return the number of worker threads
+	 */
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * Sets the number of worker threads that handles the accepted connections
+	 * @param workerThreads the number of worker threads, must be at least 1
+	 * @throws IOException if the number is smaller than 1
+	 */
+	public void setWorkerThreads(int workerThreads) throws IOException{
+		if(workerThreads < 1) throw new IOException("Number out of bounds");
+		this.workerThreads = workerThreads;
+	}
+
+	/**
+	 * Gets the number of connections that may wait for a worker before they are rejected
+	 * @return the queue limit
+	 */
+	public int getWorkerQueueLimit() {
+		return workerQueueLimit;
+	}
+
+	/**
+	 * Sets the number of connections that may wait for a worker before they are rejected
+	 * @param workerQueueLimit the queue limit, must be at least 1
+	 * @throws IOException if the number is smaller than 1
+	 */
+	public void setWorkerQueueLimit(int workerQueueLimit) throws IOException{
+		if(workerQueueLimit < 1) throw new IOException("Number out of bounds");
+		this.workerQueueLimit = workerQueueLimit;
+	}
+
+	/**
+	 * Gets how the accepted connections are executed
+	 * @return the execution mode as an ExecutionMode enum
+	 */
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/**
+	 * Sets how the accepted connections are executed
+	 * @param executionMode the execution mode as an ExecutionMode enum
+	 */
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
+
+	/**
+	 * Gets the number of milliseconds a kept open connection may wait for its next request
+	 * @return the keep-alive timeout in milliseconds, 0 if connections are closed after every request
+	 */
+	public int getKeepAliveTimeout() {
+		return keepAliveTimeout;
+	}
+
+	/**
+	 * Sets the number of milliseconds a kept open connection may wait for its next request
+	 * @param keepAliveTimeout the keep-alive timeout in milliseconds, 0 closes every connection after one request
+	 * @throws IOException if the number is negative
+	 */
+	public void setKeepAliveTimeout(int keepAliveTimeout) throws IOException{
+		if(keepAliveTimeout < 0) throw new IOException("Number out of bounds");
+		this.keepAliveTimeout = keepAliveTimeout;
+	}
+
+	/**
+	 * Gets the largest number of requests that are served on the same connection
+	 * @return the max number of requests per connection
+	 */
+	public int getMaxKeepAliveRequests() {
+		return maxKeepAliveRequests;
+	}
+
+	/**
+	 * Sets the largest number of requests that are served on the same connection
+	 * @param maxKeepAliveRequests the max number of requests per connection, must be at least 1
+	 * @throws IOException if the number is smaller than 1
+	 */
+	public void setMaxKeepAliveRequests(int maxKeepAliveRequests) throws IOException{
+		if(maxKeepAliveRequests < 1) throw new IOException("Number out of bounds");
+		this.maxKeepAliveRequests = maxKeepAliveRequests;
+	}
+
+	/**
+	 * Checks if connections may be kept open for more than one request
+	 * @return true if keep-alive is enabled
+	 */
+	public boolean isKeepAliveEnabled() {
+		return keepAliveTimeout > 0 && maxKeepAliveRequests > 1;
+	}
+
+	/**
+	 * Gets the number of milliseconds the server waits for connections to finish when shutting down
+	 * @return the drain timeout in milliseconds
+	 */
+	public long getDrainTimeout() {
+		return drainTimeout;
+	}
+
+	/**
+	 * Sets the number of milliseconds the server waits for connections to finish when shutting down
+	 * @param drainTimeout the drain timeout in milliseconds, 0 means that the server does not wait at all
+	 * @throws IOException if the number is negative
+	 */
+	public void setDrainTimeout(long drainTimeout) throws IOException{
+		if(drainTimeout < 0) throw new IOException("Number out of bounds");
+		this.drainTimeout = drainTimeout;
+	}
+
+	/**
+	 * Checks if the server sends its metrics for the "/metrics" resource
+	 * @return true if the metrics are sent, false if "/metrics" is served as any other file
+	 */
+	public boolean isMetricsEndpointEnabled() {
+		return metricsEndpointEnabled;
+	}
+
+	/**
+	 * Sets if the server sends its metrics for the "/metrics" resource
+	 * @param metricsEndpointEnabled true to send the metrics, false to serve "/metrics" as any other file
+	 */
+	public void setMetricsEndpointEnabled(boolean metricsEndpointEnabled) {
+		this.metricsEndpointEnabled = metricsEndpointEnabled;
+	}
+
+	/**
+	 * Gets the size from which files are sent from a mapping of the file
+	 * @return the size in bytes, 0 if files are never mapped
+	 */
+	public long getMappedFileThreshold() {
+		return mappedFileThreshold;
+	}
+
+	/**
+	 * Sets the size from which files are sent from a mapping of the file instead of being streamed or transferred
+	 * @param mappedFileThreshold the size in bytes, 0 to never map files
+	 * @throws IOException if the number is negative
+	 */
+	public void setMappedFileThreshold(long mappedFileThreshold) throws IOException{
+		if(mappedFileThreshold < 0) throw new IOException("Number out of bounds");
+		this.mappedFileThreshold = mappedFileThreshold;
+	}
+
+	/**
+	 * Gets the number of milliseconds between the scans of the document root that keeps the file index current
+	 * @return the number of milliseconds, 0 if the document root is not indexed
+	 */
+	public long getIndexPollInterval() {
+		return indexPollInterval;
+	}
+
+	/**
+	 * Sets the number of milliseconds between the scans of the document root that keeps the file index current, a change to a
+	 * file is seen at most this long after it was made
+	 * @param indexPollInterval the number of milliseconds, 0 to look up the files on the disk instead of indexing them
+	 * @throws IOException if the number is negative
+	 */
+	public void setIndexPollInterval(long indexPollInterval) throws IOException{
+		if(indexPollInterval < 0) throw new IOException("Number out of bounds");
+		this.indexPollInterval = indexPollInterval;
+	}
+
+	/**
+	 * Gets the number of synthetic requests that warms up the server before it accepts connections
+	 * @return the number of requests, 0 if the server is not warmed up
+	 */
+	public int getWarmUpRequests() {
+		return warmUpRequests;
+	}
+
+	/**
+	 * Sets the number of synthetic requests that warms up the server before it accepts connections
+	 * @param warmUpRequests the number of requests, 0 to not warm up the server
+	 * @throws IOException if the number is negative
+	 */
+	public void setWarmUpRequests(int warmUpRequests) throws IOException{
+		if(warmUpRequests < 0) throw new IOException("Number out of bounds");
+		this.warmUpRequests = warmUpRequests;
+	}
+
+	/**
+	 * Checks if the server exits after the warm-up instead of accepting connections
+	 * @return true if it only warms up
+	 */
+	public boolean isWarmUpOnly() {
+		return warmUpOnly;
+	}
+
+	/**
+	 * Sets if the server exits after the warm-up instead of accepting connections, eg. for the training run that writes an
+	 * AppCDS archive. The default number of warm-up requests are run if no number has been set
+	 * @param warmUpOnly true to exit after the warm-up
+	 */
+	public void setWarmUpOnly(boolean warmUpOnly) {
+		this.warmUpOnly = warmUpOnly;
+	}
+
+	/**
+	 * Gets the file every response is recorded in
+	 * @return the name of the file, null if there is no access log
+	 */
+	public String getAccessLogFile() {
+		return accessLogFile;
+	}
+
+	/**
+	 * Sets the file every response is recorded in
+	 * @param accessLogFile the name of the file, null for no access log
+	 */
+	public void setAccessLogFile(String accessLogFile) {
+		this.accessLogFile = accessLogFile;
+	}
+
+	/**
+	 * Gets the size the access log may grow to before it is rotated
+	 * @return the size in bytes
+	 */
+	public long getAccessLogMaxSize() {
+		return accessLogMaxSize;
+	}
+
+	/**
+	 * Sets the size the access log may grow to before it is rotated
+	 * @param accessLogMaxSize the size in bytes, must be at least 1
+	 * @throws IOException if the number is smaller than 1
+	 */
+	public void setAccessLogMaxSize(long accessLogMaxSize) throws IOException{
+		if(accessLogMaxSize < 1) throw new IOException("Number out of bounds");
+		this.accessLogMaxSize = accessLogMaxSize;
+	}
+
+	/**
+	 * Gets the number of connections a single client may have open at once
+	 * @return the number of connections, 0 if it is not limited
+	 */
+	public int getClientMaxConnections() {
+		return clientMaxConnections;
+	}
+
+	/**
+	 * Sets the number of connections a single client(IP address) may have open at once, the connections above that are rejected
+	 * with a 503
+	 * @param clientMaxConnections the number of connections, 0 to not limit it
+	 * @throws IOException if the number is negative
+	 */
+	public void setClientMaxConnections(int clientMaxConnections) throws IOException{
+		if(clientMaxConnections < 0) throw new IOException("Number out of bounds");
+		this.clientMaxConnections = clientMaxConnections;
+	}
+
+	/**
+	 * Gets the number of requests per second a single client may send
+	 * @return the number of requests per second, 0 if it is not limited
+	 */
+	public int getClientRequestRate() {
+		return clientRequestRate;
+	}
+
+	/**
+	 * Sets the number of requests per second a single client(IP address) may send, the requests above that are answered with a
+	 * 429
+	 * @param clientRequestRate the number of requests per second, 0 to not limit it
+	 * @throws IOException if the number is negative
+	 */
+	public void setClientRequestRate(int clientRequestRate) throws IOException{
+		if(clientRequestRate < 0) throw new IOException("Number out of bounds");
+		this.clientRequestRate = clientRequestRate;
+	}
+
+	/**
+	 * Gets the number of requests a single client may send at once before its request rate applies
+	 * @return the number of requests, the request rate if no burst has been set
+	 */
+	public int getClientBurst() {
+		return clientBurst > 0 ? clientBurst : Math.max(1, clientRequestRate);
+	}
+
+	/**
+	 * Sets the number of requests a single client may send at once before its request rate applies
+	 * @param clientBurst the number of requests, 0 for one second of requests
+	 * @throws IOException if the number is negative
+	 */
+	public void setClientBurst(int clientBurst) throws IOException{
+		if(clientBurst < 0) throw new IOException("Number out of bounds");
+		this.clientBurst = clientBurst;
+	}
+
+	/**
+	 * Gets the number of milliseconds a request should be answered within before the concurrency limit is cut
+	 * @return the number of milliseconds, 0 if the requests are not limited
+	 */
+	public long getAdmissionTargetLatency() {
+		return admissionTargetLatency;
+	}
+
+	/**
+	 * Sets the number of milliseconds a request should be answered within before the concurrency limit is cut
+	 * @param admissionTargetLatency the number of milliseconds, 0 to handle every request
+	 * @throws IOException if the number is negative
+	 */
+	public void setAdmissionTargetLatency(long admissionTargetLatency) throws IOException{
+		if(admissionTargetLatency < 0) throw new IOException("Number out of bounds");
+		this.admissionTargetLatency = admissionTargetLatency;
+	}
+
+	/**
+	 * Gets the number of requests that may be handled at once before the admission controller has adjusted the limit
+	 * @return the initial limit
+	 */
+	public int getAdmissionInitialLimit() {
+		return admissionInitialLimit;
+	}
+
+	/**
+	 * Sets the number of requests that may be handled at once before the admission controller has adjusted the limit
+	 * @param admissionInitialLimit the initial limit, must be at least 1
+	 * @throws IOException if the number is smaller than 1
+	 */
+	public void setAdmissionInitialLimit(int admissionInitialLimit) throws IOException{
+		if(admissionInitialLimit < 1) throw new IOException("Number out of bounds");
+		this.admissionInitialLimit = admissionInitialLimit;
+	}
+
+}
@@ -0,0 +1,11 @@
+package server;
+
+/**
+ * Represents the engines that can be used to serve the requests
+ * @author Mattis
+ *
+ */
+public enum ServerEngine {
+	// BLOCKING = TCPWebServer with one thread per connection, NIO = NioWebServer with a few event loops sharing every connection
+	BLOCKING, NIO;
+}
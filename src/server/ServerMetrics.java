@@ -0,0 +1,418 @@
+package server;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import metrics.LatencyHistogram;
+import metrics.StripedCounter;
+import fileManagement.FileCache;
+import fileManagement.BufferPool;
+import fileManagement.CompressedVariantCache;
+import fileManagement.DocumentIndex;
+import fileManagement.FileManager;
+import fileManagement.MappedFileCache;
+
+/**
+ * Counts what the server does: connections, requests, responses, bytes and how long parsing requests and copying files takes.
+ * Everything that is counted on the request path is a striped counter or a lock-free histogram so that the threads that
+ * handles requests never wait for each other to count. The metrics can be read through JMX and as text from the /metrics
+ * resource of the server
+ * @author Mattis
+ *
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+	/************************* variabels **********************/
+	
+	// The content type of the text the /metrics resource sends, the format that Prometheus reads
+	public static final String textContentType = "text/plain; version=0.0.4";
+	
+	// The percentiles that are shown for the times
+	private static final double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+	
+	// Connections
+	private final StripedCounter acceptedConnections = new StripedCounter();
+	private final StripedCounter activeConnections = new StripedCounter();
+	
+	// Requests by their command, and the ones that were not valid
+	private final StripedCounter[] requests = new StripedCounter[RequestCommands.values().length];
+	private final StripedCounter invalidRequests = new StripedCounter();
+	
+	// Responses by their code
+	private final StripedCounter[] responses = new StripedCounter[ResponseCode.values().length];
+	
+	// The number of bytes that has been sent
+	private final StripedCounter bytesSent = new StripedCounter();
+	
+	// The time it takes to parse a request in nanoseconds, and to copy a file to the connection in microseconds
+	private final LatencyHistogram parseTime = new LatencyHistogram();
+	private final LatencyHistogram fileTime = new LatencyHistogram();
+	
+	// The name the metrics are registered with in JMX, null if they are not registered
+	private ObjectName registeredName;
+	
+	// The access log of the server, null if it has none
+	private volatile AccessLog accessLog;
+	
+	// The limiter of the connections and request rate of the clients, null if they are not limited
+	private volatile ClientLimiter clientLimiter;
+	
+	// The controller that sheds the requests above the concurrency limit, null if every request is handled
+	private volatile AdmissionController admissionController;
+	
+	
+	/*************** Constructors *****************/
+	/**
+	 * Creates metrics where everything is 0
+	 */
+	public ServerMetrics() {
+		super();
+		for(int i = 0; i < requests.length; i++){
+			requests[i] = new StripedCounter();
+		}
+		for(int i = 0; i < responses.length; i++){
+			responses[i] = new StripedCounter();
+		}
+	}
+	
+	
+	/************************** methods **************************/
+	
+	/**
+	 * Counts a connection that has been accepted, it is active until connectionClosed is called for it
+	 */
+	public void connectionAccepted(){
+		acceptedConnections.increment();
+		activeConnections.increment();
+	}
+	
+	/**
+	 * Counts a connection that has been closed, must be called once for every accepted connection
+	 */
+	public void connectionClosed(){
+		activeConnections.decrement();
+	}
+	
+	/**
+	 * Records how long it took to parse a request
+	 * @param nanos the time in nanoseconds
+	 */
+	public void requestParsed(long nanos){
+		parseTime.record(nanos);
+	}
+	
+	/**
+	 * Counts a request by its command
+	 * @param request the request
+	 */
+	public void requestRecieved(Request request){
+		if(request.isValidRequest() && request.getRequestCommand() != null){
+			requests[request.getRequestCommand().ordinal()].increment();
+		} else{
+			invalidRequests.increment();
+		}
+	}
+	
+	/**
+	 * Counts a response that has been sent
+	 * @param responseCode the code of the response, for HTTP/0.9 the code the response would have had
+	 */
+	public void responseSent(ResponseCode responseCode){
+		responses[responseCode.ordinal()].increment();
+	}
+	
+	/**
+	 * Counts bytes that has been sent
+	 * @param bytes the number of bytes
+	 */
+	public void bytesSent(long bytes){
+		bytesSent.add(bytes);
+	}
+	
+	/**
+	 * Records how long it took to copy a file to a connection
+	 * @param nanos the time in nanoseconds
+	 */
+	public void fileCopied(long nanos){
+		fileTime.record(nanos / 1000);
+	}
+	
+	/**
+	 * Registers the metrics with the platform MBean server so that they can be read through JMX
+	 * @param port the port of the server, used in the name so that more than one server in the same process can be told apart
+	 */
+	public void register(int port){
+		try {
+			ObjectName name = new ObjectName("PytteWebb:type=ServerMetrics,port=" + port);
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			if(!mbeanServer.isRegistered(name)){
+				mbeanServer.registerMBean(this, name);
+				registeredName = name;
+			}
+		} catch (JMException e) {
+			// the server works without JMX
+			System.out.println("could not register the metrics with JMX: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Removes the metrics from the platform MBean server if they were registered
+	 */
+	public void unregister(){
+		if(registeredName == null){
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch (JMException e) {
+			// already gone
+		}
+		registeredName = null;
+	}
+	
+	/**
+	 * Makes the metrics include the records of an access log
+	 * @param accessLog the access log of the server, null if it has none
+	 */
+	public void setAccessLog(AccessLog accessLog){
+		this.accessLog = accessLog;
+	}
+	
+	/**
+	 * Makes the metrics include what the client limiter has rejected
+	 * @param clientLimiter the limiter of the server, null if the clients are not limited
+	 */
+	public void setClientLimiter(ClientLimiter clientLimiter){
+		this.clientLimiter = clientLimiter;
+	}
+	
+	/**
+	 * Makes the metrics include the limit and the decisions of the admission controller
+	 * @param admissionController the controller of the server, null if every request is handled
+	 */
+	public void setAdmissionController(AdmissionController admissionController){
+		this.admissionController = admissionController;
+	}
+	
+	/**
+	 * Writes every metric as text in the format that Prometheus reads
+	 * @return the metrics as text
+	 */
+	public String toText(){
+		StringBuilder text = new StringBuilder(2048);
+		appendType(text, "pytteweb_connections_accepted_total", "counter");
+		appendValue(text, "pytteweb_connections_accepted_total", null, acceptedConnections.sum());
+		appendType(text, "pytteweb_connections_active", "gauge");
+		appendValue(text, "pytteweb_connections_active", null, activeConnections.sum());
+		
+		appendType(text, "pytteweb_requests_total", "counter");
+		for(RequestCommands command : RequestCommands.values()){
+			appendValue(text, "pytteweb_requests_total", "command=\"" + command + "\"", requests[command.ordinal()].sum());
+		}
+		appendValue(text, "pytteweb_requests_total", "command=\"INVALID\"", invalidRequests.sum());
+		
+		appendType(text, "pytteweb_responses_total", "counter");
+		for(ResponseCode code : ResponseCode.values()){
+			appendValue(text, "pytteweb_responses_total", "code=\"" + code.getCode() + "\"", responses[code.ordinal()].sum());
+		}
+		appendType(text, "pytteweb_not_found_ratio", "gauge");
+		appendValue(text, "pytteweb_not_found_ratio", null, getNotFoundRatio());
+		appendType(text, "pytteweb_bad_request_ratio", "gauge");
+		appendValue(text, "pytteweb_bad_request_ratio", null, getBadRequestRatio());
+		
+		appendType(text, "pytteweb_bytes_sent_total", "counter");
+		appendValue(text, "pytteweb_bytes_sent_total", null, bytesSent.sum());
+		
+		appendSummary(text, "pytteweb_parse_time_nanoseconds", parseTime);
+		appendSummary(text, "pytteweb_file_time_microseconds", fileTime);
+		
+		FileCache cache = FileManager.getInstance().getCache();
+		appendType(text, "pytteweb_file_cache_hits_total", "counter");
+		appendValue(text, "pytteweb_file_cache_hits_total", null, cache.getHits());
+		appendType(text, "pytteweb_file_cache_misses_total", "counter");
+		appendValue(text, "pytteweb_file_cache_misses_total", null, cache.getMisses());
+		appendType(text, "pytteweb_file_cache_bytes", "gauge");
+		appendValue(text, "pytteweb_file_cache_bytes", null, cache.getCurrentBytes());
+		CompressedVariantCache compressedCache = FileManager.getInstance().getCompressedCache();
+		appendType(text, "pytteweb_compressed_cache_hits_total", "counter");
+		appendValue(text, "pytteweb_compressed_cache_hits_total", null, compressedCache.getHits());
+		appendType(text, "pytteweb_compressed_cache_compressions_total", "counter");
+		appendValue(text, "pytteweb_compressed_cache_compressions_total", null, compressedCache.getCompressions());
+		appendType(text, "pytteweb_compressed_cache_bytes", "gauge");
+		appendValue(text, "pytteweb_compressed_cache_bytes", null, compressedCache.getCurrentBytes());
+		MappedFileCache mappedFiles = FileManager.getInstance().getMappedFiles();
+		appendType(text, "pytteweb_mapped_files_hits_total", "counter");
+		appendValue(text, "pytteweb_mapped_files_hits_total", null, mappedFiles.getHits());
+		appendType(text, "pytteweb_mapped_files_misses_total", "counter");
+		appendValue(text, "pytteweb_mapped_files_misses_total", null, mappedFiles.getMisses());
+		appendType(text, "pytteweb_mapped_files_unmaps_total", "counter");
+		appendValue(text, "pytteweb_mapped_files_unmaps_total", null, mappedFiles.getUnmaps());
+		appendType(text, "pytteweb_mapped_files_bytes", "gauge");
+		appendValue(text, "pytteweb_mapped_files_bytes", null, mappedFiles.getCurrentBytes());
+		DocumentIndex index = FileManager.getInstance().getIndex();
+		if(index != null){
+			appendType(text, "pytteweb_document_index_files", "gauge");
+			appendValue(text, "pytteweb_document_index_files", null, index.getFileCount());
+			appendType(text, "pytteweb_document_index_scans_total", "counter");
+			appendValue(text, "pytteweb_document_index_scans_total", null, index.getScans());
+			appendType(text, "pytteweb_document_index_changes_total", "counter");
+			appendValue(text, "pytteweb_document_index_changes_total", null, index.getChanges());
+		}
+		AccessLog log = accessLog;
+		if(log != null){
+			appendType(text, "pytteweb_access_log_records_total", "counter");
+			appendValue(text, "pytteweb_access_log_records_total", null, log.getWritten());
+			appendType(text, "pytteweb_access_log_dropped_total", "counter");
+			appendValue(text, "pytteweb_access_log_dropped_total", null, log.getDropped());
+			appendType(text, "pytteweb_access_log_pending", "gauge");
+			appendValue(text, "pytteweb_access_log_pending", null, log.getPending());
+			appendType(text, "pytteweb_access_log_rotations_total", "counter");
+			appendValue(text, "pytteweb_access_log_rotations_total", null, log.getRotations());
+		}
+		ClientLimiter limiter = clientLimiter;
+		if(limiter != null){
+			appendType(text, "pytteweb_client_limiter_clients", "gauge");
+			appendValue(text, "pytteweb_client_limiter_clients", null, limiter.getTrackedClients());
+			appendType(text, "pytteweb_client_limiter_rejected_connections_total", "counter");
+			appendValue(text, "pytteweb_client_limiter_rejected_connections_total", null, limiter.getRejectedConnections());
+			appendType(text, "pytteweb_client_limiter_limited_requests_total", "counter");
+			appendValue(text, "pytteweb_client_limiter_limited_requests_total", null, limiter.getLimitedRequests());
+			appendType(text, "pytteweb_client_limiter_evictions_total", "counter");
+			appendValue(text, "pytteweb_client_limiter_evictions_total", null, limiter.getEvictions());
+		}
+		AdmissionController admission = admissionController;
+		if(admission != null){
+			appendType(text, "pytteweb_admission_limit", "gauge");
+			appendValue(text, "pytteweb_admission_limit", null, admission.getLimit());
+			appendType(text, "pytteweb_admission_in_flight", "gauge");
+			appendValue(text, "pytteweb_admission_in_flight", null, admission.getInFlight());
+			appendType(text, "pytteweb_admission_target_latency_milliseconds", "gauge");
+			appendValue(text, "pytteweb_admission_target_latency_milliseconds", null, admission.getTargetLatencyMillis());
+			appendType(text, "pytteweb_admission_admitted_total", "counter");
+			appendValue(text, "pytteweb_admission_admitted_total", null, admission.getAdmitted());
+			appendType(text, "pytteweb_admission_shed_total", "counter");
+			appendValue(text, "pytteweb_admission_shed_total", null, admission.getShed());
+			appendType(text, "pytteweb_admission_decreases_total", "counter");
+			appendValue(text, "pytteweb_admission_decreases_total", null, admission.getDecreases());
+			appendSummary(text, "pytteweb_admission_latency_microseconds", admission.getLatency());
+		}
+		BufferPool bufferPool = BufferPool.getInstance();
+		appendType(text, "pytteweb_buffer_pool_allocations_total", "counter");
+		appendValue(text, "pytteweb_buffer_pool_allocations_total", null, bufferPool.getAllocations());
+		appendType(text, "pytteweb_buffer_pool_allocated_bytes_total", "counter");
+		appendValue(text, "pytteweb_buffer_pool_allocated_bytes_total", null, bufferPool.getAllocatedBytes());
+		appendType(text, "pytteweb_buffer_pool_discards_total", "counter");
+		appendValue(text, "pytteweb_buffer_pool_discards_total", null, bufferPool.getDiscards());
+		return text.toString();
+	}
+	
+	private static void appendType(StringBuilder text, String name, String type){
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+	
+	private static void appendValue(StringBuilder text, String name, String labels, Object value){
+		text.append(name);
+		if(labels != null){
+			text.append('{').append(labels).append('}');
+		}
+		text.append(' ').append(value instanceof Double ? String.format(Locale.US, "%.6f", value) : value).append('\n');
+	}
+	
+	private static void appendSummary(StringBuilder text, String name, LatencyHistogram histogram){
+		appendType(text, name, "summary");
+		for(double quantile : quantiles){
+			appendValue(text, name, "quantile=\"" + quantile + "\"", histogram.getValueAtPercentile(quantile * 100));
+		}
+		appendValue(text, name + "_sum", null, histogram.getTotalSum());
+		appendValue(text, name + "_count", null, histogram.getTotalCount());
+	}
+	
+	/**
+	 * Gets the share of the responses that had a code
+	 */
+	private double responseRatio(ResponseCode responseCode){
+		long total = 0;
+		for(StripedCounter counter : responses){
+			total += counter.sum();
+		}
+		return total == 0 ? 0 : (double) responses[responseCode.ordinal()].sum() / total;
+	}
+	
+	
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	
+	@Override
+	public long getAcceptedConnections() {
+		return acceptedConnections.sum();
+	}
+	
+	@Override
+	public long getActiveConnections() {
+		return activeConnections.sum();
+	}
+	
+	@Override
+	public Map<String, Long> getRequests() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for(RequestCommands command : RequestCommands.values()){
+			counts.put(command.toString(), requests[command.ordinal()].sum());
+		}
+		counts.put("INVALID", invalidRequests.sum());
+		return counts;
+	}
+	
+	@Override
+	public Map<String, Long> getResponses() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for(ResponseCode code : ResponseCode.values()){
+			counts.put(Integer.toString(code.getCode()), responses[code.ordinal()].sum());
+		}
+		return counts;
+	}
+	
+	@Override
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+	
+	@Override
+	public double getNotFoundRatio() {
+		return responseRatio(ResponseCode.NOT_FOUND);
+	}
+	
+	@Override
+	public double getBadRequestRatio() {
+		return responseRatio(ResponseCode.BAD_REQUEST);
+	}
+	
+	@Override
+	public long getParseTimeP50Nanos() {
+		return parseTime.getValueAtPercentile(50);
+	}
+	
+	@Override
+	public long getParseTimeP99Nanos() {
+		return parseTime.getValueAtPercentile(99);
+	}
+	
+	@Override
+	public long getFileTimeP50Micros() {
+		return fileTime.getValueAtPercentile(50);
+	}
+	
+	@Override
+	public long getFileTimeP99Micros() {
+		return fileTime.getValueAtPercentile(99);
+	}
+	
+	@Override
+	public double getFileCacheHitRatio() {
+		return FileManager.getInstance().getCache().getHitRatio();
+	}
+	
+}
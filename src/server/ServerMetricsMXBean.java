@@ -0,0 +1,72 @@
+package server;
+
+import java.util.Map;
+
+/**
+ * What the server metrics shows through JMX, eg. in jconsole under "PytteWebb"
+ * @author Mattis
+ *
+ */
+public interface ServerMetricsMXBean {
+	
+	/**
+	 * @return the number of connections that has been accepted since the server started
+	 */
+	long getAcceptedConnections();
+	
+	/**
+	 * @return the number of connections that are open right now
+	 */
+	long getActiveConnections();
+	
+	/**
+	 * @return the number of requests for every request command, invalid requests are counted as "INVALID"
+	 */
+	Map<String, Long> getRequests();
+	
+	/**
+	 * @return the number of responses for every response code, eg. "404"
+	 */
+	Map<String, Long> getResponses();
+	
+	/**
+	 * @return the number of bytes that has been sent, headers included
+	 */
+	long getBytesSent();
+	
+	/**
+	 * @return the share of the responses that were 404 Not Found
+	 */
+	double getNotFoundRatio();
+	
+	/**
+	 * @return the share of the responses that were 400 Bad Request
+	 */
+	double getBadRequestRatio();
+	
+	/**
+	 * @return the median time it takes to parse a request in nanoseconds
+	 */
+	long getParseTimeP50Nanos();
+	
+	/**
+	 * @return the time that 99% of the requests are parsed within in nanoseconds
+	 */
+	long getParseTimeP99Nanos();
+	
+	/**
+	 * @return the median time it takes to copy a file to the connection in microseconds
+	 */
+	long getFileTimeP50Micros();
+	
+	/**
+	 * @return the time that 99% of the files are copied to the connection within in microseconds
+	 */
+	long getFileTimeP99Micros();
+	
+	/**
+	 * @return the share of the file lookups that were answered from the file cache
+	 */
+	double getFileCacheHitRatio();
+	
+}
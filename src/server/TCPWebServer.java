@@ -1,24 +1,34 @@
 package server;
 
-import java.io.DataOutputStream;
-import java.io.FileNotFoundException;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Date;
-import java.util.Scanner;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import fileManagement.BufferPool;
+import fileManagement.ChannelOutputStream;
 import fileManagement.FileManager;
 
 /**
  * An HTTP-server that implements the logic necessary to communicate with the client.
  * The HTTP protocol it uses is 1.1 although it also provides support for 1.0 and 0.9.
+ * This is the blocking engine where every connection is handled by its own thread, see NioWebServer for the non-blocking engine
  * @author Mattis
  *
  */
-public class TCPWebServer {
+public class TCPWebServer implements WebServer {
 	/************************* variabels **********************/
 	
 	// The port number the server will listen to
@@ -29,13 +39,33 @@ public class TCPWebServer {
 	// The ServerSocket on to which the server will listen and accept requests from
 	private ServerSocket serverSocket;
 	
+	// The settings the server was started with, eg. the number of worker threads
+	private ServerConfiguration configuration;
+	
+	// The worker threads that handles the accepted connections, created when the server is started
+	private ExecutorService workers;
+	
+	// Counts the connections, requests and responses
+	private final ServerMetrics metrics = new ServerMetrics();
+	
+	// Generates and sends the responses
+	private final RequestProcessor processor;
+	
+	// Records every response, null if the server has no access log
+	private final AccessLog accessLog;
+	
+	// Limits the connections and the request rate of every client, null if they are not limited
+	private final ClientLimiter clientLimiter;
+	
 	// when set to true the server will quit
 	private volatile boolean exit = false;
 	
-	// used to make sure nobody DOS's the server by different means, eg sending "hello" instead of "hello\r\n"
+	// used to make sure nobody DOS's the server by different means, eg sending "hello" instead of "hello\r\n". A client that
+	// opens too many connections or sends too many requests is stopped by the clientLimiter
 	private int defaultSOTimeout = 500000;
 	
-	// used to make sure that the readrequest method does not bug out for unknown reasons
+	// the number of milliseconds a client has to send the whole request, also makes sure a client that never ends its request
+	// does not keep a worker forever
 	private int defaultReadRequestLimit = 10000; // one only got 10 seconds when using the telnet command prompt
 	
 	
@@ -60,6 +90,16 @@ public class TCPWebServer {
 	 */
 	public static final String indexFile = "index.html";
 	
+	/**
+	 * The response sent to connections that are rejected because every worker is busy and the queue is full, or because the
+	 * client already has as many connections open as it may
+	 */
+	static final byte[] serviceUnavailableResponse = ("HTTP/1.1 503 Service Unavailable\r\n" +
+			"Server: PytteWebb-1.0\r\n" +
+			"Content-Length: 0\r\n" +
+			"Connection: close\r\n" +
+			"Retry-After: 1\r\n\r\n").getBytes();
+	
 	
 	
 	/*************** Constructors *****************/
@@ -68,7 +108,7 @@ public class TCPWebServer {
 	 * @throws IOException if a server socket could not be created for the standard portnumber which is 8080, eg. if it is already in use
 	 */
 	public TCPWebServer() throws IOException{
-		serverSocket = new ServerSocket(portNumber);
+		this(new ServerConfiguration());
 	}
 	
 	/**
@@ -77,8 +117,43 @@ public class TCPWebServer {
 	 * @throws IOException if a server socket could not be created for the standard portnumber which is 8080, eg. if it is already in use
 	 */
 	public TCPWebServer(int portNumber) throws IOException{
-		this.setPortNumber(portNumber);
-		serverSocket = new ServerSocket(this.portNumber);	
+		this(configurationForPort(portNumber));
+	}
+	
+	/**
+	 * Creates an instance of the TCPWebServer class
+	 * @param configuration the settings to use, eg. port number and the number of worker threads
+	 * @throws IOException if a server socket could not be created for the portnumber in the configuration, eg. if it is already in use
+	 */
+	public TCPWebServer(ServerConfiguration configuration) throws IOException{
+		this.configuration = configuration;
+		FileManager.getInstance().setMappedFileThreshold(configuration.getMappedFileThreshold());
+		FileManager.getInstance().startIndex(configuration.getIndexPollInterval());
+		this.setPortNumber(configuration.getPortNumber());
+		// opened through a channel so that the accepted sockets has channels that files can be transfered straight to
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverSocket = serverChannel.socket();
+		serverSocket.bind(new InetSocketAddress(this.portNumber));
+		this.accessLog = AccessLog.startFromConfiguration(configuration);
+		this.clientLimiter = ClientLimiter.fromConfiguration(configuration);
+		AdmissionController admissionController = AdmissionController.fromConfiguration(configuration);
+		this.processor = new RequestProcessor(this, metrics, configuration.isMetricsEndpointEnabled(), accessLog, clientLimiter,
+				admissionController);
+		metrics.setAccessLog(accessLog);
+		metrics.setClientLimiter(clientLimiter);
+		metrics.setAdmissionController(admissionController);
+	}
+	
+	/**
+	 * Creates a default configuration that uses the specified port number
+	 * @param portNumber the port number to use
+	 * @return the configuration
+	 * @throws IOException if the portnumber is out of range
+	 */
+	private static ServerConfiguration configurationForPort(int portNumber) throws IOException{
+		ServerConfiguration configuration = new ServerConfiguration();
+		configuration.setPortNumber(portNumber);
+		return configuration;
 	}
 	
 	
@@ -90,247 +165,217 @@ public class TCPWebServer {
 	 * different ways:
 	 * 1. Send "QUIT" to the server on the port it is currently running on to recieve HTTP-requests
 	 * 2. Enter a 0 in to the console window if the server has been started in such a way that System.in reads input from there
+	 * Accepted connections are handed to the worker threads, when an exit-request has been made the server stops accepting new
+	 * connections and waits for the ones that are being handled to finish before it returns
 	 * @throws IOException 
 	 */
 	public void startServer() throws IOException{
 		// System.out.println("Server started, enter 0 to exit");
-		Runnable exitServer = new ExitServer();
+		Runnable exitServer = new ExitServer(this);
 		Thread exitThread = new Thread(exitServer);
 		exitThread.start();
+		metrics.register(portNumber);
+		workers = createWorkers();
 		while(!exit){
-			handleConnection(listenForConnections());
+			Socket socket;
+			try {
+				socket = listenForConnections();
+			} catch (IOException e) {
+				if(exit){
+					break; // the server socket was closed by an exit-request
+				}
+				throw e;
+			}
+			dispatchConnection(socket);
 		}
 		exitThread.interrupt();
+		this.drainConnections();
 		this.shutdownServer();
+		metrics.unregister();
+		FileManager.getInstance().stopIndex();
+		if(accessLog != null){
+			accessLog.stop(); // the connections are drained, so every response has been recorded
+		}
+		BufferPool.getInstance().reportLeaks(System.err); // only lists anything when the pool is in debug mode
 	}
 	
 	/**
-	 * Listens for connections
-	 * @return a socket that represents the client that has connected
-	 * @throws IOException if an error occurs while trying to accept an connection
+	 * Creates the worker threads that handles the accepted connections. In the pooled execution mode the number of threads and the
+	 * size of the queue is taken from the configuration, in the virtual execution mode every connection gets its own virtual thread
+	 * and falls back to the pool if the JVM does not support virtual threads
+	 * @return the worker threads as an ExecutorService
 	 */
-	public Socket listenForConnections() throws IOException{
-		Socket clientConnectionSocket = null;
-		clientConnectionSocket = serverSocket.accept();
-		
-		
-		return clientConnectionSocket;
-		
+	private ExecutorService createWorkers(){
+		if(configuration.getExecutionMode() == ExecutionMode.VIRTUAL){
+			ExecutorService virtualWorkers = createVirtualThreadWorkers();
+			if(virtualWorkers != null){
+				return virtualWorkers;
+			}
+			System.out.println("Virtual threads are not supported by this JVM(needs Java 21 or later), will use the worker pool instead");
+		}
+		int workerThreads = configuration.getWorkerThreads();
+		return new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(configuration.getWorkerQueueLimit()), new WorkerThreadFactory(),
+				new RejectConnection());
 	}
 	
-	
-	
 	/**
-	 * Manages the connection by reading the input from the client and then responding to it
-	 * @param socket
-	 * @return true if the connection was handled correctly, false otherwise
-	 * @throws IOException if an error arises
+	 * Creates an executor that starts a new virtual thread for every connection. Looked up by reflection so that the server still
+	 * compiles and runs on JVMs older than Java 21
+	 * @return the executor, or null if virtual threads are not available
 	 */
-	private void handleConnection(Socket socket) throws IOException{
-		
-		Request recievedRequest;
-		
-		// in case the client does not disconnect or adds "\n" to the text he sends so the readline method does not understand
-		// it is one line
-		socket.setSoTimeout(defaultSOTimeout);
-		
-		
-		
-		// Read input from client
-		recievedRequest = new Request(recieveRequest(socket.getInputStream(), "\r\n\r\n"));
-		// System.out.println("recieve data: " + recievedRequest.getOriginalRequestString());
-		processAndSendRequest(socket.getOutputStream(), recievedRequest); 
-		
-		this.closeSocket(socket);
-		
+	private static ExecutorService createVirtualThreadWorkers(){
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return null; // NoSuchMethodException on older JVMs, or virtual threads has been disabled
+		}
 	}
 	
 	/**
-	 * Gets the page that is relevant for the request
-	 * @param requestString the string that represents the request commando
-	 * @return the relevant page, including an error page if the request is wrong in some way
-	 * @throws IOException if this happens something is wrong with the whole connection/socket
+	 * Hands the connection to a worker thread, if every worker is busy and the queue is full, or the client already has as many
+	 * connections open as it may, the connection is rejected with a 503
+	 * @param socket the connection to be handled
 	 */
-	private void processAndSendRequest(OutputStream out, Request request) throws IOException{
-		FileManager fileManager = FileManager.getInstance();
-		boolean fileNotFound = false;
-		boolean isValidRequest = request.isValidRequest();
-		
-		if(isValidRequest){
-			RequestCommands requestcommand = (request.getRequestCommand());
-			try {
-				switch(requestcommand){
-				case GET09:
-					fileManager.copyFileToStream(out, request.getResource());
-					break;
-				case GET10:
-					sendResponseGET1x0(out, request);
-					break;
-				case HEAD10:
-					sendResponseHEAD1x0(out, request);
-					break;
-				case QUIT:
-					exit = true;
-					sendResponseQUIT(out, request);
-					break;
-				default:
-					isValidRequest = false;
-					break;
-				}
-			} catch (IOException e) {
-				// could not find file or other error return error file
-				if(e instanceof FileNotFoundException){
-					// return 404 file not found page
-					fileNotFound = true;
-				} else{
-					isValidRequest = false; // if it turns out the request was not valid after all
-				}
-			}
-		}
-		
-		// if the resource could not be found
-		if(fileNotFound){
-			// Get error page(make distinction between 400 and 404 in 1.0, not implemented yet)
-			try {
-				fileManager.copyFileToStream(out, TCPWebServer.fileNotFound);
-			} catch (IOException e) {
-				DataOutputStream dos = new DataOutputStream(out);
-				dos.write("Major error, make sure the files are in the correct folders....".getBytes());
+	private void dispatchConnection(Socket socket){
+		metrics.connectionAccepted();
+		ClientLimiter.Client client = null;
+		if(clientLimiter != null){
+			client = clientLimiter.connectionOpened(socket.getInetAddress());
+			if(client == null){
+				rejectConnection(socket);
+				return;
 			}
 		}
-		
-		if(!isValidRequest){
-			// Load error file
-			try {
-				if(request.usesNewerHTTP()){
-					sendResponseGET1x0(out, new Request("GET /" + TCPWebServer.error400File + " HTTP/1.1\r\n\r\n"));
-				} else{
-					fileManager.copyFileToStream(out, TCPWebServer.errorFile);
-				}
-			} catch (IOException e) {
-				DataOutputStream dos = new DataOutputStream(out);
-				dos.write("Major error, make sure the files are in the correct folders....".getBytes());
-			}
-		}
-		
-		DataOutputStream dos = new DataOutputStream(out);
-		dos.write("\r\n\r\n".getBytes()); // sending the last CRLF
+		workers.execute(new ConnectionHandler(socket, client));
 	}
 	
 	/**
-	 * Returns the response for the QUIT-command
-	 * @param request the QUIT request
-	 * @return the response for the QUIT-command
-	 * @throws IOException throws exception if there is an error writing to the DataOutputStream object created using "out"
+	 * Answers a connection that will not be served with a 503 and closes it
+	 * @param socket the connection to reject
 	 */
-	private void sendResponseQUIT(OutputStream out, Request request) throws IOException {
-		DataOutputStream dos = new DataOutputStream(out);
-		dos.write("Server shuting down".getBytes());
+	private void rejectConnection(Socket socket){
+		metrics.responseSent(ResponseCode.SERVICE_UNAVAILABLE);
+		try {
+			socket.getOutputStream().write(serviceUnavailableResponse);
+			metrics.bytesSent(serviceUnavailableResponse.length);
+		} catch (IOException e) {
+			// the client is gone, nothing to tell
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+			metrics.connectionClosed();
+		}
 	}
 	
 	/**
-	 * Returns the response for the GET request made with HTTP/1.0 or HTTP/1.1
-	 * @param request the GET request
-	 * @return the response to the GET request
-	 * @throws IOException 
+	 * Waits for the connections that are being handled, or are waiting in the queue, to finish. Connections that have not
+	 * finished when the drain timeout in the configuration has passed are interrupted
 	 */
-	private void sendResponseGET1x0(OutputStream out, Request request) throws IOException{
-		FileManager fm = FileManager.getInstance();
-		// generate headers
-		this.sendResponseHEAD1x0(out, request);
-		// get requested file, if this does not work perfectly throw exception and the parent function will handle it...
-		if(fm.fileExistsAndIsReadable(request.getResource())){
-			fm.copyFileToStream(out, request.getResource());
-		}else{
-			fm.copyFileToStream(out, fileNotFound);
+	private void drainConnections(){
+		workers.shutdown();
+		try {
+			if(!workers.awaitTermination(configuration.getDrainTimeout(), TimeUnit.MILLISECONDS)){
+				workers.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			workers.shutdownNow();
+			Thread.currentThread().interrupt();
 		}
 	}
 	
 	/**
-	 * Sends the response for the HEAD request made with HTTP/1.0 or HTTP/1.1
-	 * @param request the HEAD request
-	 * @throws IOException only if something goes very wrong in this method, eg. if we cant find any file including the fileNotFound file
+	 * Listens for connections
+	 * @return a socket that represents the client that has connected
+	 * @throws IOException if an error occurs while trying to accept an connection
 	 */
-	private void sendResponseHEAD1x0(OutputStream out, Request request) throws IOException{
-		String responseHeader = getResponseHEAD1x0(request);
+	public Socket listenForConnections() throws IOException{
+		Socket clientConnectionSocket = null;
+		clientConnectionSocket = serverSocket.accept();
 		
-		DataOutputStream dos = new DataOutputStream(out);
-		dos.write((responseHeader).getBytes());
+		
+		return clientConnectionSocket;
 		
 	}
 	
 	
+	
 	/**
-	 * Returns the response for the HEAD request made with HTTP/1.0 or HTTP/1.1
-	 * @param request the HEAD request
-	 * @return the response to the HEAD request
+	 * Manages the connection by reading the input from the client and then responding to it. If the client wants the connection
+	 * kept open(keep-alive) the requests are read and answered one after the other until the client closes it, it has been idle
+	 * for too long or the max number of requests has been served. Responses to pipelined requests, that were sent before the
+	 * response to the previous request, are collected and flushed together
+	 * @param socket
+	 * @throws IOException if an error arises
 	 */
-	private String getResponseHEAD1x0(Request request){
-		String responseHeader = "";
+	private void handleConnection(Socket socket) throws IOException{
 		
-		FileManager fm = FileManager.getInstance();
-		// First status response, eg. HTTP/1.1 200 OK
-		if(fm.fileExistsAndIsReadable(request.getResource())){ // file exists in the specified location and is readable
-			responseHeader = "HTTP/1.1 200 OK\r\n"; // always return version 1.1
-		}else{
-			responseHeader = "HTTP/1.1 404 Not Found\r\n";
-			request.setResource(TCPWebServer.fileNotFound);
-		}
-		// Then headers that express metadata about the file, eg. content-type and content-length
-		// Date: Wed, 12 Feb 2014 21:21:15 GMT
-		responseHeader += "Date: " + (new Date()).toString() + "\r\n";
-		// Server: Apache
-		responseHeader += "Server: PytteWebb-1.0\r\n";
-		// Content-Length: 215
-		responseHeader += "Content-Length: " + (fm.getFileSize(request.getResource())) + "\r\n";
-		// Connection: close
-		responseHeader += "Connection: close\r\n";
-		// Content-Type: text/html; charset=iso-8859-1  ; charset=UTF-8
-		responseHeader += "Content-Type: " + fm.getFileMimeType(request.getResource()) + "\r\n\r\n"; //TODO: fix charset
+		Request recievedRequest;
 		
-		// end data with a single CRLF
+		// in case the client does not disconnect or adds "\n" to the text he sends so the readline method does not understand
+		// it is one line
+		socket.setSoTimeout(defaultSOTimeout);
+		// the responses are already collected in to as few writes as possible, so they should be sent right away
+		socket.setTcpNoDelay(true);
 		
-		return responseHeader;
-	}
-	
-	
-	
-	
-	/**
-	 * Reads the request from the client
-	 * @param is the sockets inputstream to read from
-	 * @param stopSign the specified character-combination to stop reading data, eg. "\r\n\r\n"
-	 * @return the recieved data, usually request with headers
-	 * @throws IOException this is not the exception you are looking for
-	 */
-	private String recieveRequest(InputStream is, String stopSign) throws IOException{
-		int available = 0;
-		String recieved = "";
-		long timeEntered = System.currentTimeMillis();
+		InputStream in = socket.getInputStream();
+		OutputStream out = getOutputStream(socket);
+		RequestReader requestReader = new RequestReader(metrics);
+		int handledRequests = 0;
 		
-		while(true){
-			available = is.available();
-			if(recieved.endsWith(stopSign)){
-				break;
+		try {
+			while(true){
+				// Read input from client, the first request gets the read limit and the following ones the keep-alive timeout
+				int readLimit = (handledRequests == 0) ? defaultReadRequestLimit : configuration.getKeepAliveTimeout();
+				recievedRequest = requestReader.readRequest(in, socket, readLimit);
+				if(handledRequests > 0 && recievedRequest.getRequestLength() == 0){
+					break; // the client has closed the connection or has been idle for too long
+				}
+				handledRequests++;
+				recievedRequest.setClientAddress(socket.getInetAddress());
+				// System.out.println("recieve data: " + recievedRequest.getOriginalRequestString());
+				
+				boolean keepAlive = configuration.isKeepAliveEnabled() && recievedRequest.isValidRequest() &&
+						recievedRequest.wantsKeepAlive() && handledRequests < configuration.getMaxKeepAliveRequests() && !exit;
+				keepAlive = processor.processAndSendRequest(out, recievedRequest, keepAlive);
+				if(!keepAlive){
+					break;
+				}
+				if(!requestReader.hasBufferedRequest()){
+					out.flush(); // no pipelined request waiting, send what has been collected
+				}
 			}
 			
-			byte[] data = new byte[available];
-			
-			is.read(data);
-			// Uses this because while-loop read forever if request not ended properly and then crashes program
-			if(System.currentTimeMillis() >= (timeEntered + defaultReadRequestLimit)){
-				recieved = "GET /" + TCPWebServer.errorFile;
-				break;
+			out.flush();
+		} finally {
+			if(out instanceof ChannelOutputStream){
+				((ChannelOutputStream) out).release(); // the buffer goes back to the pool
 			}
-			recieved += new String(data);
 		}
+		this.closeSocket(socket);
 		
-		return recieved;
 	}
 	
 	
 	
 	
+	/**
+	 * Gets the stream to write the response to, a ChannelOutputStream if the socket has a channel so that files can be sent
+	 * straight from the file to the socket. The stream collects small writes and must be flushed
+	 * @param socket the socket to write to
+	 * @return the stream to write the response to
+	 * @throws IOException if the sockets stream could not be retrieved
+	 */
+	private OutputStream getOutputStream(Socket socket) throws IOException{
+		if(socket.getChannel() != null){
+			return new ChannelOutputStream(socket.getChannel());
+		}
+		return new BufferedOutputStream(socket.getOutputStream());
+	}
+	
 	/**
 	 * tries to close the socket
 	 * @param socket the socket to close
@@ -341,10 +386,12 @@ public class TCPWebServer {
 	}
 	
 	/**
-	 * shutsdown server
+	 * shutsdown server, makes the server stop accepting new connections and the connections that are being handled are drained
+	 * by startServer. Used by both the QUIT command and the console
 	 * @throws IOException 
 	 */
 	public void shutdownServer() throws IOException{
+		exit = true;
 		serverSocket.close();
 	}
 	
@@ -361,6 +408,14 @@ public class TCPWebServer {
 	}
 	
 	
+	/**
+	 * Gets the metrics of the server
+	 * @return the metrics
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+	
 	/**
 	 * gets the portnumber
 	 * @return the current portnumber as an integer
@@ -382,30 +437,83 @@ public class TCPWebServer {
 	
 	
 	/**
-	 * Used to read for input from the console and if it reads a 0 then it will exit
+	 * Handles a single accepted connection on one of the worker threads
 	 * @author Mattis
 	 *
 	 */
-	private class ExitServer implements Runnable{
-
+	private class ConnectionHandler implements Runnable{
+		// the connection to handle
+		private final Socket socket;
+		
+		// the client the connection was counted on by the client limiter, null if there is no limiter
+		private final ClientLimiter.Client client;
+		
+		public ConnectionHandler(Socket socket, ClientLimiter.Client client){
+			this.socket = socket;
+			this.client = client;
+		}
+		
+		/**
+		 * Tells the client limiter that the connection is closed
+		 */
+		private void releaseClient(){
+			if(clientLimiter != null){
+				clientLimiter.connectionClosed(client);
+			}
+		}
+		
 		@Override
 		public void run() {
-			final Scanner s = new Scanner(System.in);
-			
-			while(!exit){
-				// listen for input
-				if(s.nextInt() == 0){
-					exit = true;
-					try {
-						shutdownServer();
-					} catch (IOException e) {
-						e.printStackTrace();
-						forcedShutdown();
-					}
+			try {
+				handleConnection(socket);
+			} catch (IOException e) {
+				// the client has most likely disconnected, nothing more to do than to make sure the socket is closed
+			} finally {
+				try {
+					closeSocket(socket);
+				} catch (IOException e) {
+					// already closed
 				}
+				releaseClient();
+				metrics.connectionClosed();
 			}
 		}
 		
 	}
 	
+	/**
+	 * Used when every worker is busy and the queue is full, answers the connection with a 503 and closes it instead of letting
+	 * it wait
+	 * @author Mattis
+	 *
+	 */
+	private class RejectConnection implements RejectedExecutionHandler{
+		
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			ConnectionHandler handler = (ConnectionHandler) r;
+			handler.releaseClient();
+			rejectConnection(handler.socket);
+		}
+		
+	}
+	
+	/**
+	 * Names the worker threads so that they can be told apart, eg. in a thread dump
+	 * @author Mattis
+	 *
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory{
+		// the number of the next thread
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "PytteWebb-worker-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+		
+	}
+	
 }
@@ -0,0 +1,248 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import fileManagement.ChannelOutputStream;
+import fileManagement.DocumentIndex;
+import fileManagement.FileCache;
+import fileManagement.FileManager;
+import fileManagement.PooledOutputStream;
+
+/**
+ * Makes a newly started server fast from its first request instead of after a while. The hot files of the document root are read
+ * in to the file cache and synthetic requests for them are run through the same parsing and RequestProcessor code as the real
+ * requests(GET, HEAD, conditional, ranges, gzip, 404 and 400) so that the classes are loaded and the JIT compiler has compiled
+ * the hot paths before the first connection is accepted. The responses are written to streams that throws them away, and the
+ * requests are counted in metrics of their own so the metrics of the server only holds real requests.
+ * Run with warmuponly=true under -XX:ArchiveClassesAtExit the warm-up also gives the classes for an AppCDS archive, see readme.txt
+ * @author Mattis
+ *
+ */
+public class WarmUp {
+	/**
+	 * The number of synthetic requests that are run when the warm-up is asked for without a number
+	 */
+	public static final int defaultRequests = 2000;
+
+	// The requests are ASCII text
+	private static final Charset requestCharset = Charset.forName("ISO-8859-1");
+
+	// The largest number of bytes of files that are read in to the file cache, half of the cache so that it can still take
+	// files that has not been preloaded
+	private static final long preloadBudget = 8L << 20;
+
+	// The largest number of files that are preloaded and that synthetic requests are made for
+	private static final int maxHotFiles = 64;
+
+	// The resources that are always there, used when the document root has not been indexed
+	private static final String[] knownResources = {TCPWebServer.indexFile, TCPWebServer.fileNotFound, TCPWebServer.error400File,
+			TCPWebServer.errorFile};
+
+	// The requests that are made for every hot file, "%s" is replaced by the resource
+	private static final String[] requestFormats = {
+		"GET /%s HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip, deflate\r\n\r\n",
+		"GET /%s HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n",
+		"GET /%s HTTP/1.0\r\n\r\n",
+		"HEAD /%s HTTP/1.1\r\nHost: localhost\r\n\r\n",
+		"GET /%s HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: \"0-0\"\r\nIf-Modified-Since: Thu, 01 Jan 1970 00:00:00 GMT\r\n\r\n",
+		"GET /%s HTTP/1.1\r\nHost: localhost\r\nRange: bytes=0-99\r\n\r\n",
+		"GET /%s HTTP/1.1\r\nHost: localhost\r\nRange: bytes=0-9,20-29,-5\r\n\r\n",
+		"GET /%s\r\n\r\n",
+	};
+
+	// The requests that are made once per round whatever the hot files are
+	private static final String[] extraRequests = {
+		"GET /warm-up-not-found.html HTTP/1.1\r\nHost: localhost\r\n\r\n",
+		"GET /../secret HTTP/1.1\r\nHost: localhost\r\n\r\n",
+		"BREW /pot HTTP/1.1\r\n\r\n",
+	};
+
+	// Answers the synthetic requests, with metrics of its own
+	private final RequestProcessor processor;
+
+	// Finds the end of the synthetic requests, just as for the real ones
+	private final RequestReader reader = new RequestReader();
+
+	// The files the synthetic requests are made for
+	private final List<String> hotFiles = new ArrayList<String>();
+
+
+	//////////////////////// Constructors /////////////////////////
+	/**
+	 * Creates an instance of the WarmUp class
+	 * @param server the server that is warmed up, it is never told to shut down by the warm-up
+	 */
+	public WarmUp(WebServer server) {
+		super();
+		this.processor = new RequestProcessor(server);
+	}
+
+
+	///////////////////////// Methods /////////////////////////////////////
+
+	/**
+	 * Preloads the hot files and runs the synthetic requests
+	 * @param requests the number of synthetic requests to run
+	 * @return the number of milliseconds the warm-up took
+	 */
+	public long run(int requests){
+		long start = System.nanoTime();
+		preloadFiles();
+		runRequests(requests);
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/**
+	 * Reads the hot files in to the file cache. The files of the document root are taken from its index, those closest to the
+	 * root first since they are the most likely to be asked for, until the preload budget is used
+	 * @return the number of files that were preloaded
+	 */
+	public int preloadFiles(){
+		FileManager fileManager = FileManager.getInstance();
+		List<String> candidates = new ArrayList<String>();
+		Collections.addAll(candidates, knownResources);
+		DocumentIndex index = fileManager.getIndex();
+		if(index != null){
+			List<String> indexed = index.getFileNames();
+			Collections.sort(indexed, new Comparator<String>() {
+				@Override
+				public int compare(String first, String second) {
+					int depth = depth(first) - depth(second);
+					return depth != 0 ? depth : first.compareTo(second);
+				}
+			});
+			candidates.addAll(indexed);
+		}
+
+		long preloaded = 0;
+		hotFiles.clear();
+		for(String fileName : candidates){
+			if(hotFiles.size() == maxHotFiles){
+				break;
+			}
+			if(hotFiles.contains(fileName)){
+				continue;
+			}
+			FileCache.Entry entry = fileManager.getFileEntry(fileName);
+			if(!entry.isReadable() || entry.getContent() == null || preloaded + entry.getSize() > preloadBudget){
+				continue; // only the files that fits in the cache, the larger ones are mapped or streamed anyway
+			}
+			preloaded += entry.getSize();
+			hotFiles.add(fileName);
+		}
+		return hotFiles.size();
+	}
+
+	/**
+	 * Runs the synthetic requests for the hot files, half of them parsed from a byte array as the blocking engine does and half
+	 * from a direct buffer as the non-blocking engine does. The responses are written to a ChannelOutputStream and a
+	 * PooledOutputStream in turn for the same reason
+	 * @param requests the number of requests to run
+	 */
+	public void runRequests(int requests){
+		List<byte[]> round = createRequests();
+		ByteBuffer direct = ByteBuffer.allocateDirect(RequestReader.defaultMaxRequestSize);
+		OutputStream discard = new DiscardingOutputStream();
+		ChannelOutputStream channelOut = new ChannelOutputStream(Channels.newChannel(discard));
+
+		try {
+			for(int i = 0; i < requests; i++){
+				byte[] bytes = round.get(i % round.size());
+				reader.reset();
+				Request request;
+				if(i % 2 == 0){
+					int end = reader.scan(bytes, 0, bytes.length);
+					request = new Request(bytes, 0, end == -1 ? bytes.length : end);
+				} else{
+					direct.clear();
+					direct.put(bytes);
+					int end = reader.scan(direct, 0, bytes.length);
+					request = new Request(direct, 0, end == -1 ? bytes.length : end);
+				}
+
+				if(i % 4 < 2){
+					processor.processAndSendRequest(channelOut, request, true);
+					channelOut.flush();
+				} else{
+					PooledOutputStream pooledOut = new PooledOutputStream();
+					try {
+						processor.processAndSendRequest(pooledOut, request, true);
+					} finally {
+						pooledOut.release();
+					}
+				}
+			}
+		} catch (IOException e) {
+			// the streams throws nothing away that could fail, a file that disappeared during the warm-up ends it early
+		} finally {
+			channelOut.release();
+		}
+	}
+
+	/**
+	 * Creates one round of synthetic requests, every request format for every hot file and the requests that are made whatever
+	 * the files are
+	 * @return the requests as bytes
+	 */
+	private List<byte[]> createRequests(){
+		List<byte[]> round = new ArrayList<byte[]>(hotFiles.size() * requestFormats.length + extraRequests.length);
+		for(String fileName : hotFiles){
+			for(String format : requestFormats){
+				round.add(String.format(format, fileName).getBytes(requestCharset));
+			}
+		}
+		for(String extra : extraRequests){
+			round.add(extra.getBytes(requestCharset));
+		}
+		return round;
+	}
+
+	/**
+	 * Gets the number of directories between the root and a file
+	 */
+	private static int depth(String fileName){
+		int depth = 0;
+		for(int i = 0; i < fileName.length(); i++){
+			if(fileName.charAt(i) == '/'){
+				depth++;
+			}
+		}
+		return depth;
+	}
+
+
+	//////////////// GETTERS AND SETTERS ///////////////////////
+	/**
+	 * Gets the files that were preloaded and that the synthetic requests are made for
+	 * @return the file names
+	 */
+	public List<String> getHotFiles() {
+		return Collections.unmodifiableList(hotFiles);
+	}
+
+
+
+	/**
+	 * An OutputStream that throws away everything that is written to it
+	 * @author Mattis
+	 *
+	 */
+	private static class DiscardingOutputStream extends OutputStream{
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+}
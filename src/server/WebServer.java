@@ -0,0 +1,36 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * The engines that can serve the requests, eg. the blocking TCPWebServer or the non-blocking NioWebServer
+ * @author Mattis
+ *
+ */
+public interface WebServer {
+	
+	/**
+	 * starts the server and listens for incoming connections until an exit-request has been made
+	 * @throws IOException if the server could not accept connections
+	 */
+	public void startServer() throws IOException;
+	
+	/**
+	 * Makes the server stop accepting new connections, the connections that are being handled are allowed to finish before
+	 * startServer returns
+	 * @throws IOException if the server could not be shut down
+	 */
+	public void shutdownServer() throws IOException;
+	
+	/**
+	 * shutsdown the entire program even if the server could not be shut down properly
+	 */
+	public void forcedShutdown();
+	
+	/**
+	 * Gets the metrics of the server, eg. the number of requests and responses
+	 * @return the metrics
+	 */
+	public ServerMetrics getMetrics();
+	
+}
@@ -4,7 +4,7 @@ import java.io.IOException;
 
 
 /**
- * Uses the logic in TCPWebServer to act as a webserver, starts server by the method startServer()
+ * Uses the logic in TCPWebServer(or NioWebServer) to act as a webserver, starts server by the method startServer()
  * @author Mattis
  *
  */
@@ -12,19 +12,32 @@ public class WebServerMain {
 
 	/**
 	 * This is the entry point....
-	 * @param args
+	 * @param args the port number followed by optional settings as name=value, eg. "8080 engine=nio loops=4 warmup=2000"
 	 * @throws IOException 
 	 */
 	public static void main(String[] args) throws IOException{
-		int portNumber = 8080;
-		if(args.length > 0){
-			try{
-				portNumber = Integer.parseInt(args[0]);
-			} catch(NumberFormatException e){
-				// System.out.println("non valid portnumber will use " + portNumber + " instead");
-			}
+		ServerConfiguration configuration = ServerConfiguration.fromArguments(args);
+		WebServer server;
+		if(configuration.getEngine() == ServerEngine.NIO){
+			server = new NioWebServer(configuration);
+		} else{
+			server = new TCPWebServer(configuration);
 		}
-		TCPWebServer server = new TCPWebServer(portNumber);
+		
+		int warmUpRequests = configuration.getWarmUpRequests();
+		if(configuration.isWarmUpOnly() && warmUpRequests == 0){
+			warmUpRequests = WarmUp.defaultRequests;
+		}
+		if(warmUpRequests > 0){
+			WarmUp warmUp = new WarmUp(server);
+			long millis = warmUp.run(warmUpRequests);
+			System.out.println("Warmed up with " + warmUpRequests + " requests for " + warmUp.getHotFiles().size() +
+					" files in " + millis + " ms");
+		}
+		if(configuration.isWarmUpOnly()){
+			System.exit(0); // the classes that were loaded are written to the archive here when run with -XX:ArchiveClassesAtExit
+		}
+		
 		server.startServer();
 		System.exit(1); // must use this because the exit thread is still running because the scanner s reads no input
 		